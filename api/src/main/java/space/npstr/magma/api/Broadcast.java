@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.api;
+
+import net.dv8tion.jda.api.audio.AudioSendHandler;
+
+/**
+ * One opus {@link AudioSendHandler} that many bot members play at the same time, for example the same radio stream in
+ * lots of guilds. Each frame is pulled from the source once, and shared by all members that are subscribed to the
+ * broadcast, so only the rtp header and the encryption are done per connection.
+ * <p>
+ * Create one with {@link MagmaApi#createBroadcast(AudioSendHandler)}, and subscribe members to it with
+ * {@link MagmaApi#subscribeToBroadcast(Member, Broadcast)}.
+ */
+public interface Broadcast {
+
+    /**
+     * @return the send handler that provides the audio of this broadcast
+     */
+    AudioSendHandler getSource();
+}
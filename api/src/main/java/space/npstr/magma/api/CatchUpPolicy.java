@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.api;
+
+/**
+ * What the send systems that are built into Magma do when they fall behind their 20 ms deadlines, for example after a
+ * garbage collection pause or when the machine is starved of cpu. Either way, the send clock of a connection keeps its
+ * deadlines; the policies only differ in what happens to the frames that were due while the connection was behind.
+ */
+public enum CatchUpPolicy {
+
+    /**
+     * Send the missed frames right away, in one burst together with the current one, so the audio stays in time with
+     * the clock. Bursts are capped at 200 ms of audio, which the jitter buffers of the clients can take; frames missed
+     * beyond that are skipped like with {@link #SKIP}.
+     */
+    BURST,
+
+    /**
+     * Send only the current frame, with an rtp timestamp that jumps over the missed ones, so the clients play a gap
+     * and stay in time with the clock. The audio of the send handler is not dropped, it resumes where it left off.
+     * <p>
+     * Connections that stamp their packets ahead of time, with a {@link Options#getLookaheadRingSize() lookahead
+     * ring} or {@link Options#getPreEncryptionDepth() pre-encryption}, can not jump their timestamp, and neither can
+     * packet providers other than the ones of Magma. Their streams are stretched like with {@link #STRETCH}.
+     */
+    SKIP,
+
+    /**
+     * Send only the current frame, as if nothing was missed. The stream is stretched by the time the connection was
+     * behind, so the clients play it that much later.
+     */
+    STRETCH,
+}
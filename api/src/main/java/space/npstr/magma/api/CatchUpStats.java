@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.api;
+
+/**
+ * How often the connections of a send factory fell behind their deadlines, and what their {@link CatchUpPolicy} did
+ * about it. The numbers count up from the creation of the factory.
+ */
+public interface CatchUpStats {
+
+    /**
+     * @return how often missed frames were sent in a burst
+     */
+    long getBursts();
+
+    /**
+     * @return how many missed frames were sent in bursts
+     */
+    long getBurstFrames();
+
+    /**
+     * @return how often missed frames were skipped, including the frames beyond the cap of a burst
+     */
+    long getSkips();
+
+    /**
+     * @return how many missed frames were skipped
+     */
+    long getSkippedFrames();
+
+    /**
+     * @return how often a stream was stretched over missed frames
+     */
+    long getStretches();
+
+    /**
+     * @return by how many frames the streams were stretched
+     */
+    long getStretchedFrames();
+}
@@ -81,6 +81,32 @@ public interface MagmaApi {
      */
     void setSendHandler(final Member member, final AudioSendHandler sendHandler);
 
+    /**
+     * Create a {@link Broadcast} of a send handler, to play it for many bot members at once. The send handler needs to
+     * provide opus audio.
+     *
+     * @param source
+     *         The send handler whose audio shall be broadcast. It is only ever asked for a frame once per 20 ms, no
+     *         matter how many members are subscribed to the broadcast.
+     *
+     * @see #subscribeToBroadcast(Member, Broadcast)
+     */
+    Broadcast createBroadcast(final AudioSendHandler source);
+
+    /**
+     * Play a {@link Broadcast} for a bot member, in place of its {@link AudioSendHandler}. A member that subscribes
+     * late joins the broadcast at its current frame. Use {@link #setSendHandler(Member, AudioSendHandler)} or
+     * {@link #removeSendHandler(Member)} to unsubscribe the member again.
+     *
+     * @param member
+     *         user id + guild id of the bot member that shall play the broadcast
+     * @param broadcast
+     *         a broadcast created by {@link #createBroadcast(AudioSendHandler)}
+     *
+     * @see Member
+     */
+    void subscribeToBroadcast(final Member member, final Broadcast broadcast);
+
     /**
      * The {@link SpeakingMode SpeakingMode} to use.
      * @param member
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.api;
+
+import net.dv8tion.jda.api.audio.factory.IAudioSendFactory;
+
+/**
+ * A send factory that is built into Magma, as created by the {@code MagmaFactory}. Besides creating send systems, it
+ * reports how well its connections keep up with their deadlines.
+ */
+public interface MagmaSendFactory extends IAudioSendFactory {
+
+    /**
+     * @return how many started send systems are in each slot of the timing wheel of the factory, one slot per
+     * millisecond of the 20 ms between the packets of a connection. Empty for factories that do not spread their
+     * connections over a timing wheel.
+     */
+    int[] getSlotOccupancy();
+
+    /**
+     * @return how often the connections of this factory fell behind, and how they caught up
+     */
+    CatchUpStats getCatchUpStats();
+}
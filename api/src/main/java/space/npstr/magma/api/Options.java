@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.api;
+
+import org.immutables.value.Value;
+
+/**
+ * Tuning knobs of a Magma instance. All of them have defaults that suit most users, so an instance built without
+ * setting anything is a sensible choice.
+ * <p>
+ * Build one of these by using the autogenerated builder like so:
+ * <pre>
+ * {@code
+ * Options options = MagmaOptions.builder()
+ *      .liteKeyStreamPrecomputeDepth(4)
+ *      .build();
+ * }
+ * </pre>
+ */
+@Value.Immutable
+@Value.Style(
+        typeAbstract = "*",
+        typeImmutable = "Magma*"
+)
+public abstract class Options {
+
+    public static final int MAX_LITE_KEY_STREAM_PRECOMPUTE_DEPTH = 64;
+    public static final long MAX_ENCRYPTION_MODE_CALIBRATION_MILLIS = 10_000;
+    public static final int MIN_PRE_ENCRYPTION_DEPTH = 2;
+    public static final int MAX_PRE_ENCRYPTION_DEPTH = 8;
+    public static final int MAX_LOOKAHEAD_RING_SIZE = 50;
+    public static final int MAX_OPUS_FRAMES_PER_PACKET = 3;
+    public static final int MIN_SILENCE_SUPPRESSION_FRAMES = 5;
+    public static final int MAX_SILENCE_SUPPRESSION_FRAMES = 3000;
+
+    /**
+     * How many packets ahead the key streams of connections using the xsalsa20_poly1305_lite encryption mode are
+     * computed in the background, so that sending a packet only has to encrypt and authenticate the audio.
+     * This takes work off the moment a packet is due, at the cost of a little memory per connection.
+     * <p>
+     * Defaults to 0, which disables precomputing.
+     */
+    @Value.Default
+    public int getLiteKeyStreamPrecomputeDepth() {
+        return 0;
+    }
+
+    /**
+     * How long to measure the cost of each encryption mode on this machine, in milliseconds. The measuring runs once
+     * per JVM in the background when Magma starts. Once it is done, the cheapest mode that Discord offers is picked
+     * for new connections instead of going by the hardcoded preference.
+     * <p>
+     * Defaults to 0, which disables calibrating.
+     */
+    @Value.Default
+    public long getEncryptionModeCalibrationMillis() {
+        return 0;
+    }
+
+    /**
+     * How many packets of each connection are pulled from its send handler and encrypted ahead of time, on a shared
+     * pool sized to the available cores. Sending a packet then only has to hand over a buffer that is ready, no
+     * matter how many connections share a core, at the cost of starting and stopping audio this many packets late.
+     * At least 2, as the packet that is sent next is one of them.
+     * <p>
+     * Defaults to 0, which encrypts each packet when it is due.
+     */
+    @Value.Default
+    public int getPreEncryptionDepth() {
+        return 0;
+    }
+
+    /**
+     * How many packets of each connection are kept ready in a ring that is filled off the send thread, on the same
+     * shared pool. Frames are pulled from the send handler and encrypted there, so a send handler or a pool thread that
+     * stalls for less than this many packets does not leave a gap in the audio. Speaking is only switched off once the
+     * ring has run dry. Takes precedence over {@link #getPreEncryptionDepth()}.
+     * <p>
+     * Defaults to 0, which pulls each packet when it is due.
+     */
+    @Value.Default
+    public int getLookaheadRingSize() {
+        return 0;
+    }
+
+    /**
+     * How many 20 ms opus frames of the send handler are combined into one packet. Sending 40 or 60 ms per packet
+     * cuts the packets, encryptions and syscalls per connection to a half or a third, at the cost of a little latency
+     * and a longer gap when a packet is lost, which suits music better than speech. Can not be combined with
+     * {@link #getLookaheadRingSize()} or {@link #getPreEncryptionDepth()}.
+     * <p>
+     * Defaults to 1, which sends each frame in its own packet.
+     */
+    @Value.Default
+    public int getOpusFramesPerPacket() {
+        return 1;
+    }
+
+    /**
+     * After how many silent opus frames in a row, as recognized by their size, sending stops and the speaking state is
+     * cleared, until the send handler provides a frame that is not silent. At least 5 are sent, so that the last
+     * frames before stopping are silent ones, as Discord asks for opus interpolation.
+     * <p>
+     * Defaults to 0, which sends all frames.
+     */
+    @Value.Default
+    public int getSilenceSuppressionFrames() {
+        return 0;
+    }
+
+    @Value.Check
+    protected void valuesInRange() {
+        final int depth = this.getLiteKeyStreamPrecomputeDepth();
+        if (depth < 0 || depth > MAX_LITE_KEY_STREAM_PRECOMPUTE_DEPTH) {
+            throw new IllegalArgumentException("Provided lite key stream precompute depth " + depth
+                    + " is not between 0 and " + MAX_LITE_KEY_STREAM_PRECOMPUTE_DEPTH);
+        }
+        final long calibrationMillis = this.getEncryptionModeCalibrationMillis();
+        if (calibrationMillis < 0 || calibrationMillis > MAX_ENCRYPTION_MODE_CALIBRATION_MILLIS) {
+            throw new IllegalArgumentException("Provided encryption mode calibration time " + calibrationMillis
+                    + "ms is not between 0 and " + MAX_ENCRYPTION_MODE_CALIBRATION_MILLIS);
+        }
+        final int preEncryptionDepth = this.getPreEncryptionDepth();
+        if (preEncryptionDepth != 0
+                && (preEncryptionDepth < MIN_PRE_ENCRYPTION_DEPTH || preEncryptionDepth > MAX_PRE_ENCRYPTION_DEPTH)) {
+            throw new IllegalArgumentException("Provided pre-encryption depth " + preEncryptionDepth
+                    + " is neither 0 nor between " + MIN_PRE_ENCRYPTION_DEPTH + " and " + MAX_PRE_ENCRYPTION_DEPTH);
+        }
+        final int lookaheadRingSize = this.getLookaheadRingSize();
+        if (lookaheadRingSize < 0 || lookaheadRingSize > MAX_LOOKAHEAD_RING_SIZE) {
+            throw new IllegalArgumentException("Provided lookahead ring size " + lookaheadRingSize
+                    + " is not between 0 and " + MAX_LOOKAHEAD_RING_SIZE);
+        }
+        final int framesPerPacket = this.getOpusFramesPerPacket();
+        if (framesPerPacket < 1 || framesPerPacket > MAX_OPUS_FRAMES_PER_PACKET) {
+            throw new IllegalArgumentException("Provided opus frames per packet " + framesPerPacket
+                    + " is not between 1 and " + MAX_OPUS_FRAMES_PER_PACKET);
+        }
+        final int silenceSuppressionFrames = this.getSilenceSuppressionFrames();
+        if (silenceSuppressionFrames != 0 && (silenceSuppressionFrames < MIN_SILENCE_SUPPRESSION_FRAMES
+                || silenceSuppressionFrames > MAX_SILENCE_SUPPRESSION_FRAMES)) {
+            throw new IllegalArgumentException("Provided silence suppression frames " + silenceSuppressionFrames
+                    + " is neither 0 nor between " + MIN_SILENCE_SUPPRESSION_FRAMES + " and "
+                    + MAX_SILENCE_SUPPRESSION_FRAMES);
+        }
+        if (framesPerPacket > 1 && (lookaheadRingSize > 0 || preEncryptionDepth > 0)) {
+            throw new IllegalArgumentException("Combining opus frames is not supported together with a lookahead ring"
+                    + " or pre-encryption");
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.api;
+
+import net.dv8tion.jda.api.audio.factory.IPacketProvider;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link IPacketProvider} that writes its packets into buffers of the send system, so that a send system with its
+ * own (possibly direct) send buffers needs neither a {@link java.net.DatagramPacket} nor a copy of
+ * {@link #getNextPacketRaw(boolean) Magma's buffer} per packet. The packet providers of Magma implement this, send
+ * systems can check for it and fall back to the methods of {@link IPacketProvider} otherwise.
+ * <p>
+ * Packets are only sealed right into targets with a backing array. The crypto of Magma works on arrays, so a packet
+ * for a direct target is sealed into a buffer of Magma first and then copied over, which costs one copy per packet.
+ * That is also what sending a heap buffer through a {@link java.nio.channels.DatagramChannel} costs, as the channel
+ * copies it into direct memory, so the send systems that are built into Magma use direct send buffers.
+ */
+@NotThreadSafe
+public interface ZeroCopyPacketProvider extends IPacketProvider {
+
+    /**
+     * Write the next packet into the target buffer, starting at its position. The position is advanced past the
+     * packet, the limit is left untouched. Packets are encrypted right into buffers with a backing array, and copied
+     * into direct buffers once they are complete.
+     *
+     * @param target
+     *         the buffer to write the packet into. A packet is at most the length of the opus audio plus 52 bytes.
+     * @param changeTalking
+     *         see {@link #getNextPacketRaw(boolean)}
+     *
+     * @return the length of the written packet, or 0 if there is nothing to send
+     *
+     * @throws java.nio.BufferOverflowException
+     *         if the packet does not fit into the remaining bytes of the target, in which case it is dropped
+     */
+    int writeNextPacket(ByteBuffer target, boolean changeTalking);
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.benchmarks;
+
+import net.dv8tion.jda.api.audio.AudioPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.crypto.AeadCipher;
+import space.npstr.magma.impl.crypto.CipherContext;
+import space.npstr.magma.impl.crypto.XSalsa20Poly1305;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sealing a single audio packet with a ready nonce, for each encryption mode, to tell the cost of the cipher apart
+ * from the cost of generating nonces.
+ */
+@State(Scope.Thread)
+public class AudioPacketBenchmark {
+
+    @Param
+    public EncryptionMode encryptionMode;
+
+    @Param({"3", "40", "120", "400"})
+    public int payloadSize;
+
+    private AudioPacket audioPacket;
+    private ByteBuffer packetBuffer;
+    private XSalsa20Poly1305 secretBox;
+    private AeadCipher aeadCipher;
+    private byte[] nonce;
+    private int nonceLength;
+
+    @Setup
+    public void setup() {
+        this.audioPacket = Payloads.audioPacket(this.payloadSize);
+        this.packetBuffer = ByteBuffer.allocate(512);
+        final CipherContext cipherContext = new CipherContext(Payloads.secretKey());
+        this.secretBox = cipherContext.getSecretBox();
+        switch (this.encryptionMode) {
+            case XSALSA20_POLY1305:
+                this.nonce = this.audioPacket.getNoncePadded();
+                this.nonceLength = 0;
+                break;
+            case XSALSA20_POLY1305_LITE:
+                this.nonce = new byte[XSalsa20Poly1305.NONCE_LENGTH];
+                this.nonceLength = 4;
+                break;
+            case XSALSA20_POLY1305_SUFFIX:
+                this.nonce = new byte[XSalsa20Poly1305.NONCE_LENGTH];
+                this.nonceLength = XSalsa20Poly1305.NONCE_LENGTH;
+                break;
+            case AEAD_AES256_GCM_RTPSIZE:
+                this.aeadCipher = cipherContext.getAesGcmCipher();
+                this.nonce = cipherContext.getAesGcmNonceBuffer();
+                this.nonceLength = 4;
+                break;
+            case AEAD_XCHACHA20_POLY1305_RTPSIZE:
+                this.aeadCipher = cipherContext.getXChaChaCipher();
+                this.nonce = cipherContext.getXChaChaNonceBuffer();
+                this.nonceLength = 4;
+                break;
+            default:
+                throw new IllegalStateException("Encryption mode [" + this.encryptionMode + "] is not supported!");
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer asEncryptedPacket() {
+        if (this.aeadCipher != null) {
+            return this.audioPacket.asAeadEncryptedPacket(this.packetBuffer, this.aeadCipher, this.nonce, this.nonceLength);
+        }
+        return this.audioPacket.asEncryptedPacket(this.packetBuffer, this.secretBox, this.nonce, this.nonceLength);
+    }
+}
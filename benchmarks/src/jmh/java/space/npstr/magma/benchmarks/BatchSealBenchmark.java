@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.crypto.CipherContext;
+import space.npstr.magma.impl.processing.PacketBatch;
+import space.npstr.magma.impl.processing.RtpPacketWriter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writing one packet for each of the connections in a slot of the timing wheel, one after the other like the thread
+ * per connection send factory does, versus together in a {@link PacketBatch} like the nio and epoll ones do. The
+ * scores are per packet.
+ */
+@State(Scope.Thread)
+public class BatchSealBenchmark {
+
+    private static final int PACKETS = 256;
+
+    @Param({"XSALSA20_POLY1305_LITE", "AEAD_AES256_GCM_RTPSIZE"})
+    public EncryptionMode encryptionMode;
+
+    @Param({"40", "400"})
+    public int payloadSize;
+
+    private final PacketBatch batch = new PacketBatch();
+    private ByteBuffer audio;
+    private CipherContext[] cipherContexts;
+    private ByteBuffer[] packetBuffers;
+    private long nonce = 0;
+
+    @Setup
+    public void setup() {
+        this.audio = Payloads.audioPacket(this.payloadSize).getEncodedAudio();
+        this.cipherContexts = new CipherContext[PACKETS];
+        this.packetBuffers = new ByteBuffer[PACKETS];
+        for (int i = 0; i < PACKETS; i++) {
+            this.cipherContexts[i] = new CipherContext(Payloads.secretKey());
+            this.packetBuffers[i] = ByteBuffer.allocate(RtpPacketWriter.maxPacketLength(this.payloadSize));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public void writeOneByOne(final Blackhole blackhole) {
+        for (int i = 0; i < PACKETS; i++) {
+            blackhole.consume(RtpPacketWriter.write(this.packetBuffers[i], (char) i, i * 960, i, this.audio,
+                    this.encryptionMode, this.cipherContexts[i], () -> this.nonce++));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public void writeBatch(final Blackhole blackhole) {
+        this.batch.clear();
+        for (int i = 0; i < PACKETS; i++) {
+            this.batch.add((char) i, i * 960, i, this.audio, this.encryptionMode, this.cipherContexts[i],
+                    () -> this.nonce++);
+        }
+        this.batch.seal();
+        for (int i = 0; i < PACKETS; i++) {
+            blackhole.consume(this.batch.get(i));
+        }
+    }
+}
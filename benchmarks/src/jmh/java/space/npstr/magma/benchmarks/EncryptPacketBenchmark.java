@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.benchmarks;
+
+import net.dv8tion.jda.api.audio.AudioPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.crypto.CipherContext;
+import space.npstr.magma.impl.processing.PacketUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encrypting a single audio packet the way the packet provider does it, for each encryption mode.
+ */
+@State(Scope.Thread)
+public class EncryptPacketBenchmark {
+
+    @Param
+    public EncryptionMode encryptionMode;
+
+    @Param({"3", "40", "120", "400"})
+    public int payloadSize;
+
+    private AudioPacket audioPacket;
+    private CipherContext cipherContext;
+    private ByteBuffer packetBuffer;
+    private long nonce = 0;
+
+    @Setup
+    public void setup() {
+        this.audioPacket = Payloads.audioPacket(this.payloadSize);
+        this.cipherContext = new CipherContext(Payloads.secretKey());
+        this.packetBuffer = ByteBuffer.allocate(512);
+    }
+
+    @Benchmark
+    public ByteBuffer encryptPacket() {
+        return PacketUtil.encryptPacket(this.audioPacket, this.packetBuffer, this.encryptionMode, this.cipherContext,
+                () -> this.nonce++);
+    }
+}
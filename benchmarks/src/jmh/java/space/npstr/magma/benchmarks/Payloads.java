@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.benchmarks;
+
+import net.dv8tion.jda.api.audio.AudioPacket;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Deterministic inputs shared by the benchmarks.
+ */
+final class Payloads {
+
+    // what the packet provider sends when there is nothing to play
+    private static final byte[] SILENCE = {(byte) 0xF8, (byte) 0xFF, (byte) 0xFE};
+    private static final long SEED = 42;
+
+    private Payloads() {
+    }
+
+    static byte[] secretKey() {
+        final byte[] secretKey = new byte[32];
+        new Random(SEED).nextBytes(secretKey);
+        return secretKey;
+    }
+
+    static AudioPacket audioPacket(final int payloadSize) {
+        final byte[] payload;
+        if (payloadSize == SILENCE.length) {
+            payload = SILENCE.clone();
+        } else {
+            payload = new byte[payloadSize];
+            new Random(SEED + payloadSize).nextBytes(payload);
+        }
+        return new AudioPacket((char) 1, 960, 1234, ByteBuffer.wrap(payload));
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.benchmarks;
+
+import net.dv8tion.jda.api.audio.factory.IAudioSendSystem;
+import net.dv8tion.jda.api.audio.hooks.ConnectionStatus;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import space.npstr.magma.api.MagmaSendFactory;
+import space.npstr.magma.api.ZeroCopyPacketProvider;
+import space.npstr.magma.impl.sending.NioSendFactory;
+import space.npstr.magma.impl.sending.ThreadPerConnectionSendFactory;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The thread per connection send factory against the shared timer of the NIO send factory, with many connections
+ * sending to a local socket that nobody reads. Each invocation waits one tick of 20 ms; the interesting numbers are the
+ * secondary results: how many packets went out during the tick, and by how many microseconds in total they missed
+ * the 20 ms after the previous packet of their connection. Together with the gc profiler this shows what each design
+ * costs per connection, and how well it keeps the pace as connections are added.
+ * <p>
+ * The send loops run on virtual threads when the benchmarks run on Java 21 against an impl jar that was built with
+ * -Pjdk21Home, and on platform threads otherwise.
+ */
+@State(Scope.Benchmark)
+public class SendFactoryBenchmark {
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    @Param({"NIO", "THREAD_PER_CONNECTION"})
+    public String factory;
+
+    @Param({"100", "1000"})
+    public int connections;
+
+    private final LongAdder sentPackets = new LongAdder();
+    private final LongAdder lateNanos = new LongAdder();
+    private final List<IAudioSendSystem> sendSystems = new ArrayList<>();
+    private DatagramChannel sink;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long packets;
+        public long lateMicros;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.packets = 0;
+            this.lateMicros = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        this.sink = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        final InetSocketAddress target = (InetSocketAddress) this.sink.getLocalAddress();
+        final MagmaSendFactory sendFactory = "NIO".equals(this.factory)
+                ? new NioSendFactory()
+                : new ThreadPerConnectionSendFactory();
+        for (int i = 0; i < this.connections; i++) {
+            final IAudioSendSystem sendSystem = sendFactory.createSendSystem(new TimingPacketProvider(target));
+            this.sendSystems.add(sendSystem);
+            sendSystem.start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (final IAudioSendSystem sendSystem : this.sendSystems) {
+            sendSystem.shutdown();
+        }
+        this.sendSystems.clear();
+        this.sink.close();
+    }
+
+    @Benchmark
+    public void tick(final Counters counters) throws InterruptedException {
+        final long packetsBefore = this.sentPackets.sum();
+        final long lateBefore = this.lateNanos.sum();
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(TICK_NANOS));
+        counters.packets += this.sentPackets.sum() - packetsBefore;
+        counters.lateMicros += TimeUnit.NANOSECONDS.toMicros(this.lateNanos.sum() - lateBefore);
+    }
+
+    // writes a packet of the size of a typical music frame, and records how late it was asked for it
+    private class TimingPacketProvider implements ZeroCopyPacketProvider {
+
+        private final InetSocketAddress target;
+        private final byte[] packet = new byte[160];
+        private long lastNanos = 0;
+
+        private TimingPacketProvider(final InetSocketAddress target) {
+            this.target = target;
+        }
+
+        @Override
+        public int writeNextPacket(final ByteBuffer target, final boolean changeTalking) {
+            final long now = System.nanoTime();
+            if (this.lastNanos != 0) {
+                SendFactoryBenchmark.this.lateNanos.add(Math.max(0, now - this.lastNanos - TICK_NANOS));
+            }
+            this.lastNanos = now;
+            target.put(this.packet);
+            SendFactoryBenchmark.this.sentPackets.increment();
+            return this.packet.length;
+        }
+
+        @Override
+        public ByteBuffer getNextPacketRaw(final boolean changeTalking) {
+            final ByteBuffer buffer = ByteBuffer.allocate(this.packet.length);
+            this.writeNextPacket(buffer, changeTalking);
+            ((Buffer) buffer).flip();
+            return buffer;
+        }
+
+        @Override
+        public InetSocketAddress getSocketAddress() {
+            return this.target;
+        }
+
+        @Override
+        public String getIdentifier() {
+            return "benchmark";
+        }
+
+        @Override
+        public String getConnectedChannel() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DatagramSocket getUdpSocket() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DatagramPacket getNextPacket(final boolean changeTalking) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onConnectionError(final ConnectionStatus status) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onConnectionLost() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -402,6 +402,12 @@ public final class TweetNaclFast
 
         private final byte[] key;
 
+        // scratch space of seal(...)
+        private final byte[] subkey = new byte[32];
+        private final byte[] counter = new byte[16];
+        private final byte[] block = new byte[64];
+        private final poly1305 authenticator;
+
         public SecretBox(final byte[] key) {
             this(key, 68);
         }
@@ -410,6 +416,7 @@ public final class TweetNaclFast
             this.key = key;
 
             this.nonce = new AtomicLong(nonce);
+            this.authenticator = new poly1305(this.block);
         }
 
         public void setNonce(final long nonce) {
@@ -504,6 +511,60 @@ public final class TweetNaclFast
             return ret;
         }
 
+        /*
+         * @description
+         *   Encrypts and authenticates message[moff, moff+mlen) using the key and the nonce,
+         *   and writes the result into out, starting at outoff. The bytes written are the same
+         *   as those returned by box(message, moff, mlen, theNonce): the authenticator followed
+         *   by the cipher text, so out needs room for mlen + overheadLength bytes.
+         *
+         *   Unlike box(...) this does not allocate, which makes it suitable for hot paths.
+         *   In exchange it uses scratch space of this SecretBox, so an instance may not seal
+         *   on several threads at once.
+         *
+         *   Returns the number of bytes written, or -1 if the arguments are invalid.
+         * */
+        public int seal(final byte[] message, final int moff, final int mlen, final byte[] theNonce,
+                        final byte[] out, final int outoff) {
+            // check message
+            if (!(message!=null && moff>=0 && mlen>=0 && message.length>=(moff+mlen) &&
+                    theNonce!=null && theNonce.length==nonceLength &&
+                    out!=null && outoff>=0 && out.length>=(outoff+mlen+overheadLength)))
+                return -1;
+
+            // xsalsa20: the subkey is derived from the first 16 bytes of the nonce,
+            // the last 8 bytes are the salsa20 nonce, followed by the block counter
+            core_hsalsa20(this.subkey, theNonce, this.key, sigma);
+            for (int i = 0; i < 8; i++) this.counter[i] = theNonce[i+16];
+            for (int i = 8; i < 16; i++) this.counter[i] = 0;
+
+            // the first 32 bytes of the key stream are the one time authenticator key,
+            // the message is encrypted with the key stream following them
+            core_salsa20(this.block, this.counter, this.subkey, sigma);
+            this.authenticator.init(this.block, 0);
+
+            final int cpos = outoff + overheadLength;
+            int kpos = zerobytesLength;
+            for (int i = 0; i < mlen; i++) {
+                if (kpos == 64) {
+                    int u = 1;
+                    for (int j = 8; j < 16; j++) {
+                        u = u + (this.counter[j] & 0xff) | 0;
+                        this.counter[j] = (byte) (u & 0xff);
+                        u >>>= 8;
+                    }
+                    core_salsa20(this.block, this.counter, this.subkey, sigma);
+                    kpos = 0;
+                }
+                out[cpos+i] = (byte) ((message[moff+i] ^ this.block[kpos++]) & 0xff);
+            }
+
+            this.authenticator.update(out, cpos, mlen);
+            this.authenticator.finish(out, outoff);
+
+            return mlen + overheadLength;
+        }
+
         /*
          * @description
          *   Authenticates and decrypts the given secret box
@@ -1473,6 +1534,7 @@ public final class TweetNaclFast
         private final int[] r;
         private final int[] h;
         private final int[] pad;
+        private final int[] g;
         private int leftover;
         private int fin;
 
@@ -1481,6 +1543,18 @@ public final class TweetNaclFast
             this.r = new int[10];
             this.h = new int[10];
             this.pad = new int[8];
+            this.g = new int[10];
+            this.init(key, 0);
+        }
+
+        /*
+         * @description
+         *   (Re)initializes this authenticator with the 32 byte one time key found at key[keypos],
+         *   discarding any previous state. Does not allocate, so a single instance can be reused
+         *   for any number of messages.
+         * */
+        public poly1305 init(final byte[] key, final int keypos) {
+            for (int i = 0; i < 10; i++) this.h[i] = 0;
             this.leftover = 0;
             this.fin = 0;
 
@@ -1493,25 +1567,27 @@ public final class TweetNaclFast
             final int t6;
             final int t7;
 
-            t0 = key[ 0] & 0xff | (key[ 1] & 0xff) << 8; this.r[0] = ( t0                     ) & 0x1fff;
-            t1 = key[ 2] & 0xff | (key[ 3] & 0xff) << 8; this.r[1] = ((t0 >>> 13) | (t1 <<  3)) & 0x1fff;
-            t2 = key[ 4] & 0xff | (key[ 5] & 0xff) << 8; this.r[2] = ((t1 >>> 10) | (t2 <<  6)) & 0x1f03;
-            t3 = key[ 6] & 0xff | (key[ 7] & 0xff) << 8; this.r[3] = ((t2 >>>  7) | (t3 <<  9)) & 0x1fff;
-            t4 = key[ 8] & 0xff | (key[ 9] & 0xff) << 8; this.r[4] = ((t3 >>>  4) | (t4 << 12)) & 0x00ff;
+            t0 = key[keypos+ 0] & 0xff | (key[keypos+ 1] & 0xff) << 8; this.r[0] = ( t0                     ) & 0x1fff;
+            t1 = key[keypos+ 2] & 0xff | (key[keypos+ 3] & 0xff) << 8; this.r[1] = ((t0 >>> 13) | (t1 <<  3)) & 0x1fff;
+            t2 = key[keypos+ 4] & 0xff | (key[keypos+ 5] & 0xff) << 8; this.r[2] = ((t1 >>> 10) | (t2 <<  6)) & 0x1f03;
+            t3 = key[keypos+ 6] & 0xff | (key[keypos+ 7] & 0xff) << 8; this.r[3] = ((t2 >>>  7) | (t3 <<  9)) & 0x1fff;
+            t4 = key[keypos+ 8] & 0xff | (key[keypos+ 9] & 0xff) << 8; this.r[4] = ((t3 >>>  4) | (t4 << 12)) & 0x00ff;
             this.r[5] = ((t4 >>>  1)) & 0x1ffe;
-            t5 = key[10] & 0xff | (key[11] & 0xff) << 8; this.r[6] = ((t4 >>> 14) | (t5 <<  2)) & 0x1fff;
-            t6 = key[12] & 0xff | (key[13] & 0xff) << 8; this.r[7] = ((t5 >>> 11) | (t6 <<  5)) & 0x1f81;
-            t7 = key[14] & 0xff | (key[15] & 0xff) << 8; this.r[8] = ((t6 >>>  8) | (t7 <<  8)) & 0x1fff;
+            t5 = key[keypos+10] & 0xff | (key[keypos+11] & 0xff) << 8; this.r[6] = ((t4 >>> 14) | (t5 <<  2)) & 0x1fff;
+            t6 = key[keypos+12] & 0xff | (key[keypos+13] & 0xff) << 8; this.r[7] = ((t5 >>> 11) | (t6 <<  5)) & 0x1f81;
+            t7 = key[keypos+14] & 0xff | (key[keypos+15] & 0xff) << 8; this.r[8] = ((t6 >>>  8) | (t7 <<  8)) & 0x1fff;
             this.r[9] = ((t7 >>>  5)) & 0x007f;
 
-            this.pad[0] = key[16] & 0xff | (key[17] & 0xff) << 8;
-            this.pad[1] = key[18] & 0xff | (key[19] & 0xff) << 8;
-            this.pad[2] = key[20] & 0xff | (key[21] & 0xff) << 8;
-            this.pad[3] = key[22] & 0xff | (key[23] & 0xff) << 8;
-            this.pad[4] = key[24] & 0xff | (key[25] & 0xff) << 8;
-            this.pad[5] = key[26] & 0xff | (key[27] & 0xff) << 8;
-            this.pad[6] = key[28] & 0xff | (key[29] & 0xff) << 8;
-            this.pad[7] = key[30] & 0xff | (key[31] & 0xff) << 8;
+            this.pad[0] = key[keypos+16] & 0xff | (key[keypos+17] & 0xff) << 8;
+            this.pad[1] = key[keypos+18] & 0xff | (key[keypos+19] & 0xff) << 8;
+            this.pad[2] = key[keypos+20] & 0xff | (key[keypos+21] & 0xff) << 8;
+            this.pad[3] = key[keypos+22] & 0xff | (key[keypos+23] & 0xff) << 8;
+            this.pad[4] = key[keypos+24] & 0xff | (key[keypos+25] & 0xff) << 8;
+            this.pad[5] = key[keypos+26] & 0xff | (key[keypos+27] & 0xff) << 8;
+            this.pad[6] = key[keypos+28] & 0xff | (key[keypos+29] & 0xff) << 8;
+            this.pad[7] = key[keypos+30] & 0xff | (key[keypos+31] & 0xff) << 8;
+
+            return this;
         }
 
         public poly1305 blocks(final byte[] m, int mpos, int bytes) {
@@ -1730,7 +1806,7 @@ public final class TweetNaclFast
         }
 
         public poly1305 finish(final byte[] mac, final int macpos) {
-            final int[] g = new int[10];
+            final int[] g = this.g;
             int c, mask, f, i;
 
             if (this.leftover != 0) {
@@ -19,8 +19,12 @@ package net.dv8tion.jda.api.audio;
 import com.iwebpp.crypto.TweetNaclFast;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import space.npstr.magma.impl.crypto.AeadCipher;
+import space.npstr.magma.impl.crypto.PrecomputedKeyStream;
+import space.npstr.magma.impl.crypto.XSalsa20Poly1305;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 
@@ -55,7 +59,6 @@ public class AudioPacket
     private final int timestamp;
     private final int ssrc;
     private final ByteBuffer encodedAudio;
-    private final byte[] rawPacket;
 
     public AudioPacket(final char seq, final int timestamp, final int ssrc, final ByteBuffer encodedAudio)
     {
@@ -63,42 +66,80 @@ public class AudioPacket
         this.ssrc = ssrc;
         this.timestamp = timestamp;
         this.encodedAudio = encodedAudio;
-        this.rawPacket = generateRawPacket(seq, timestamp, ssrc, encodedAudio);
     }
 
     public byte[] getNoncePadded()
     {
-        final byte[] nonce = new byte[TweetNaclFast.SecretBox.nonceLength];
-        //The first 12 bytes are the rawPacket are the RTP Discord Nonce.
-        System.arraycopy(this.rawPacket, 0, nonce, 0, RTP_HEADER_BYTE_LENGTH);
+        return getNoncePadded(new byte[TweetNaclFast.SecretBox.nonceLength]);
+    }
+
+    //writes the rtp header into the first bytes of the passed nonce, the remaining bytes are left untouched
+    public byte[] getNoncePadded(final byte[] nonce)
+    {
+        //The 12 bytes of the rtp header are the RTP Discord Nonce.
+        populateHeader(this.seq, this.timestamp, this.ssrc, ByteBuffer.wrap(nonce));
         return nonce;
     }
 
     //this may reallocate the passed bytebuffer if it is too small
-    public ByteBuffer asEncryptedPacket(final ByteBuffer buffer, final byte[] secretKey, @Nonnull final byte[] nonce, final int nonceLength)
+    //the first nonceLength bytes of the nonce are appended to the packet
+    public ByteBuffer asEncryptedPacket(final ByteBuffer buffer, final XSalsa20Poly1305 boxer, @Nonnull final byte[] nonce, final int nonceLength)
     {
-        ByteBuffer outputBuffer = buffer;
-        //Xsalsa20's Nonce is 24 bytes long, however RTP (and consequently Discord)'s nonce is a different length
-        // so we need to create a 24 byte array, and copy the nonce into it.
-        // we will leave the extra bytes as nulls. (Java sets non-populated bytes as 0).
-        byte[] extendedNonce = nonce;
-        if (nonceLength == 0) {
-            extendedNonce = getNoncePadded();
-        }
-        final byte[] array = encodedAudio.array();
-        final int arrayOffset = encodedAudio.arrayOffset();
-        final int length = encodedAudio.remaining();
+        return asEncryptedPacket(buffer, boxer, null, nonce, nonceLength);
+    }
+
+    //same as above, sealing with a key stream that was computed ahead of time if one is passed
+    public ByteBuffer asEncryptedPacket(final ByteBuffer buffer, final XSalsa20Poly1305 boxer, @Nullable final PrecomputedKeyStream keyStream,
+                                        @Nonnull final byte[] nonce, final int nonceLength)
+    {
+        final ByteBuffer outputBuffer = prepareEncryptedPacket(buffer, XSalsa20Poly1305.OVERHEAD_LENGTH, nonceLength);
 
-        //Create our SecretBox encoder with the secretKey provided by Discord.
-        final TweetNaclFast.SecretBox boxer = new TweetNaclFast.SecretBox(secretKey);
-        final byte[] encryptedAudio = boxer.box(array, arrayOffset, length, extendedNonce);
+        //seal the audio straight into the packet, the audio may sit in a direct buffer
+        final byte[] output = outputBuffer.array();
+        final int outputOffset = outputBuffer.arrayOffset() + outputBuffer.position();
+        final int encryptedLength = keyStream == null
+                ? boxer.seal(encodedAudio, nonce, output, outputOffset)
+                : boxer.seal(keyStream, encodedAudio, nonce, output, outputOffset);
+        return completeEncryptedPacket(outputBuffer, encryptedLength, nonce, nonceLength);
+    }
+
+    //this may reallocate the passed bytebuffer if it is too small
+    //the rtp header is authenticated as associated data, the first nonceLength bytes of the nonce are appended to the packet
+    public ByteBuffer asAeadEncryptedPacket(final ByteBuffer buffer, final AeadCipher cipher, @Nonnull final byte[] nonce, final int nonceLength)
+    {
+        final ByteBuffer outputBuffer = prepareEncryptedPacket(buffer, cipher.getOverheadLength(), nonceLength);
+
+        final byte[] output = outputBuffer.array();
+        final int headerOffset = outputBuffer.arrayOffset();
+        final int encryptedLength = cipher.seal(nonce, output, headerOffset, RTP_HEADER_BYTE_LENGTH,
+                encodedAudio, output, headerOffset + RTP_HEADER_BYTE_LENGTH);
+        return completeEncryptedPacket(outputBuffer, encryptedLength, nonce, nonceLength);
+    }
+
+    //first half of encrypting this packet for callers that encrypt the audio themselves, like batches of packets:
+    //writes the rtp header into the passed bytebuffer, which is reallocated if it can not hold the whole packet or
+    //has no backing array. the encrypted audio goes to the array of the returned buffer, starting at its position
+    public ByteBuffer prepareEncryptedPacket(final ByteBuffer buffer, final int overheadLength, final int nonceLength)
+    {
+        ByteBuffer outputBuffer = buffer;
         outputBuffer.clear();
-        final int capacity = RTP_HEADER_BYTE_LENGTH + encryptedAudio.length + nonceLength;
-        if (capacity > outputBuffer.remaining()) {
+        final int capacity = RTP_HEADER_BYTE_LENGTH + encodedAudio.remaining() + overheadLength + nonceLength;
+        if (capacity > outputBuffer.remaining() || !outputBuffer.hasArray()) {
             log.trace("Allocating byte buffer with capacity " + capacity);
             outputBuffer = ByteBuffer.allocate(capacity);
         }
-        populateBuffer(this.seq, this.timestamp, this.ssrc, ByteBuffer.wrap(encryptedAudio), outputBuffer);
+        populateHeader(this.seq, this.timestamp, this.ssrc, outputBuffer);
+        return outputBuffer;
+    }
+
+    //second half of encrypting this packet, after encryptedLength bytes were written to the buffer returned by prepareEncryptedPacket
+    //the first nonceLength bytes of the nonce are appended to the packet
+    public ByteBuffer completeEncryptedPacket(final ByteBuffer outputBuffer, final int encryptedLength, @Nonnull final byte[] nonce, final int nonceLength)
+    {
+        if (encryptedLength < 0) {
+            throw new IllegalStateException("Failed to encrypt audio packet");
+        }
+        ((Buffer) outputBuffer).position(outputBuffer.position() + encryptedLength);
         if (nonceLength > 0) {
             outputBuffer.put(nonce, 0, nonceLength);
         }
@@ -107,21 +148,32 @@ public class AudioPacket
         return outputBuffer;
     }
 
-    private static byte[] generateRawPacket(final char seq, final int timestamp, final int ssrc, final ByteBuffer data)
+    public char getSequence()
+    {
+        return seq;
+    }
+
+    public int getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public int getSSRC()
+    {
+        return ssrc;
+    }
+
+    public ByteBuffer getEncodedAudio()
     {
-        final ByteBuffer buffer = ByteBuffer.allocate(RTP_HEADER_BYTE_LENGTH + data.remaining());
-        populateBuffer(seq, timestamp, ssrc, data, buffer);
-        return buffer.array();
+        return encodedAudio;
     }
 
-    private static void populateBuffer(final char seq, final int timestamp, final int ssrc, final ByteBuffer data, final ByteBuffer buffer)
+    private static void populateHeader(final char seq, final int timestamp, final int ssrc, final ByteBuffer buffer)
     {
         buffer.put(RTP_VERSION_PAD_EXTEND);
         buffer.put(RTP_PAYLOAD_TYPE);
         buffer.putChar(seq);
         buffer.putInt(timestamp);
         buffer.putInt(ssrc);
-        buffer.put(data);
-        ((Buffer) data).flip();
     }
 }
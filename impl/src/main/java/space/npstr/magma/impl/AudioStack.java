@@ -28,6 +28,7 @@ import reactor.core.publisher.UnicastProcessor;
 import reactor.core.scheduler.Schedulers;
 import space.npstr.magma.api.MdcKey;
 import space.npstr.magma.api.Member;
+import space.npstr.magma.api.Options;
 import space.npstr.magma.api.SpeakingMode;
 import space.npstr.magma.api.WebsocketConnectionState;
 import space.npstr.magma.api.event.MagmaEvent;
@@ -60,6 +61,7 @@ public class AudioStack extends BaseSubscriber<LifecycleEvent> {
     private final ClosingWebSocketClient webSocketClient;
     private final Consumer<MagmaEvent> apiEventConsumer;
     private final DatagramSocket udpSocket;
+    private final Options options;
 
     private final FluxSink<LifecycleEvent> lifecycleSink;
 
@@ -73,7 +75,7 @@ public class AudioStack extends BaseSubscriber<LifecycleEvent> {
 
     public AudioStack(final Member member, final IAudioSendFactory sendFactory,
                       final ClosingWebSocketClient webSocketClient, Consumer<MagmaEvent> apiEventConsumer,
-                      final DatagramSocket udpSocket) {
+                      final DatagramSocket udpSocket, final Options options) {
         this.member = member;
         this.sendFactory = sendFactory;
         this.webSocketClient = webSocketClient;
@@ -85,6 +87,7 @@ public class AudioStack extends BaseSubscriber<LifecycleEvent> {
                 .publishOn(Schedulers.parallel())
                 .subscribe(this);
         this.udpSocket = udpSocket;
+        this.options = options;
     }
 
 
@@ -144,7 +147,7 @@ public class AudioStack extends BaseSubscriber<LifecycleEvent> {
         }
 
         this.webSocket = new AudioWebSocket(this.sendFactory, connectWebSocket.getSessionInfo(),
-                this.webSocketClient, this::next, this.udpSocket);
+                this.webSocketClient, this::next, this.udpSocket, this.options);
         if (this.sendHandler != null) {
             this.webSocket.getAudioConnection().updateSendHandler(this.sendHandler);
         }
@@ -24,6 +24,7 @@ import reactor.core.publisher.BaseSubscriber;
 import space.npstr.magma.api.MagmaMember;
 import space.npstr.magma.api.MagmaWebsocketConnectionState;
 import space.npstr.magma.api.Member;
+import space.npstr.magma.api.Options;
 import space.npstr.magma.api.WebsocketConnectionState;
 import space.npstr.magma.api.event.MagmaEvent;
 import space.npstr.magma.impl.connections.AudioConnection;
@@ -91,15 +92,18 @@ public class AudioStackLifecyclePipeline extends BaseSubscriber<LifecycleEvent>
     private final ClosingWebSocketClient webSocketClient;
     private final Consumer<MagmaEvent> apiEventConsumer;
     private final DatagramSocket udpSocket;
+    private final Options options;
 
     public AudioStackLifecyclePipeline(final Function<Member, IAudioSendFactory> sendFactoryProvider,
                                        final ClosingWebSocketClient webSocketClient,
                                        final Consumer<MagmaEvent> apiEventConsumer,
-                                       final DatagramSocket udpSocket) {
+                                       final DatagramSocket udpSocket,
+                                       final Options options) {
         this.sendFactoryProvider = sendFactoryProvider;
         this.webSocketClient = webSocketClient;
         this.apiEventConsumer = apiEventConsumer;
         this.udpSocket = udpSocket;
+        this.options = options;
     }
 
     @Override
@@ -166,6 +170,7 @@ public class AudioStackLifecyclePipeline extends BaseSubscriber<LifecycleEvent>
                                 this.sendFactoryProvider.apply(lifecycleEvent.getMember()),
                                 this.webSocketClient,
                                 this.apiEventConsumer,
-                                this.udpSocket));
+                                this.udpSocket,
+                                this.options));
     }
 }
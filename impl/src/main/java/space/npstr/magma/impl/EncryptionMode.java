@@ -19,6 +19,8 @@ package space.npstr.magma.impl;
 import org.json.JSONArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import space.npstr.magma.impl.crypto.AesGcmCipher;
+import space.npstr.magma.impl.crypto.XChaCha20Poly1305Cipher;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -28,6 +30,8 @@ import java.util.Optional;
 
 public enum EncryptionMode {
 
+    AEAD_AES256_GCM_RTPSIZE(AesGcmCipher.isHardwareAccelerated() ? 50 : 5), // cheapest by far on hardware AES, slowest without
+    AEAD_XCHACHA20_POLY1305_RTPSIZE(XChaCha20Poly1305Cipher.isProvidedByJvm() ? 40 : 25), // fast in software, JCA since Java 11
     XSALSA20_POLY1305_LITE(30),    // uses 4 byte nonce instead of 24 bytes
     XSALSA20_POLY1305_SUFFIX(20),  // "official" implementation using random 24 byte nonce
     XSALSA20_POLY1305(10);         // unofficial implementation using time stamps (?) as nonce (24 bytes total)
@@ -58,6 +62,15 @@ public enum EncryptionMode {
         return preference;
     }
 
+    /**
+     * @return true if the nonces of this mode are taken from the nonce counter of the connection
+     */
+    public boolean usesNonceCounter() {
+        return this == XSALSA20_POLY1305_LITE
+                || this == AEAD_AES256_GCM_RTPSIZE
+                || this == AEAD_XCHACHA20_POLY1305_RTPSIZE;
+    }
+
     /**
      * @return The encryption mode corresponding to the given input, or nothing.
      */
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.dv8tion.jda.api.audio.AudioPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import space.npstr.magma.impl.connections.AudioConnection;
+import space.npstr.magma.impl.crypto.CipherContext;
+import space.npstr.magma.impl.processing.PacketUtil;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measured cost of encrypting a packet with each {@link EncryptionMode} on the running JVM and CPU. The hardcoded
+ * {@link EncryptionMode#getPreference()} is a good guess, but which mode is cheapest depends on the host, so a
+ * calibration can be run once at startup to replace it with measurements.
+ * <p>
+ * The result is shared by the whole JVM, as it describes the host rather than a single Magma instance.
+ */
+@ThreadSafe
+public final class EncryptionModeCalibration {
+
+    private static final Logger log = LoggerFactory.getLogger(EncryptionModeCalibration.class);
+
+    // opus silence, and small, average and large music frames
+    private static final int[] PAYLOAD_SIZES = {3, 40, 120, 400};
+    // packets encrypted between looking at the clock
+    private static final int PACKETS_PER_CHECK = 64;
+
+    @Nullable
+    private static volatile EncryptionModeCalibration result = null;
+    private static boolean started = false;
+
+    private final Map<EncryptionMode, Long> nanosPerPacket;
+    private final List<EncryptionMode> preferenceOrder;
+
+    EncryptionModeCalibration(final Map<EncryptionMode, Long> nanosPerPacket) {
+        this.nanosPerPacket = Collections.unmodifiableMap(new EnumMap<>(nanosPerPacket));
+        final List<EncryptionMode> order = new ArrayList<>(nanosPerPacket.keySet());
+        order.sort(this.cheapestFirst());
+        this.preferenceOrder = Collections.unmodifiableList(order);
+    }
+
+    /**
+     * Calibrate in the background, unless a calibration has been started before. Until it is done,
+     * {@link #getResult()} stays empty.
+     *
+     * @param budgetMillis
+     *         roughly how long to spend measuring, split between all encryption modes
+     */
+    public static synchronized void start(final long budgetMillis) {
+        if (started) {
+            return;
+        }
+        started = true;
+        final Thread thread = new Thread(() -> {
+            final EncryptionModeCalibration calibration = calibrate(TimeUnit.MILLISECONDS.toNanos(budgetMillis));
+            log.info("Calibrated encryption modes, nanoseconds per packet: {}", calibration.getNanosPerPacket());
+            result = calibration;
+        }, "magma-encryption-mode-calibration");
+        thread.setDaemon(true);
+        thread.setUncaughtExceptionHandler((t, e) -> log.error("Failed to calibrate encryption modes", e));
+        thread.start();
+    }
+
+    /**
+     * @return the calibration of this JVM, if one has finished
+     */
+    public static Optional<EncryptionModeCalibration> getResult() {
+        return Optional.ofNullable(result);
+    }
+
+    /**
+     * @return the measured cost per packet in nanoseconds of each encryption mode
+     */
+    public Map<EncryptionMode, Long> getNanosPerPacket() {
+        return this.nanosPerPacket;
+    }
+
+    /**
+     * @return all encryption modes, the cheapest first
+     */
+    public List<EncryptionMode> getPreferenceOrder() {
+        return this.preferenceOrder;
+    }
+
+    /**
+     * @return the cheapest of the provided encryption modes, or nothing if the collection is empty
+     */
+    public Optional<EncryptionMode> getPreferredMode(final Collection<EncryptionMode> encryptionModes) {
+        return encryptionModes.stream().min(this.cheapestFirst());
+    }
+
+    // modes that could not be measured come last, ties are broken by the hardcoded preference
+    private Comparator<EncryptionMode> cheapestFirst() {
+        return Comparator.<EncryptionMode>comparingLong(mode -> this.nanosPerPacket.getOrDefault(mode, Long.MAX_VALUE))
+                .thenComparing(Comparator.comparingInt(EncryptionMode::getPreference).reversed());
+    }
+
+    /**
+     * Encrypt packets of realistic sizes with every mode, first to warm up, then to measure. Each of the two rounds
+     * takes about half of the budget.
+     */
+    static EncryptionModeCalibration calibrate(final long budgetNanos) {
+        final EncryptionMode[] modes = EncryptionMode.values();
+        final long sliceNanos = Math.max(1, budgetNanos / (2L * modes.length));
+
+        final byte[] secretKey = new byte[32];
+        final Random random = new Random();
+        random.nextBytes(secretKey);
+        final AudioPacket[] packets = new AudioPacket[PAYLOAD_SIZES.length];
+        for (int i = 0; i < packets.length; i++) {
+            final byte[] payload = new byte[PAYLOAD_SIZES[i]];
+            random.nextBytes(payload);
+            packets[i] = new AudioPacket((char) i, i * AudioConnection.OPUS_FRAME_SIZE, 1, ByteBuffer.wrap(payload));
+        }
+
+        for (final EncryptionMode mode : modes) {
+            try {
+                run(mode, secretKey, packets, sliceNanos);
+            } catch (final RuntimeException ignored) {
+                // reported by the measuring round
+            }
+        }
+        final Map<EncryptionMode, Long> nanosPerPacket = new EnumMap<>(EncryptionMode.class);
+        for (final EncryptionMode mode : modes) {
+            try {
+                nanosPerPacket.put(mode, run(mode, secretKey, packets, sliceNanos));
+            } catch (final RuntimeException e) {
+                log.warn("Could not calibrate encryption mode {}", mode, e);
+            }
+        }
+        return new EncryptionModeCalibration(nanosPerPacket);
+    }
+
+    // returns nanoseconds per packet
+    private static long run(final EncryptionMode mode, final byte[] secretKey, final AudioPacket[] packets,
+                            final long sliceNanos) {
+        final CipherContext cipherContext = new CipherContext(secretKey);
+        ByteBuffer packetBuffer = ByteBuffer.allocate(512);
+        long nonce = 0;
+        long count = 0;
+        final long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < PACKETS_PER_CHECK; i++) {
+                final long packetNonce = nonce++;
+                packetBuffer = PacketUtil.encryptPacket(packets[i % packets.length], packetBuffer, mode, cipherContext,
+                        () -> packetNonce);
+            }
+            count += PACKETS_PER_CHECK;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < sliceNanos);
+        return Math.max(1, elapsed / count);
+    }
+}
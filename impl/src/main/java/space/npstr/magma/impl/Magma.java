@@ -32,8 +32,11 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.FluxSink;
 import reactor.core.publisher.UnicastProcessor;
 import reactor.core.scheduler.Schedulers;
+import space.npstr.magma.api.Broadcast;
 import space.npstr.magma.api.MagmaApi;
+import space.npstr.magma.api.MagmaOptions;
 import space.npstr.magma.api.Member;
+import space.npstr.magma.api.Options;
 import space.npstr.magma.api.ServerUpdate;
 import space.npstr.magma.api.SpeakingMode;
 import space.npstr.magma.api.WebsocketConnectionState;
@@ -47,6 +50,7 @@ import space.npstr.magma.impl.events.audio.lifecycle.Shutdown;
 import space.npstr.magma.impl.events.audio.lifecycle.UpdateSendHandlerLcEvent;
 import space.npstr.magma.impl.events.audio.lifecycle.UpdateSpeakingModeLcEvent;
 import space.npstr.magma.impl.events.audio.lifecycle.VoiceServerUpdateLcEvent;
+import space.npstr.magma.impl.processing.FanOutBroadcast;
 
 public class Magma implements MagmaApi {
 
@@ -63,6 +67,16 @@ public class Magma implements MagmaApi {
      * @see MagmaApi
      */
     public Magma(final Function<Member, IAudioSendFactory> sendFactoryProvider) {
+        this(sendFactoryProvider, MagmaOptions.builder().build());
+    }
+
+    /**
+     * @see MagmaApi
+     */
+    public Magma(final Function<Member, IAudioSendFactory> sendFactoryProvider, final Options options) {
+        if (options.getEncryptionModeCalibrationMillis() > 0) {
+            EncryptionModeCalibration.start(options.getEncryptionModeCalibrationMillis());
+        }
         final ClosingWebSocketClient webSocketClient = new ClosingReactorNettyWebSocketClient();
         try {
             this.udpSocket = new DatagramSocket();
@@ -76,7 +90,8 @@ public class Magma implements MagmaApi {
                 magmaEvent -> {
                     if (this.apiEventSink != null) this.apiEventSink.next(magmaEvent);
                 },
-                this.udpSocket
+                this.udpSocket,
+                options
         );
 
         final UnicastProcessor<LifecycleEvent> processor = UnicastProcessor.create();
@@ -123,6 +138,19 @@ public class Magma implements MagmaApi {
         this.updateSendHandler(member, sendHandler);
     }
 
+    @Override
+    public Broadcast createBroadcast(final AudioSendHandler source) {
+        return new FanOutBroadcast(source);
+    }
+
+    @Override
+    public void subscribeToBroadcast(final Member member, final Broadcast broadcast) {
+        if (!(broadcast instanceof FanOutBroadcast)) {
+            throw new IllegalArgumentException("Broadcast was not created by Magma: " + broadcast);
+        }
+        this.updateSendHandler(member, ((FanOutBroadcast) broadcast).subscribe());
+    }
+
     @Override
     public void setSpeakingMode(final Member member, @Nullable final Set<SpeakingMode> mode) {
         this.lifecycleSink.next(UpdateSpeakingModeLcEvent.builder()
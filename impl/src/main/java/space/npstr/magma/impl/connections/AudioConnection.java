@@ -29,8 +29,10 @@ import reactor.core.publisher.Mono;
 import reactor.core.publisher.UnicastProcessor;
 import reactor.core.scheduler.Schedulers;
 import space.npstr.magma.api.MdcKey;
+import space.npstr.magma.api.Options;
 import space.npstr.magma.api.SpeakingMode;
 import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.crypto.CipherContext;
 import space.npstr.magma.impl.events.audio.conn.ConnectionEvent;
 import space.npstr.magma.impl.events.audio.conn.SetEncryptionMode;
 import space.npstr.magma.impl.events.audio.conn.SetSecretKey;
@@ -39,7 +41,9 @@ import space.npstr.magma.impl.events.audio.conn.SetTargetAddress;
 import space.npstr.magma.impl.events.audio.conn.Shutdown;
 import space.npstr.magma.impl.events.audio.conn.UpdateSendHandler;
 import space.npstr.magma.impl.events.audio.conn.UpdateSpeaking;
+import space.npstr.magma.impl.processing.LookaheadPacketProvider;
 import space.npstr.magma.impl.processing.PacketProvider;
+import space.npstr.magma.impl.processing.PreEncryptingPacketProvider;
 
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -76,13 +80,14 @@ public class AudioConnection extends BaseSubscriber<ConnectionEvent> {
     private final AudioWebSocket webSocket;
     private final DatagramSocket udpSocket;
     private final FluxSink<ConnectionEvent> audioConnectionEventSink;
+    private final Options options;
     private Set<SpeakingMode> speakingModes = EnumSet.of(SpeakingMode.VOICE);
 
     // udp connection info
     @Nullable
     private EncryptionMode encryptionMode;
     @Nullable
-    private byte[] secretKey;
+    private CipherContext cipherContext;
     @Nullable
     private Integer ssrc;
     @Nullable
@@ -94,16 +99,20 @@ public class AudioConnection extends BaseSubscriber<ConnectionEvent> {
     private AudioSendHandler sendHandler;
     @Nullable
     private IAudioSendSystem sendSystem;
+    @Nullable
+    private PacketProvider packetProvider;
 
     // stateful information of an ongoing connection
     private final AtomicLong nonce = new AtomicLong(0);
     private final LongSupplier nonceSupplier;
     private boolean speaking = false;
 
-    public AudioConnection(final AudioWebSocket webSocket, final IAudioSendFactory sendFactory, final DatagramSocket udpSocket) {
+    public AudioConnection(final AudioWebSocket webSocket, final IAudioSendFactory sendFactory, final DatagramSocket udpSocket,
+                           final Options options) {
         this.udpSocket = udpSocket;
         this.webSocket = webSocket;
         this.sendFactory = sendFactory;
+        this.options = options;
 
         final UnicastProcessor<ConnectionEvent> audioConnectionProcessor = UnicastProcessor.create();
         this.audioConnectionEventSink = audioConnectionProcessor.sink();
@@ -140,8 +149,8 @@ public class AudioConnection extends BaseSubscriber<ConnectionEvent> {
     }
 
     @Nullable
-    public byte[] getSecretKey() {
-        return this.secretKey;
+    public CipherContext getCipherContext() {
+        return this.cipherContext;
     }
 
     @Nullable
@@ -210,7 +219,7 @@ public class AudioConnection extends BaseSubscriber<ConnectionEvent> {
                 this.encryptionMode = ((SetEncryptionMode) event).getEncryptionMode();
                 this.startSendSystemIfReady();
             } else if (event instanceof SetSecretKey) {
-                this.secretKey = ((SetSecretKey) event).getSecretKey();
+                this.handleSecretKey((SetSecretKey) event);
                 this.startSendSystemIfReady();
             } else if (event instanceof SetSsrc) {
                 this.ssrc = ((SetSsrc) event).getSsrc();
@@ -240,6 +249,15 @@ public class AudioConnection extends BaseSubscriber<ConnectionEvent> {
         }
     }
 
+    private void handleSecretKey(final SetSecretKey event) {
+        final byte[] secretKey = event.getSecretKey();
+        if (this.cipherContext != null && this.cipherContext.hasKey(secretKey)) {
+            log.trace("Keeping cipher context, secret key did not change");
+            return;
+        }
+        this.cipherContext = new CipherContext(secretKey, this.options.getLiteKeyStreamPrecomputeDepth());
+    }
+
     private void handleSpeakingUpdate(final UpdateSpeaking event) {
         if (this.speaking != event.shouldSpeak()) {
             this.setSpeaking(event.getSpeakingMode());
@@ -262,7 +280,7 @@ public class AudioConnection extends BaseSubscriber<ConnectionEvent> {
         this.tearDownSendComponents();
 
         this.encryptionMode = null;
-        this.secretKey = null;
+        this.cipherContext = null;
         this.ssrc = null;
         this.udpTargetAddress = null;
 
@@ -277,6 +295,10 @@ public class AudioConnection extends BaseSubscriber<ConnectionEvent> {
             this.sendSystem.shutdown();
             this.sendSystem = null;
         }
+        if (this.packetProvider != null) {
+            this.packetProvider.shutdown();
+            this.packetProvider = null;
+        }
     }
 
     private void setupSendComponents(final AudioSendHandler sendHandler) {
@@ -286,7 +308,21 @@ public class AudioConnection extends BaseSubscriber<ConnectionEvent> {
         }
         this.sendHandler = sendHandler;
         if (this.sendSystem == null) {
-            final PacketProvider packetProvider = new PacketProvider(this, this.nonceSupplier);
+            final int lookaheadRingSize = this.options.getLookaheadRingSize();
+            final int preEncryptionDepth = this.options.getPreEncryptionDepth();
+            final int silenceSuppressionFrames = this.options.getSilenceSuppressionFrames();
+            final PacketProvider packetProvider;
+            if (lookaheadRingSize > 0) {
+                packetProvider = new LookaheadPacketProvider(this, this.nonceSupplier, lookaheadRingSize,
+                        silenceSuppressionFrames);
+            } else if (preEncryptionDepth > 0) {
+                packetProvider = new PreEncryptingPacketProvider(this, this.nonceSupplier, preEncryptionDepth,
+                        silenceSuppressionFrames);
+            } else {
+                packetProvider = new PacketProvider(this, this.nonceSupplier, this.options.getOpusFramesPerPacket(),
+                        silenceSuppressionFrames);
+            }
+            this.packetProvider = packetProvider;
             this.sendSystem = this.sendFactory.createSendSystem(packetProvider);
         }
     }
@@ -296,7 +332,7 @@ public class AudioConnection extends BaseSubscriber<ConnectionEvent> {
         if (this.encryptionMode == null) {
             log.trace("Not ready cause no encryption mode");
             return;
-        } else if (this.secretKey == null) {
+        } else if (this.cipherContext == null) {
             log.trace("Not ready cause no secret key");
             return;
         } else if (this.ssrc == null) {
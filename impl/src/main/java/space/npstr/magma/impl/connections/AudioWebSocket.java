@@ -31,9 +31,11 @@ import reactor.core.publisher.UnicastProcessor;
 import reactor.core.scheduler.Schedulers;
 import space.npstr.magma.api.MdcKey;
 import space.npstr.magma.api.Member;
+import space.npstr.magma.api.Options;
 import space.npstr.magma.api.WebsocketConnectionState;
 import space.npstr.magma.api.event.WebSocketClosedApiEvent;
 import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.EncryptionModeCalibration;
 import space.npstr.magma.impl.MagmaVersionProvider;
 import space.npstr.magma.impl.connections.hax.ClosingWebSocketClient;
 import space.npstr.magma.impl.events.audio.lifecycle.CloseWebSocket;
@@ -103,14 +105,14 @@ public class AudioWebSocket extends BaseSubscriber<InboundWsEvent> {
 
     public AudioWebSocket(final IAudioSendFactory sendFactory, final SessionInfo session,
                           final ClosingWebSocketClient webSocketClient, final Consumer<CloseWebSocket> closeCallback,
-                          final DatagramSocket udpSocket) {
+                          final DatagramSocket udpSocket, final Options options) {
         this.session = session;
         try {
             this.wssEndpoint = new URI(String.format("wss://%s/?v=4", session.getVoiceServerUpdate().getEndpoint()));
         } catch (final URISyntaxException e) {
             throw new RuntimeException("Endpoint " + session.getVoiceServerUpdate().getEndpoint() + " is not a valid URI", e);
         }
-        this.audioConnection = new AudioConnection(this, sendFactory, udpSocket);
+        this.audioConnection = new AudioConnection(this, sendFactory, udpSocket, options);
         this.closeCallback = closeCallback;
         this.webSocketClient = webSocketClient;
 
@@ -218,7 +220,10 @@ public class AudioWebSocket extends BaseSubscriber<InboundWsEvent> {
         this.connectionPhase = WebsocketConnectionState.Phase.CONNECTED;
         final InetSocketAddress udpTargetAddress = new InetSocketAddress(ready.getIp(), ready.getPort());
         final List<EncryptionMode> receivedModes = ready.getEncryptionModes();
-        final Optional<EncryptionMode> preferredModeOpt = EncryptionMode.getPreferredMode(receivedModes);
+        // measured costs on this host beat the hardcoded preference, if a calibration ran
+        final Optional<EncryptionMode> preferredModeOpt = EncryptionModeCalibration.getResult()
+                .map(calibration -> calibration.getPreferredMode(receivedModes))
+                .orElseGet(() -> EncryptionMode.getPreferredMode(receivedModes));
         if (!preferredModeOpt.isPresent()) {
             final String modes = receivedModes.isEmpty()
                     ? "empty list"
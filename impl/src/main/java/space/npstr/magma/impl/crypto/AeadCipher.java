@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An authenticated encryption with associated data cipher, as used by the rtpsize encryption modes.
+ * <p>
+ * The rtp header is passed as associated data: it is authenticated, but sent unencrypted.
+ */
+public interface AeadCipher {
+
+    /**
+     * @return length of the nonce that this cipher expects
+     */
+    int getNonceLength();
+
+    /**
+     * @return how many bytes sealing adds to the message
+     */
+    int getOverheadLength();
+
+    /**
+     * Encrypt and authenticate the message, and write the cipher text followed by the authentication tag into the
+     * output array.
+     *
+     * @return the number of bytes written, which is the message length plus {@link #getOverheadLength()}
+     */
+    int seal(byte[] nonce,
+             byte[] aad, int aadOffset, int aadLength,
+             byte[] message, int messageOffset, int messageLength,
+             byte[] output, int outputOffset);
+
+    /**
+     * Same as {@link #seal(byte[], byte[], int, int, byte[], int, int, byte[], int)}, for the remaining bytes of the
+     * message buffer, which may be a direct buffer. The position of the message buffer is left untouched.
+     */
+    int seal(byte[] nonce,
+             byte[] aad, int aadOffset, int aadLength,
+             ByteBuffer message,
+             byte[] output, int outputOffset);
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.management.ManagementFactory;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * AES-256-GCM backed by the JCA provider of the running JVM, which makes use of the AES-NI instructions where the CPU
+ * offers them. A single {@link Cipher} instance is reused for every packet.
+ */
+@NotThreadSafe
+public class AesGcmCipher implements AeadCipher {
+
+    private static final Logger log = LoggerFactory.getLogger(AesGcmCipher.class);
+
+    public static final int NONCE_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final boolean HARDWARE_ACCELERATED = detectHardwareAcceleration();
+
+    private final Cipher cipher;
+    private final SecretKeySpec key;
+
+    public AesGcmCipher(final byte[] secretKey) {
+        try {
+            this.cipher = Cipher.getInstance(TRANSFORMATION);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM is not available in this JVM", e);
+        }
+        this.key = new SecretKeySpec(secretKey, "AES");
+    }
+
+    /**
+     * @return true if the JVM runs AES on dedicated CPU instructions, which makes it the cheapest cipher available to
+     * us by far.
+     */
+    public static boolean isHardwareAccelerated() {
+        return HARDWARE_ACCELERATED;
+    }
+
+    @Override
+    public int getNonceLength() {
+        return NONCE_LENGTH;
+    }
+
+    @Override
+    public int getOverheadLength() {
+        return TAG_LENGTH;
+    }
+
+    @Override
+    public int seal(final byte[] nonce,
+                    final byte[] aad, final int aadOffset, final int aadLength,
+                    final byte[] message, final int messageOffset, final int messageLength,
+                    final byte[] output, final int outputOffset) {
+        try {
+            this.init(nonce, aad, aadOffset, aadLength);
+            return this.cipher.doFinal(message, messageOffset, messageLength, output, outputOffset);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt with AES-GCM", e);
+        }
+    }
+
+    @Override
+    public int seal(final byte[] nonce,
+                    final byte[] aad, final int aadOffset, final int aadLength,
+                    final ByteBuffer message,
+                    final byte[] output, final int outputOffset) {
+        if (message.hasArray()) {
+            return this.seal(nonce, aad, aadOffset, aadLength,
+                    message.array(), message.arrayOffset() + message.position(), message.remaining(),
+                    output, outputOffset);
+        }
+        final int position = message.position();
+        try {
+            this.init(nonce, aad, aadOffset, aadLength);
+            return this.cipher.doFinal(message, ByteBuffer.wrap(output, outputOffset, output.length - outputOffset));
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt with AES-GCM", e);
+        } finally {
+            ((Buffer) message).position(position);
+        }
+    }
+
+    private void init(final byte[] nonce, final byte[] aad, final int aadOffset, final int aadLength)
+            throws GeneralSecurityException {
+        this.cipher.init(Cipher.ENCRYPT_MODE, this.key, new GCMParameterSpec(TAG_LENGTH * 8, nonce, 0, NONCE_LENGTH));
+        this.cipher.updateAAD(aad, aadOffset, aadLength);
+    }
+
+    // HotSpot only switches the UseAES flag on when the CPU supports AES instructions, and then also uses them for the
+    // AES intrinsics by default.
+    private static boolean detectHardwareAcceleration() {
+        try {
+            final HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            final boolean accelerated = hotSpot != null
+                    && Boolean.parseBoolean(hotSpot.getVMOption("UseAES").getValue());
+            log.debug("AES hardware acceleration available: {}", accelerated);
+            return accelerated;
+        } catch (final Exception | LinkageError e) {
+            log.debug("Could not determine AES hardware acceleration, assuming there is none", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+import static space.npstr.magma.impl.crypto.LittleEndian.readInt;
+import static space.npstr.magma.impl.crypto.LittleEndian.writeInt;
+
+/**
+ * The ChaCha20 block function (RFC 8439) and the HChaCha20 key derivation of XChaCha20 (draft-irtf-cfrg-xchacha).
+ * <p>
+ * The state is kept in int locals and written out as little endian words, nothing is allocated.
+ */
+public final class ChaCha20 {
+
+    public static final int KEY_LENGTH = 32;
+    public static final int NONCE_LENGTH = 12;
+    public static final int HNONCE_LENGTH = 16;
+    public static final int BLOCK_LENGTH = 64;
+
+    // "expand 32-byte k"
+    private static final int SIGMA0 = 0x61707865;
+    private static final int SIGMA1 = 0x3320646e;
+    private static final int SIGMA2 = 0x79622d32;
+    private static final int SIGMA3 = 0x6b206574;
+
+    private ChaCha20() {
+    }
+
+    /**
+     * Derive the XChaCha20 subkey from the key and the first 16 bytes of the extended nonce.
+     *
+     * @param out
+     *         receives the 32 byte subkey at outOffset
+     */
+    public static void hChaCha20(final byte[] key, final byte[] nonce, final byte[] out, final int outOffset) {
+        int x0 = SIGMA0, x1 = SIGMA1, x2 = SIGMA2, x3 = SIGMA3;
+        int x4 = readInt(key, 0), x5 = readInt(key, 4), x6 = readInt(key, 8), x7 = readInt(key, 12);
+        int x8 = readInt(key, 16), x9 = readInt(key, 20), x10 = readInt(key, 24), x11 = readInt(key, 28);
+        int x12 = readInt(nonce, 0), x13 = readInt(nonce, 4), x14 = readInt(nonce, 8), x15 = readInt(nonce, 12);
+
+        for (int i = 0; i < 20; i += 2) {
+            // column round
+            x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 16); x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 12);
+            x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 8); x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 7);
+            x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 16); x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 12);
+            x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 8); x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 7);
+            x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 16); x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 12);
+            x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 8); x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 7);
+            x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 16); x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 12);
+            x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 8); x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 7);
+            // diagonal round
+            x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 16); x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 12);
+            x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 8); x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 7);
+            x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 16); x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 12);
+            x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 8); x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 7);
+            x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 16); x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 12);
+            x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 8); x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 7);
+            x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 16); x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 12);
+            x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 8); x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 7);
+        }
+
+        writeInt(out, outOffset, x0);
+        writeInt(out, outOffset + 4, x1);
+        writeInt(out, outOffset + 8, x2);
+        writeInt(out, outOffset + 12, x3);
+        writeInt(out, outOffset + 16, x12);
+        writeInt(out, outOffset + 20, x13);
+        writeInt(out, outOffset + 24, x14);
+        writeInt(out, outOffset + 28, x15);
+    }
+
+    /**
+     * Compute a single 64 byte key stream block.
+     *
+     * @param out
+     *         receives the key stream block at outOffset
+     */
+    public static void block(final byte[] key, final int counter, final byte[] nonce, final byte[] out, final int outOffset) {
+        final int j4 = readInt(key, 0), j5 = readInt(key, 4), j6 = readInt(key, 8), j7 = readInt(key, 12);
+        final int j8 = readInt(key, 16), j9 = readInt(key, 20), j10 = readInt(key, 24), j11 = readInt(key, 28);
+        final int j13 = readInt(nonce, 0), j14 = readInt(nonce, 4), j15 = readInt(nonce, 8);
+
+        int x0 = SIGMA0, x1 = SIGMA1, x2 = SIGMA2, x3 = SIGMA3;
+        int x4 = j4, x5 = j5, x6 = j6, x7 = j7, x8 = j8, x9 = j9, x10 = j10, x11 = j11;
+        int x12 = counter, x13 = j13, x14 = j14, x15 = j15;
+
+        for (int i = 0; i < 20; i += 2) {
+            // column round
+            x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 16); x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 12);
+            x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 8); x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 7);
+            x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 16); x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 12);
+            x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 8); x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 7);
+            x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 16); x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 12);
+            x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 8); x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 7);
+            x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 16); x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 12);
+            x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 8); x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 7);
+            // diagonal round
+            x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 16); x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 12);
+            x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 8); x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 7);
+            x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 16); x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 12);
+            x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 8); x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 7);
+            x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 16); x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 12);
+            x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 8); x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 7);
+            x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 16); x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 12);
+            x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 8); x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 7);
+        }
+
+        writeInt(out, outOffset, x0 + SIGMA0);
+        writeInt(out, outOffset + 4, x1 + SIGMA1);
+        writeInt(out, outOffset + 8, x2 + SIGMA2);
+        writeInt(out, outOffset + 12, x3 + SIGMA3);
+        writeInt(out, outOffset + 16, x4 + j4);
+        writeInt(out, outOffset + 20, x5 + j5);
+        writeInt(out, outOffset + 24, x6 + j6);
+        writeInt(out, outOffset + 28, x7 + j7);
+        writeInt(out, outOffset + 32, x8 + j8);
+        writeInt(out, outOffset + 36, x9 + j9);
+        writeInt(out, outOffset + 40, x10 + j10);
+        writeInt(out, outOffset + 44, x11 + j11);
+        writeInt(out, outOffset + 48, x12 + counter);
+        writeInt(out, outOffset + 52, x13 + j13);
+        writeInt(out, outOffset + 56, x14 + j14);
+        writeInt(out, outOffset + 60, x15 + j15);
+    }
+}
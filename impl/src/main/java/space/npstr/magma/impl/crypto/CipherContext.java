@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.crypto;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+
+/**
+ * Encryption state of an audio connection for a single secret key.
+ * <p>
+ * Created once when the connection receives its secret key from Discord, and reused for every packet sealed with that
+ * key. It is only replaced when the key changes, and dropped when the connection shuts down.
+ * <p>
+ * Holds the key, the ciphers with their reusable scratch space, and the nonce buffers, so none of those need to be set
+ * up again for each packet. Ciphers are created the first time an encryption mode asks for them.
+ */
+@NotThreadSafe
+public class CipherContext {
+
+    private final byte[] secretKey;
+    private final XSalsa20Poly1305 secretBox;
+    @Nullable
+    private AesGcmCipher aesGcmCipher;
+    @Nullable
+    private XChaCha20Poly1305Cipher xChaChaCipher;
+    @Nullable
+    private final LiteKeyStreamRing liteKeyStreamRing;
+    private final PrecomputedKeyStream precomputedKeyStream = new PrecomputedKeyStream();
+
+    // nonces of the xsalsa20 modes
+    private final byte[] nonceBuffer = new byte[XSalsa20Poly1305.NONCE_LENGTH];
+    // nonces of the aes-gcm rtpsize mode, only the first 4 bytes are ever written to
+    private final byte[] aesGcmNonceBuffer = new byte[AesGcmCipher.NONCE_LENGTH];
+    // nonces of the xchacha20 rtpsize mode, only the first 4 bytes are ever written to
+    private final byte[] xChaChaNonceBuffer = new byte[XChaCha20Poly1305Cipher.NONCE_LENGTH];
+
+    public CipherContext(final byte[] secretKey) {
+        this(secretKey, 0);
+    }
+
+    /**
+     * @param liteKeyStreamPrecomputeDepth
+     *         how many key streams of the xsalsa20_poly1305_lite mode to compute ahead of time, 0 to disable
+     */
+    public CipherContext(final byte[] secretKey, final int liteKeyStreamPrecomputeDepth) {
+        this.secretKey = secretKey;
+        this.secretBox = new XSalsa20Poly1305(secretKey);
+        this.liteKeyStreamRing = liteKeyStreamPrecomputeDepth > 0
+                ? new LiteKeyStreamRing(secretKey, liteKeyStreamPrecomputeDepth)
+                : null;
+    }
+
+    /**
+     * @return true if this context encrypts with the provided key
+     */
+    public boolean hasKey(final byte[] secretKey) {
+        return Arrays.equals(this.secretKey, secretKey);
+    }
+
+    public XSalsa20Poly1305 getSecretBox() {
+        return this.secretBox;
+    }
+
+    public AesGcmCipher getAesGcmCipher() {
+        if (this.aesGcmCipher == null) {
+            this.aesGcmCipher = new AesGcmCipher(this.secretKey);
+        }
+        return this.aesGcmCipher;
+    }
+
+    public XChaCha20Poly1305Cipher getXChaChaCipher() {
+        if (this.xChaChaCipher == null) {
+            this.xChaChaCipher = new XChaCha20Poly1305Cipher(this.secretKey);
+        }
+        return this.xChaChaCipher;
+    }
+
+    @Nullable
+    public LiteKeyStreamRing getLiteKeyStreamRing() {
+        return this.liteKeyStreamRing;
+    }
+
+    /**
+     * @return scratch space to take key streams out of the {@link #getLiteKeyStreamRing()}
+     */
+    public PrecomputedKeyStream getPrecomputedKeyStream() {
+        return this.precomputedKeyStream;
+    }
+
+    public byte[] getNonceBuffer() {
+        return this.nonceBuffer;
+    }
+
+    public byte[] getAesGcmNonceBuffer() {
+        return this.aesGcmNonceBuffer;
+    }
+
+    public byte[] getXChaChaNonceBuffer() {
+        return this.xChaChaNonceBuffer;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The nonces of the xsalsa20_poly1305_lite encryption mode are a counter, so the key streams of the next packets are
+ * known before their audio is. This ring holds the {@link PrecomputedKeyStream}s of the next few nonces of a
+ * connection, computed on a low priority background thread, so that the send system only has to encrypt and
+ * authenticate when a packet is due.
+ * <p>
+ * One thread, the send system, takes key streams out of the ring, while the background thread puts them in. A slot is
+ * only written while it is not claimed by a nonce that might still be taken.
+ */
+@ThreadSafe
+public class LiteKeyStreamRing {
+
+    private static final Logger log = LoggerFactory.getLogger(LiteKeyStreamRing.class);
+
+    private static final long MAX_NONCE = 0xFFFFFFFFL;
+    private static final long EMPTY = -1;
+    private static final long WRITING = -2;
+
+    private final int[] key = new int[8];
+    private final int depth;
+    private final Executor executor;
+
+    // slot i holds the key stream of nonce slots[i], or is EMPTY or being WRITTEN
+    private final AtomicLongArray slots;
+    private final int[] subkeys;
+    private final int[] firstBlocks;
+
+    private final AtomicBoolean refillScheduled = new AtomicBoolean(false);
+    private final Runnable refillTask = this::refill;
+    private volatile long nextNonce = EMPTY;
+
+    // only touched by the refilling thread
+    private final byte[] nonce = new byte[XSalsa20.NONCE_LENGTH];
+    private final int[] subkey = new int[8];
+    private final int[] block = new int[16];
+
+    public LiteKeyStreamRing(final byte[] secretKey, final int depth) {
+        this(secretKey, depth, PrecomputeExecutorHolder.EXECUTOR);
+    }
+
+    LiteKeyStreamRing(final byte[] secretKey, final int depth, final Executor executor) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be positive, but is " + depth);
+        }
+        for (int i = 0; i < 8; i++) {
+            this.key[i] = LittleEndian.readInt(secretKey, i * 4);
+        }
+        this.depth = depth;
+        this.executor = executor;
+        this.slots = new AtomicLongArray(depth);
+        for (int i = 0; i < depth; i++) {
+            this.slots.set(i, EMPTY);
+        }
+        this.subkeys = new int[depth * 8];
+        this.firstBlocks = new int[depth * 16];
+    }
+
+    /**
+     * Copy the precomputed key stream of the nonce into the provided key stream, and have the key streams of the
+     * following nonces computed in the background.
+     *
+     * @return true if the key stream of the nonce was ready, false if the caller needs to compute it itself
+     */
+    public boolean take(final long nonce, final PrecomputedKeyStream keyStream) {
+        final int index = this.indexOf(nonce);
+        final long slotNonce = this.slots.get(index);
+        final boolean ready = slotNonce == nonce;
+        if (ready) {
+            keyStream.copyFrom(this.subkeys, this.firstBlocks, index);
+        }
+        // the slot has either been used now, or belongs to a nonce that was skipped
+        if (slotNonce >= 0) {
+            this.slots.compareAndSet(index, slotNonce, EMPTY);
+        }
+
+        this.nextNonce = next(nonce);
+        if (this.refillScheduled.compareAndSet(false, true)) {
+            this.executor.execute(this.refillTask);
+        }
+        return ready;
+    }
+
+    private void refill() {
+        this.refillScheduled.set(false);
+        final long first = this.nextNonce;
+        long nonce = first;
+        for (int i = 0; i < this.depth; i++) {
+            this.fill(nonce, first);
+            nonce = next(nonce);
+        }
+    }
+
+    private void fill(final long nonce, final long first) {
+        final int index = this.indexOf(nonce);
+        final long slotNonce = this.slots.get(index);
+        if (slotNonce == nonce || slotNonce == WRITING) {
+            return;
+        }
+        // a slot of a nonce that may still be taken is not touched
+        if (slotNonce >= first) {
+            return;
+        }
+        if (!this.slots.compareAndSet(index, slotNonce, WRITING)) {
+            return;
+        }
+
+        // lite nonces are the big endian counter, followed by zeros
+        this.nonce[0] = (byte) (nonce >>> 24);
+        this.nonce[1] = (byte) (nonce >>> 16);
+        this.nonce[2] = (byte) (nonce >>> 8);
+        this.nonce[3] = (byte) nonce;
+        XSalsa20.hSalsa20(this.key, this.nonce, this.subkey);
+        XSalsa20.salsa20(this.subkey, 0, 0, 0, this.block, 0);
+        System.arraycopy(this.subkey, 0, this.subkeys, index * 8, 8);
+        System.arraycopy(this.block, 0, this.firstBlocks, index * 16, 16);
+
+        this.slots.set(index, nonce);
+    }
+
+    private int indexOf(final long nonce) {
+        return (int) (nonce % this.depth);
+    }
+
+    private static long next(final long nonce) {
+        return nonce >= MAX_NONCE ? 0 : nonce + 1;
+    }
+
+    private static class PrecomputeExecutorHolder {
+        private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "magma-key-stream-precompute");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setUncaughtExceptionHandler((t, e) -> log.error("Failed to precompute key streams", e));
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Little endian word access to byte arrays and buffers, as used by the salsa and chacha ciphers and poly1305.
+ */
+final class LittleEndian {
+
+    private LittleEndian() {
+    }
+
+    //@formatter:off
+    static int readInt(final byte[] bytes, final int offset) {
+        return  (bytes[offset    ] & 0xff)
+             | ((bytes[offset + 1] & 0xff) <<  8)
+             | ((bytes[offset + 2] & 0xff) << 16)
+             | ((bytes[offset + 3] & 0xff) << 24);
+    }
+
+    static void writeInt(final byte[] bytes, final int offset, final int value) {
+        bytes[offset    ] = (byte)  value;
+        bytes[offset + 1] = (byte) (value >>>  8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+    //@formatter:on
+
+    /**
+     * Reads at an absolute index, whatever the byte order of the buffer. Works the same for heap and direct buffers.
+     */
+    static int readInt(final ByteBuffer buffer, final int index) {
+        final int value = buffer.getInt(index);
+        return buffer.order() == ByteOrder.LITTLE_ENDIAN ? value : Integer.reverseBytes(value);
+    }
+
+    static void writeLong(final byte[] bytes, final int offset, final long value) {
+        writeInt(bytes, offset, (int) value);
+        writeInt(bytes, offset + 4, (int) (value >>> 32));
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * The part of an XSalsa20 key stream that does not depend on the message: the subkey derived from the nonce, and the
+ * first block of the key stream, which holds the one time authenticator key and the key stream for the first 32 bytes
+ * of the message.
+ *
+ * @see LiteKeyStreamRing
+ * @see XSalsa20Poly1305#seal(PrecomputedKeyStream, byte[], int, int, byte[], byte[], int)
+ */
+@NotThreadSafe
+public class PrecomputedKeyStream {
+
+    final int[] subkey = new int[8];
+    final int[] firstBlock = new int[16];
+
+    void copyFrom(final int[] subkeys, final int[] firstBlocks, final int index) {
+        System.arraycopy(subkeys, index * this.subkey.length, this.subkey, 0, this.subkey.length);
+        System.arraycopy(firstBlocks, index * this.firstBlock.length, this.firstBlock, 0, this.firstBlock.length);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+/**
+ * Runs the Salsa20 core over many independent inputs (lanes) at once, to compute the key streams of many packets
+ * together.
+ * <p>
+ * The 16 words of the inputs and outputs are stored word by word: word w of lane l is found at index w * stride + l.
+ * This way a word of several consecutive lanes can be loaded into a single vector register.
+ * <p>
+ * This is the Java 8 implementation, which handles one lane after the other. On Java 17+ the multi-release jar
+ * provides a replacement (see src/main/java17) that processes several lanes per instruction with the incubating
+ * Vector API, if the jdk.incubator.vector module was added to the JVM.
+ */
+final class Salsa20Lanes {
+
+    private Salsa20Lanes() {
+    }
+
+    /**
+     * @return true if lanes are processed with vector instructions
+     */
+    static boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * Run the 20 rounds of the Salsa20 core over the input lanes [0, lanes) and write the result to output.
+     *
+     * @param addInput
+     *         true to add the input to the result, like Salsa20 does, or false to write the result of the rounds
+     *         only, like HSalsa20 does
+     */
+    static void core(final int[] input, final int[] output, final int stride, final int lanes, final boolean addInput) {
+        ScalarSalsa20Lanes.core(input, output, stride, 0, lanes, addInput);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+/**
+ * Portable implementation of {@link Salsa20Lanes}, one lane after the other.
+ */
+final class ScalarSalsa20Lanes {
+
+    private ScalarSalsa20Lanes() {
+    }
+
+    /**
+     * @see Salsa20Lanes#core
+     */
+    static void core(final int[] input, final int[] output, final int stride,
+                     final int fromLane, final int toLane, final boolean addInput) {
+        for (int l = fromLane; l < toLane; l++) {
+            final int j0 = input[l], j1 = input[stride + l], j2 = input[2 * stride + l], j3 = input[3 * stride + l];
+            final int j4 = input[4 * stride + l], j5 = input[5 * stride + l], j6 = input[6 * stride + l];
+            final int j7 = input[7 * stride + l], j8 = input[8 * stride + l], j9 = input[9 * stride + l];
+            final int j10 = input[10 * stride + l], j11 = input[11 * stride + l], j12 = input[12 * stride + l];
+            final int j13 = input[13 * stride + l], j14 = input[14 * stride + l], j15 = input[15 * stride + l];
+
+            int x0 = j0, x1 = j1, x2 = j2, x3 = j3, x4 = j4, x5 = j5, x6 = j6, x7 = j7;
+            int x8 = j8, x9 = j9, x10 = j10, x11 = j11, x12 = j12, x13 = j13, x14 = j14, x15 = j15;
+
+            for (int i = 0; i < 20; i += 2) {
+                // column round
+                x4 ^= Integer.rotateLeft(x0 + x12, 7);   x8 ^= Integer.rotateLeft(x4 + x0, 9);
+                x12 ^= Integer.rotateLeft(x8 + x4, 13);  x0 ^= Integer.rotateLeft(x12 + x8, 18);
+                x9 ^= Integer.rotateLeft(x5 + x1, 7);    x13 ^= Integer.rotateLeft(x9 + x5, 9);
+                x1 ^= Integer.rotateLeft(x13 + x9, 13);  x5 ^= Integer.rotateLeft(x1 + x13, 18);
+                x14 ^= Integer.rotateLeft(x10 + x6, 7);  x2 ^= Integer.rotateLeft(x14 + x10, 9);
+                x6 ^= Integer.rotateLeft(x2 + x14, 13);  x10 ^= Integer.rotateLeft(x6 + x2, 18);
+                x3 ^= Integer.rotateLeft(x15 + x11, 7);  x7 ^= Integer.rotateLeft(x3 + x15, 9);
+                x11 ^= Integer.rotateLeft(x7 + x3, 13);  x15 ^= Integer.rotateLeft(x11 + x7, 18);
+                // row round
+                x1 ^= Integer.rotateLeft(x0 + x3, 7);    x2 ^= Integer.rotateLeft(x1 + x0, 9);
+                x3 ^= Integer.rotateLeft(x2 + x1, 13);   x0 ^= Integer.rotateLeft(x3 + x2, 18);
+                x6 ^= Integer.rotateLeft(x5 + x4, 7);    x7 ^= Integer.rotateLeft(x6 + x5, 9);
+                x4 ^= Integer.rotateLeft(x7 + x6, 13);   x5 ^= Integer.rotateLeft(x4 + x7, 18);
+                x11 ^= Integer.rotateLeft(x10 + x9, 7);  x8 ^= Integer.rotateLeft(x11 + x10, 9);
+                x9 ^= Integer.rotateLeft(x8 + x11, 13);  x10 ^= Integer.rotateLeft(x9 + x8, 18);
+                x12 ^= Integer.rotateLeft(x15 + x14, 7); x13 ^= Integer.rotateLeft(x12 + x15, 9);
+                x14 ^= Integer.rotateLeft(x13 + x12, 13); x15 ^= Integer.rotateLeft(x14 + x13, 18);
+            }
+
+            if (addInput) {
+                x0 += j0; x1 += j1; x2 += j2; x3 += j3; x4 += j4; x5 += j5; x6 += j6; x7 += j7;
+                x8 += j8; x9 += j9; x10 += j10; x11 += j11; x12 += j12; x13 += j13; x14 += j14; x15 += j15;
+            }
+
+            output[l] = x0;
+            output[stride + l] = x1;
+            output[2 * stride + l] = x2;
+            output[3 * stride + l] = x3;
+            output[4 * stride + l] = x4;
+            output[5 * stride + l] = x5;
+            output[6 * stride + l] = x6;
+            output[7 * stride + l] = x7;
+            output[8 * stride + l] = x8;
+            output[9 * stride + l] = x9;
+            output[10 * stride + l] = x10;
+            output[11 * stride + l] = x11;
+            output[12 * stride + l] = x12;
+            output[13 * stride + l] = x13;
+            output[14 * stride + l] = x14;
+            output[15 * stride + l] = x15;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * XChaCha20-Poly1305 (draft-irtf-cfrg-xchacha): the subkey is derived from the key and the first 16 bytes of the 24
+ * byte nonce with HChaCha20, and then the IETF ChaCha20-Poly1305 construction (RFC 8439) seals the message with the
+ * subkey and the remaining 8 nonce bytes.
+ * <p>
+ * The JCA provides ChaCha20-Poly1305 since Java 11, and is used where available. Older JVMs fall back to a pure Java
+ * implementation.
+ */
+@NotThreadSafe
+public class XChaCha20Poly1305Cipher implements AeadCipher {
+
+    private static final Logger log = LoggerFactory.getLogger(XChaCha20Poly1305Cipher.class);
+
+    public static final int NONCE_LENGTH = 24;
+    public static final int TAG_LENGTH = 16;
+
+    private static final String TRANSFORMATION = "ChaCha20-Poly1305";
+    private static final boolean PROVIDED_BY_JVM = detectJvmSupport();
+    private static final byte[] ZEROS = new byte[16];
+
+    private final byte[] key;
+    @Nullable
+    private final Cipher cipher;
+
+    // scratch space
+    private final byte[] subkey = new byte[ChaCha20.KEY_LENGTH];
+    private final byte[] chaChaNonce = new byte[ChaCha20.NONCE_LENGTH];
+    private final byte[] block = new byte[ChaCha20.BLOCK_LENGTH];
+    private final byte[] lengths = new byte[16];
+    private final Poly1305 authenticator = new Poly1305();
+
+    public XChaCha20Poly1305Cipher(final byte[] secretKey) {
+        this(secretKey, PROVIDED_BY_JVM);
+    }
+
+    XChaCha20Poly1305Cipher(final byte[] secretKey, final boolean useJvmCipher) {
+        this.key = secretKey;
+        this.cipher = useJvmCipher ? createJvmCipher() : null;
+    }
+
+    /**
+     * @return true if the running JVM provides ChaCha20-Poly1305 (Java 11+)
+     */
+    public static boolean isProvidedByJvm() {
+        return PROVIDED_BY_JVM;
+    }
+
+    @Override
+    public int getNonceLength() {
+        return NONCE_LENGTH;
+    }
+
+    @Override
+    public int getOverheadLength() {
+        return TAG_LENGTH;
+    }
+
+    @Override
+    public int seal(final byte[] nonce,
+                    final byte[] aad, final int aadOffset, final int aadLength,
+                    final byte[] message, final int messageOffset, final int messageLength,
+                    final byte[] output, final int outputOffset) {
+        this.deriveSubkey(nonce);
+        if (this.cipher != null) {
+            try {
+                this.initJvmCipher(this.cipher, aad, aadOffset, aadLength);
+                return this.cipher.doFinal(message, messageOffset, messageLength, output, outputOffset);
+            } catch (final GeneralSecurityException e) {
+                throw new IllegalStateException("Failed to encrypt with ChaCha20-Poly1305", e);
+            }
+        }
+        return this.sealInJava(aad, aadOffset, aadLength,
+                ByteBuffer.wrap(message), messageOffset, messageLength, output, outputOffset);
+    }
+
+    @Override
+    public int seal(final byte[] nonce,
+                    final byte[] aad, final int aadOffset, final int aadLength,
+                    final ByteBuffer message,
+                    final byte[] output, final int outputOffset) {
+        if (message.hasArray()) {
+            return this.seal(nonce, aad, aadOffset, aadLength,
+                    message.array(), message.arrayOffset() + message.position(), message.remaining(),
+                    output, outputOffset);
+        }
+        this.deriveSubkey(nonce);
+        if (this.cipher != null) {
+            final int position = message.position();
+            try {
+                this.initJvmCipher(this.cipher, aad, aadOffset, aadLength);
+                return this.cipher.doFinal(message, ByteBuffer.wrap(output, outputOffset, output.length - outputOffset));
+            } catch (final GeneralSecurityException e) {
+                throw new IllegalStateException("Failed to encrypt with ChaCha20-Poly1305", e);
+            } finally {
+                ((Buffer) message).position(position);
+            }
+        }
+        return this.sealInJava(aad, aadOffset, aadLength,
+                message, message.position(), message.remaining(), output, outputOffset);
+    }
+
+    private void deriveSubkey(final byte[] nonce) {
+        ChaCha20.hChaCha20(this.key, nonce, this.subkey, 0);
+        // the first 4 bytes of the ietf nonce stay zero
+        System.arraycopy(nonce, ChaCha20.HNONCE_LENGTH, this.chaChaNonce, 4, 8);
+    }
+
+    private void initJvmCipher(final Cipher cipher, final byte[] aad, final int aadOffset, final int aadLength)
+            throws GeneralSecurityException {
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(this.subkey, "ChaCha20"), new IvParameterSpec(this.chaChaNonce));
+        cipher.updateAAD(aad, aadOffset, aadLength);
+    }
+
+    // RFC 8439 section 2.8, the message is read from messageIndex on without moving the buffer's position
+    private int sealInJava(final byte[] aad, final int aadOffset, final int aadLength,
+                           final ByteBuffer message, final int messageIndex, final int messageLength,
+                           final byte[] output, final int outputOffset) {
+        // block 0 provides the one time authenticator key, the message is encrypted starting with block 1
+        ChaCha20.block(this.subkey, 0, this.chaChaNonce, this.block, 0);
+        this.authenticator.init(this.block, 0);
+
+        int counter = 1;
+        for (int i = 0; i < messageLength; i += ChaCha20.BLOCK_LENGTH) {
+            ChaCha20.block(this.subkey, counter++, this.chaChaNonce, this.block, 0);
+            final int n = Math.min(ChaCha20.BLOCK_LENGTH, messageLength - i);
+            for (int j = 0; j < n; j++) {
+                output[outputOffset + i + j] = (byte) (message.get(messageIndex + i + j) ^ this.block[j]);
+            }
+        }
+
+        this.authenticator.update(aad, aadOffset, aadLength);
+        this.authenticator.update(ZEROS, 0, padding(aadLength));
+        this.authenticator.update(output, outputOffset, messageLength);
+        this.authenticator.update(ZEROS, 0, padding(messageLength));
+        LittleEndian.writeLong(this.lengths, 0, aadLength);
+        LittleEndian.writeLong(this.lengths, 8, messageLength);
+        this.authenticator.update(this.lengths, 0, this.lengths.length);
+        this.authenticator.finish(output, outputOffset + messageLength);
+
+        return messageLength + TAG_LENGTH;
+    }
+
+    private static int padding(final int length) {
+        return (16 - (length % 16)) % 16;
+    }
+
+    @Nullable
+    private static Cipher createJvmCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (final GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    private static boolean detectJvmSupport() {
+        try {
+            Cipher.getInstance(TRANSFORMATION);
+            log.debug("Using the JVM's ChaCha20-Poly1305");
+            return true;
+        } catch (final GeneralSecurityException e) {
+            log.debug("JVM does not provide ChaCha20-Poly1305, falling back to the Java implementation");
+            return false;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static space.npstr.magma.impl.crypto.LittleEndian.readInt;
+import static space.npstr.magma.impl.crypto.LittleEndian.writeInt;
+
+/**
+ * XSalsa20 key stream, bit for bit the same as crypto_stream_xsalsa20_xor of TweetNaCl.
+ * <p>
+ * The key is expanded into words once when this is created. The state of each block is kept in int locals, and
+ * messages are xored with the key stream a word at a time. Nothing is allocated after construction.
+ * <p>
+ * Usage: {@link #init(byte[])} with a nonce, then any number of {@link #xor} / {@link #keyStream} calls that continue
+ * the stream where the previous call stopped.
+ */
+@NotThreadSafe
+public class XSalsa20 {
+
+    public static final int KEY_LENGTH = 32;
+    public static final int NONCE_LENGTH = 24;
+    public static final int BLOCK_LENGTH = 64;
+    public static final int BLOCK_WORDS = BLOCK_LENGTH / 4;
+
+    // "expand 32-byte k"
+    static final int SIGMA0 = 0x61707865;
+    static final int SIGMA1 = 0x3320646e;
+    static final int SIGMA2 = 0x79622d32;
+    static final int SIGMA3 = 0x6b206574;
+
+    private final int[] key = new int[8];
+    private final int[] subkey = new int[8];
+    private final int[] block = new int[16];
+    private int nonce0;
+    private int nonce1;
+    private long counter;
+    private int position;
+
+    public XSalsa20(final byte[] key) {
+        if (key.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("Key must be " + KEY_LENGTH + " bytes long, but is " + key.length);
+        }
+        for (int i = 0; i < 8; i++) {
+            this.key[i] = readInt(key, i * 4);
+        }
+    }
+
+    /**
+     * Start a new key stream for the provided 24 byte nonce.
+     */
+    public void init(final byte[] nonce) {
+        hSalsa20(this.key, nonce, this.subkey);
+        this.nonce0 = readInt(nonce, 16);
+        this.nonce1 = readInt(nonce, 20);
+        this.counter = 0;
+        this.position = BLOCK_LENGTH;
+    }
+
+    /**
+     * Continue the key stream of the nonce after its first block, with the subkey that was derived from the nonce
+     * already.
+     */
+    void initAfterFirstBlock(final int[] subkey, final byte[] nonce) {
+        System.arraycopy(subkey, 0, this.subkey, 0, this.subkey.length);
+        this.nonce0 = readInt(nonce, 16);
+        this.nonce1 = readInt(nonce, 20);
+        this.counter = 1;
+        this.position = BLOCK_LENGTH;
+    }
+
+    /**
+     * Write the next length bytes of the key stream to out.
+     */
+    public void keyStream(final byte[] out, final int outOffset, final int length) {
+        for (int i = 0; i < length; i++) {
+            if (this.position == BLOCK_LENGTH) {
+                this.nextBlock();
+            }
+            out[outOffset + i] = keyStreamByte(this.block, this.position++);
+        }
+    }
+
+    /**
+     * Xor length bytes of input with the next bytes of the key stream and write them to output. Input and output may
+     * be the same array.
+     */
+    public void xor(final byte[] input, final int inputOffset, final byte[] output, final int outputOffset, final int length) {
+        int done = 0;
+        while (done < length) {
+            if (this.position == BLOCK_LENGTH) {
+                this.nextBlock();
+            }
+            final int in = inputOffset + done;
+            final int out = outputOffset + done;
+            final int n = Math.min(BLOCK_LENGTH - this.position, length - done);
+            int p = this.position;
+            int i = 0;
+            // bytes up to the next word of the block
+            for (; i < n && (p & 3) != 0; i++, p++) {
+                output[out + i] = (byte) (input[in + i] ^ keyStreamByte(this.block, p));
+            }
+            // whole words
+            for (; i + 4 <= n; i += 4, p += 4) {
+                writeInt(output, out + i, readInt(input, in + i) ^ this.block[p >>> 2]);
+            }
+            // trailing bytes
+            for (; i < n; i++, p++) {
+                output[out + i] = (byte) (input[in + i] ^ keyStreamByte(this.block, p));
+            }
+            this.position = p;
+            done += n;
+        }
+    }
+
+    private static byte keyStreamByte(final int[] block, final int position) {
+        return (byte) (block[position >>> 2] >>> ((position & 3) << 3));
+    }
+
+    /**
+     * Generate the next key stream block and return its 16 words. The returned array is reused for the following
+     * blocks.
+     */
+    int[] nextBlock() {
+        salsa20(this.subkey, this.nonce0, this.nonce1, this.counter++, this.block, 0);
+        this.position = 0;
+        return this.block;
+    }
+
+    /**
+     * Write the words of the next count key stream blocks to out, starting at outOffset. Only to be used on block
+     * boundaries of the key stream.
+     */
+    void blocks(final int[] out, final int outOffset, final int count) {
+        for (int i = 0; i < count; i++) {
+            salsa20(this.subkey, this.nonce0, this.nonce1, this.counter++, out, outOffset + i * BLOCK_WORDS);
+        }
+    }
+
+    int[] getKey() {
+        return this.key;
+    }
+
+    /**
+     * HSalsa20: derive the XSalsa20 subkey from the key and the first 16 bytes of the nonce.
+     */
+    static void hSalsa20(final int[] key, final byte[] nonce, final int[] out) {
+        int x0 = SIGMA0, x5 = SIGMA1, x10 = SIGMA2, x15 = SIGMA3;
+        int x1 = key[0], x2 = key[1], x3 = key[2], x4 = key[3];
+        int x11 = key[4], x12 = key[5], x13 = key[6], x14 = key[7];
+        int x6 = readInt(nonce, 0), x7 = readInt(nonce, 4), x8 = readInt(nonce, 8), x9 = readInt(nonce, 12);
+
+        for (int i = 0; i < 20; i += 2) {
+            // column round
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);   x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);  x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);    x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);  x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);  x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);  x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);  x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);  x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            // row round
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);    x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);   x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);    x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);   x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);  x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);  x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7); x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13); x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+
+        out[0] = x0;
+        out[1] = x5;
+        out[2] = x10;
+        out[3] = x15;
+        out[4] = x6;
+        out[5] = x7;
+        out[6] = x8;
+        out[7] = x9;
+    }
+
+    /**
+     * The Salsa20 block function, writes the 16 words of the key stream block to out.
+     */
+    static void salsa20(final int[] key, final int nonce0, final int nonce1, final long counter,
+                        final int[] out, final int outOffset) {
+        final int j1 = key[0], j2 = key[1], j3 = key[2], j4 = key[3];
+        final int j11 = key[4], j12 = key[5], j13 = key[6], j14 = key[7];
+        final int j8 = (int) counter, j9 = (int) (counter >>> 32);
+
+        int x0 = SIGMA0, x5 = SIGMA1, x10 = SIGMA2, x15 = SIGMA3;
+        int x1 = j1, x2 = j2, x3 = j3, x4 = j4, x11 = j11, x12 = j12, x13 = j13, x14 = j14;
+        int x6 = nonce0, x7 = nonce1, x8 = j8, x9 = j9;
+
+        for (int i = 0; i < 20; i += 2) {
+            // column round
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);   x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);  x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);    x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);  x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);  x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);  x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);  x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);  x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            // row round
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);    x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);   x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);    x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);   x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);  x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);  x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7); x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13); x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+
+        out[outOffset] = x0 + SIGMA0;
+        out[outOffset + 1] = x1 + j1;
+        out[outOffset + 2] = x2 + j2;
+        out[outOffset + 3] = x3 + j3;
+        out[outOffset + 4] = x4 + j4;
+        out[outOffset + 5] = x5 + SIGMA1;
+        out[outOffset + 6] = x6 + nonce0;
+        out[outOffset + 7] = x7 + nonce1;
+        out[outOffset + 8] = x8 + j8;
+        out[outOffset + 9] = x9 + j9;
+        out[outOffset + 10] = x10 + SIGMA2;
+        out[outOffset + 11] = x11 + j11;
+        out[outOffset + 12] = x12 + j12;
+        out[outOffset + 13] = x13 + j13;
+        out[outOffset + 14] = x14 + j14;
+        out[outOffset + 15] = x15 + SIGMA3;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+import com.iwebpp.crypto.TweetNaclFast;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+
+import static space.npstr.magma.impl.crypto.LittleEndian.readInt;
+import static space.npstr.magma.impl.crypto.LittleEndian.writeInt;
+
+/**
+ * The NaCl secretbox construction (crypto_secretbox_xsalsa20poly1305) used by the xsalsa20 encryption modes.
+ * <p>
+ * Seals the same bytes as {@link TweetNaclFast.SecretBox#seal}, but on top of the {@link XSalsa20} key stream, which
+ * keeps its state in ints instead of unpacking it from bytes for every block, and the {@link Poly1305} authenticator.
+ */
+@NotThreadSafe
+public class XSalsa20Poly1305 {
+
+    public static final int KEY_LENGTH = XSalsa20.KEY_LENGTH;
+    public static final int NONCE_LENGTH = XSalsa20.NONCE_LENGTH;
+    public static final int OVERHEAD_LENGTH = 16;
+
+    private final XSalsa20 xSalsa20;
+    private final Poly1305 authenticator = new Poly1305();
+    // key stream words of the message being sealed, grows with the largest message
+    private int[] keyStream = new int[4 * XSalsa20.BLOCK_WORDS];
+
+    public XSalsa20Poly1305(final byte[] key) {
+        this.xSalsa20 = new XSalsa20(key);
+    }
+
+    /**
+     * Encrypts and authenticates message[messageOffset, messageOffset+messageLength) with the 24 byte nonce, and
+     * writes the authenticator followed by the cipher text to output, starting at outputOffset.
+     *
+     * @return the number of bytes written, or -1 if the arguments are invalid
+     */
+    public int seal(final byte[] message, final int messageOffset, final int messageLength, final byte[] nonce,
+                    final byte[] output, final int outputOffset) {
+        if (!isValid(message, messageOffset, messageLength, nonce, output, outputOffset)) {
+            return -1;
+        }
+        return this.seal(ByteBuffer.wrap(message, messageOffset, messageLength), nonce, output, outputOffset);
+    }
+
+    /**
+     * Same as {@link #seal(byte[], int, int, byte[], byte[], int)}, for the remaining bytes of the message buffer,
+     * which may be a direct buffer. The position of the message buffer is left untouched.
+     */
+    public int seal(final ByteBuffer message, final byte[] nonce, final byte[] output, final int outputOffset) {
+        final int messageLength = message.remaining();
+        if (!isValid(messageLength, nonce, output, outputOffset)) {
+            return -1;
+        }
+        final int[] keyStream = this.keyStream(messageLength);
+        this.xSalsa20.init(nonce);
+        this.xSalsa20.blocks(keyStream, 0, blocksFor(messageLength));
+        return seal(this.authenticator, keyStream, 0, message, message.position(), messageLength, output, outputOffset);
+    }
+
+    /**
+     * Same as {@link #seal(byte[], int, int, byte[], byte[], int)}, with the subkey and first key stream block of the
+     * nonce computed ahead of time.
+     */
+    public int seal(final PrecomputedKeyStream precomputed, final byte[] message, final int messageOffset,
+                    final int messageLength, final byte[] nonce, final byte[] output, final int outputOffset) {
+        if (!isValid(message, messageOffset, messageLength, nonce, output, outputOffset)) {
+            return -1;
+        }
+        return this.seal(precomputed, ByteBuffer.wrap(message, messageOffset, messageLength), nonce, output, outputOffset);
+    }
+
+    /**
+     * Same as {@link #seal(ByteBuffer, byte[], byte[], int)}, with the subkey and first key stream block of the nonce
+     * computed ahead of time.
+     */
+    public int seal(final PrecomputedKeyStream precomputed, final ByteBuffer message, final byte[] nonce,
+                    final byte[] output, final int outputOffset) {
+        final int messageLength = message.remaining();
+        if (!isValid(messageLength, nonce, output, outputOffset)) {
+            return -1;
+        }
+        final int[] keyStream = this.keyStream(messageLength);
+        System.arraycopy(precomputed.firstBlock, 0, keyStream, 0, XSalsa20.BLOCK_WORDS);
+        this.xSalsa20.initAfterFirstBlock(precomputed.subkey, nonce);
+        this.xSalsa20.blocks(keyStream, XSalsa20.BLOCK_WORDS, blocksFor(messageLength) - 1);
+        return seal(this.authenticator, keyStream, 0, message, message.position(), messageLength, output, outputOffset);
+    }
+
+    XSalsa20 getXSalsa20() {
+        return this.xSalsa20;
+    }
+
+    static boolean isValid(final byte[] message, final int messageOffset, final int messageLength,
+                           final byte[] nonce, final byte[] output, final int outputOffset) {
+        return messageOffset >= 0 && messageLength >= 0 && message.length >= messageOffset + messageLength
+                && isValid(messageLength, nonce, output, outputOffset);
+    }
+
+    static boolean isValid(final int messageLength, final byte[] nonce, final byte[] output, final int outputOffset) {
+        return nonce.length == NONCE_LENGTH
+                && outputOffset >= 0 && output.length >= outputOffset + messageLength + OVERHEAD_LENGTH;
+    }
+
+    /**
+     * @return the number of key stream blocks needed to seal a message of the provided length
+     */
+    static int blocksFor(final int messageLength) {
+        // the first 32 bytes of the key stream are the one time authenticator key
+        return (32 + messageLength + XSalsa20.BLOCK_LENGTH - 1) / XSalsa20.BLOCK_LENGTH;
+    }
+
+    private int[] keyStream(final int messageLength) {
+        final int words = blocksFor(messageLength) * XSalsa20.BLOCK_WORDS;
+        if (this.keyStream.length < words) {
+            this.keyStream = new int[words];
+        }
+        return this.keyStream;
+    }
+
+    /**
+     * Seal the message with the words of its key stream, which start at keyStream[keyStreamOffset] and hold at least
+     * {@link #blocksFor} blocks. The message is read from messageIndex on, without moving the buffer's position.
+     */
+    static int seal(final Poly1305 authenticator, final int[] keyStream, final int keyStreamOffset,
+                    final ByteBuffer message, final int messageIndex, final int messageLength,
+                    final byte[] output, final int outputOffset) {
+        // the first 32 bytes of the key stream are the one time authenticator key,
+        // the message is encrypted with the key stream following them
+        final int k = keyStreamOffset;
+        authenticator.init(keyStream[k], keyStream[k + 1], keyStream[k + 2], keyStream[k + 3],
+                keyStream[k + 4], keyStream[k + 5], keyStream[k + 6], keyStream[k + 7]);
+
+        // Encrypt and authenticate in a single pass, 16 bytes at a time: each cipher text block is fed to the
+        // authenticator as words straight from the xor, without being read back from the output.
+        final int cipherTextOffset = outputOffset + OVERHEAD_LENGTH;
+        int word = k + 8;
+        int done = 0;
+        for (; done + 16 <= messageLength; done += 16, word += 4) {
+            final int in = messageIndex + done;
+            final int out = cipherTextOffset + done;
+            final int c0 = readInt(message, in) ^ keyStream[word];
+            final int c1 = readInt(message, in + 4) ^ keyStream[word + 1];
+            final int c2 = readInt(message, in + 8) ^ keyStream[word + 2];
+            final int c3 = readInt(message, in + 12) ^ keyStream[word + 3];
+            writeInt(output, out, c0);
+            writeInt(output, out + 4, c1);
+            writeInt(output, out + 8, c2);
+            writeInt(output, out + 12, c3);
+            authenticator.block(c0, c1, c2, c3);
+        }
+
+        // less than 16 bytes left
+        final int remaining = messageLength - done;
+        if (remaining > 0) {
+            for (int i = 0; i < remaining; i++) {
+                final int keyStreamByte = keyStream[word + (i >>> 2)] >>> ((i & 3) << 3);
+                output[cipherTextOffset + done + i] = (byte) (message.get(messageIndex + done + i) ^ keyStreamByte);
+            }
+            authenticator.update(output, cipherTextOffset + done, remaining);
+        }
+
+        authenticator.finish(output, outputOffset);
+        return messageLength + OVERHEAD_LENGTH;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static space.npstr.magma.impl.crypto.LittleEndian.readInt;
+
+/**
+ * Seals many messages with {@link XSalsa20Poly1305} together, each with its own key and nonce, for example the packets
+ * of all connections that are due in the same tick.
+ * <p>
+ * The subkeys and key streams of all messages are computed side by side with {@link Salsa20Lanes}, which uses vector
+ * instructions where the JVM offers them. Authenticating is done message by message.
+ * <p>
+ * {@link #add} the messages, {@link #seal()} them, read the results, and {@link #clear()} the batch to reuse it.
+ */
+@NotThreadSafe
+public class XSalsa20Poly1305Batch {
+
+    private static final int WORDS = XSalsa20.BLOCK_WORDS;
+
+    private final Poly1305 authenticator = new Poly1305();
+
+    private int size = 0;
+    private int[][] keys;
+    private byte[] nonces;
+    private ByteBuffer[] messages;
+    private int[] messageIndices;
+    private int[] messageLengths;
+    private byte[][] outputs;
+    private int[] outputOffsets;
+    private int[] results;
+
+    // scratch space
+    private int[] subkeys = new int[0];
+    private int[] lanes = new int[0];
+    private int[] laneInput = new int[0];
+    private int[] laneOutput = new int[0];
+    private int[] keyStreams = new int[0];
+
+    public XSalsa20Poly1305Batch() {
+        this(16);
+    }
+
+    public XSalsa20Poly1305Batch(final int initialCapacity) {
+        final int capacity = Math.max(1, initialCapacity);
+        this.keys = new int[capacity][];
+        this.nonces = new byte[capacity * XSalsa20.NONCE_LENGTH];
+        this.messages = new ByteBuffer[capacity];
+        this.messageIndices = new int[capacity];
+        this.messageLengths = new int[capacity];
+        this.outputs = new byte[capacity][];
+        this.outputOffsets = new int[capacity];
+        this.results = new int[capacity];
+    }
+
+    /**
+     * Add a message to be sealed like {@link XSalsa20Poly1305#seal(byte[], int, int, byte[], byte[], int)} would, with
+     * the key of the provided secret box. The nonce is copied, the message and output are not.
+     *
+     * @return the index of the message in this batch
+     */
+    public int add(final XSalsa20Poly1305 secretBox, final byte[] nonce,
+                   final byte[] message, final int messageOffset, final int messageLength,
+                   final byte[] output, final int outputOffset) {
+        final boolean valid = XSalsa20Poly1305.isValid(message, messageOffset, messageLength, nonce, output, outputOffset);
+        return this.add(secretBox, nonce, valid ? ByteBuffer.wrap(message, messageOffset, messageLength) : null,
+                output, outputOffset, valid);
+    }
+
+    /**
+     * Add the remaining bytes of the message buffer, which may be a direct buffer, to be sealed like
+     * {@link XSalsa20Poly1305#seal(ByteBuffer, byte[], byte[], int)} would. The position of the message buffer must not
+     * change until the batch is sealed.
+     *
+     * @return the index of the message in this batch
+     */
+    public int add(final XSalsa20Poly1305 secretBox, final byte[] nonce, final ByteBuffer message,
+                   final byte[] output, final int outputOffset) {
+        return this.add(secretBox, nonce, message, output, outputOffset,
+                XSalsa20Poly1305.isValid(message.remaining(), nonce, output, outputOffset));
+    }
+
+    private int add(final XSalsa20Poly1305 secretBox, final byte[] nonce, @Nullable final ByteBuffer message,
+                    final byte[] output, final int outputOffset, final boolean valid) {
+        if (this.size == this.keys.length) {
+            this.grow();
+        }
+        final int index = this.size++;
+        this.keys[index] = secretBox.getXSalsa20().getKey();
+        this.messages[index] = message;
+        this.messageIndices[index] = message == null ? 0 : message.position();
+        this.messageLengths[index] = message == null ? 0 : message.remaining();
+        this.outputs[index] = output;
+        this.outputOffsets[index] = outputOffset;
+        if (valid) {
+            System.arraycopy(nonce, 0, this.nonces, index * XSalsa20.NONCE_LENGTH, XSalsa20.NONCE_LENGTH);
+            this.results[index] = 0;
+        } else {
+            this.results[index] = -1;
+        }
+        return index;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the number of bytes written for the message at the index by the last {@link #seal()}, or -1 if its
+     * arguments were invalid
+     */
+    public int getResult(final int index) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for batch of size " + this.size);
+        }
+        return this.results[index];
+    }
+
+    /**
+     * Remove all messages, keeping the allocated space for the next batch.
+     */
+    public void clear() {
+        Arrays.fill(this.keys, 0, this.size, null);
+        Arrays.fill(this.messages, 0, this.size, null);
+        Arrays.fill(this.outputs, 0, this.size, null);
+        this.size = 0;
+    }
+
+    /**
+     * Seal all added messages.
+     */
+    public void seal() {
+        final int n = this.size;
+        if (n == 0) {
+            return;
+        }
+
+        int maxBlocks = 0;
+        for (int l = 0; l < n; l++) {
+            if (this.results[l] >= 0) {
+                maxBlocks = Math.max(maxBlocks, XSalsa20Poly1305.blocksFor(this.messageLengths[l]));
+            }
+        }
+        final int keyStreamWords = maxBlocks * WORDS;
+        this.ensureScratch(n, keyStreamWords);
+
+        this.deriveSubkeys(n);
+        for (int block = 0; block < maxBlocks; block++) {
+            this.computeKeyStreamBlock(n, block, keyStreamWords);
+        }
+
+        for (int l = 0; l < n; l++) {
+            if (this.results[l] >= 0) {
+                this.results[l] = XSalsa20Poly1305.seal(this.authenticator, this.keyStreams, l * keyStreamWords,
+                        this.messages[l], this.messageIndices[l], this.messageLengths[l],
+                        this.outputs[l], this.outputOffsets[l]);
+            }
+        }
+    }
+
+    // hsalsa20 of all messages
+    private void deriveSubkeys(final int n) {
+        final int[] in = this.laneInput;
+        for (int l = 0; l < n; l++) {
+            final int[] key = this.keys[l];
+            final int nonce = l * XSalsa20.NONCE_LENGTH;
+            in[l] = XSalsa20.SIGMA0;
+            in[n + l] = key[0];
+            in[2 * n + l] = key[1];
+            in[3 * n + l] = key[2];
+            in[4 * n + l] = key[3];
+            in[5 * n + l] = XSalsa20.SIGMA1;
+            in[6 * n + l] = readInt(this.nonces, nonce);
+            in[7 * n + l] = readInt(this.nonces, nonce + 4);
+            in[8 * n + l] = readInt(this.nonces, nonce + 8);
+            in[9 * n + l] = readInt(this.nonces, nonce + 12);
+            in[10 * n + l] = XSalsa20.SIGMA2;
+            in[11 * n + l] = key[4];
+            in[12 * n + l] = key[5];
+            in[13 * n + l] = key[6];
+            in[14 * n + l] = key[7];
+            in[15 * n + l] = XSalsa20.SIGMA3;
+        }
+        Salsa20Lanes.core(in, this.laneOutput, n, n, false);
+
+        final int[] out = this.laneOutput;
+        for (int l = 0; l < n; l++) {
+            final int subkey = l * 8;
+            this.subkeys[subkey] = out[l];
+            this.subkeys[subkey + 1] = out[5 * n + l];
+            this.subkeys[subkey + 2] = out[10 * n + l];
+            this.subkeys[subkey + 3] = out[15 * n + l];
+            this.subkeys[subkey + 4] = out[6 * n + l];
+            this.subkeys[subkey + 5] = out[7 * n + l];
+            this.subkeys[subkey + 6] = out[8 * n + l];
+            this.subkeys[subkey + 7] = out[9 * n + l];
+        }
+    }
+
+    // salsa20 block of all messages that are long enough to need it
+    private void computeKeyStreamBlock(final int n, final int block, final int keyStreamWords) {
+        int m = 0;
+        for (int l = 0; l < n; l++) {
+            if (this.results[l] >= 0 && block < XSalsa20Poly1305.blocksFor(this.messageLengths[l])) {
+                this.lanes[m++] = l;
+            }
+        }
+
+        final int[] in = this.laneInput;
+        for (int i = 0; i < m; i++) {
+            final int l = this.lanes[i];
+            final int subkey = l * 8;
+            final int nonce = l * XSalsa20.NONCE_LENGTH;
+            in[i] = XSalsa20.SIGMA0;
+            in[m + i] = this.subkeys[subkey];
+            in[2 * m + i] = this.subkeys[subkey + 1];
+            in[3 * m + i] = this.subkeys[subkey + 2];
+            in[4 * m + i] = this.subkeys[subkey + 3];
+            in[5 * m + i] = XSalsa20.SIGMA1;
+            in[6 * m + i] = readInt(this.nonces, nonce + 16);
+            in[7 * m + i] = readInt(this.nonces, nonce + 20);
+            in[8 * m + i] = block;
+            in[9 * m + i] = 0;
+            in[10 * m + i] = XSalsa20.SIGMA2;
+            in[11 * m + i] = this.subkeys[subkey + 4];
+            in[12 * m + i] = this.subkeys[subkey + 5];
+            in[13 * m + i] = this.subkeys[subkey + 6];
+            in[14 * m + i] = this.subkeys[subkey + 7];
+            in[15 * m + i] = XSalsa20.SIGMA3;
+        }
+        Salsa20Lanes.core(in, this.laneOutput, m, m, true);
+
+        final int[] out = this.laneOutput;
+        for (int i = 0; i < m; i++) {
+            final int keyStream = this.lanes[i] * keyStreamWords + block * WORDS;
+            for (int w = 0; w < WORDS; w++) {
+                this.keyStreams[keyStream + w] = out[w * m + i];
+            }
+        }
+    }
+
+    private void ensureScratch(final int n, final int keyStreamWords) {
+        if (this.lanes.length < n) {
+            this.lanes = new int[n];
+            this.subkeys = new int[n * 8];
+            this.laneInput = new int[n * WORDS];
+            this.laneOutput = new int[n * WORDS];
+        }
+        if (this.keyStreams.length < n * keyStreamWords) {
+            this.keyStreams = new int[n * keyStreamWords];
+        }
+    }
+
+    private void grow() {
+        final int capacity = this.keys.length * 2;
+        this.keys = Arrays.copyOf(this.keys, capacity);
+        this.nonces = Arrays.copyOf(this.nonces, capacity * XSalsa20.NONCE_LENGTH);
+        this.messages = Arrays.copyOf(this.messages, capacity);
+        this.messageIndices = Arrays.copyOf(this.messageIndices, capacity);
+        this.messageLengths = Arrays.copyOf(this.messageLengths, capacity);
+        this.outputs = Arrays.copyOf(this.outputs, capacity);
+        this.outputOffsets = Arrays.copyOf(this.outputOffsets, capacity);
+        this.results = Arrays.copyOf(this.results, capacity);
+    }
+}
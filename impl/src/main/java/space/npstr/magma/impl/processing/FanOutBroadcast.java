@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.dv8tion.jda.api.audio.AudioSendHandler;
+import space.npstr.magma.api.Broadcast;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Broadcast} that hands out one send handler per subscribed connection. The frames of the source are kept in
+ * a small ring, and numbered as they are pulled. Each subscriber remembers the number of its next frame: the
+ * subscriber that is ahead of all others pulls a new frame from the source, the others are served the same frame from
+ * the ring as a read-only view when it is their turn. This keeps connections whose send ticks are a little out of phase
+ * in step, while the source is asked for each frame exactly once.
+ * <p>
+ * A subscriber that falls behind by more than {@link #MAX_LAG} frames skips ahead to the newest frame, long before the
+ * slot it reads from could be reused by the source. Packet providers that pull frames ahead of time, like a lookahead
+ * ring, take at most {@link #MAX_LEAD} frames ahead from a subscriber, so they do not push the others that far behind.
+ */
+@ThreadSafe
+public class FanOutBroadcast implements Broadcast {
+
+    static final int RING_SIZE = 16;
+    static final int MAX_LAG = RING_SIZE - 4;
+    // what is left of the lag covers send ticks of the subscribers that are out of phase
+    static final int MAX_LEAD = MAX_LAG - 4;
+    private static final int INITIAL_SLOT_CAPACITY = 1024;
+
+    private final AudioSendHandler source;
+    private final byte[][] slots = new byte[RING_SIZE][];
+    private final int[] slotLengths = new int[RING_SIZE];
+    // number of the newest frame in the ring
+    private long newest = -1;
+
+    public FanOutBroadcast(final AudioSendHandler source) {
+        if (!source.isOpus()) {
+            throw new IllegalArgumentException("Magma does not support non-opus audio providers. Please use lavaplayer.");
+        }
+        this.source = source;
+        for (int i = 0; i < RING_SIZE; i++) {
+            this.slots[i] = new byte[INITIAL_SLOT_CAPACITY];
+        }
+    }
+
+    @Override
+    public AudioSendHandler getSource() {
+        return this.source;
+    }
+
+    /**
+     * @return a new send handler that plays this broadcast for one connection, starting at its current frame
+     */
+    public AudioSendHandler subscribe() {
+        return new Subscriber();
+    }
+
+    /**
+     * @return true if the send handler is a subscriber of a broadcast
+     */
+    static boolean isSubscriber(@Nullable final AudioSendHandler sendHandler) {
+        return sendHandler instanceof Subscriber;
+    }
+
+    private synchronized boolean canProvide(final long next) {
+        return (next >= 0 && next <= this.newest) || this.source.canProvide();
+    }
+
+    /**
+     * @return the number of the frame to play for a subscriber that wants the frame with the passed number, or -1 if
+     * there is none
+     */
+    private synchronized long frameFor(final long next) {
+        // new subscribers start with the newest frame, or the first one
+        final long wanted = next < 0 ? Math.max(this.newest, 0) : next;
+        if (wanted > this.newest) {
+            if (!this.source.canProvide()) {
+                return -1;
+            }
+            final ByteBuffer frame = this.source.provide20MsAudio();
+            if (frame == null || !frame.hasRemaining()) {
+                return -1;
+            }
+            this.newest++;
+            this.store(frame, (int) (this.newest % RING_SIZE));
+            return this.newest;
+        }
+        if (this.newest - wanted > MAX_LAG) {
+            return this.newest;
+        }
+        return wanted;
+    }
+
+    private void store(final ByteBuffer frame, final int slot) {
+        final int length = frame.remaining();
+        if (length > this.slots[slot].length) {
+            this.slots[slot] = new byte[length];
+        }
+        final int position = frame.position();
+        frame.get(this.slots[slot], 0, length);
+        ((Buffer) frame).position(position);
+        this.slotLengths[slot] = length;
+    }
+
+    // the arrays of the slots are read after frameFor returned, whose lock makes the stored frame visible
+    private synchronized byte[] slotData(final int slot) {
+        return this.slots[slot];
+    }
+
+    private synchronized int slotLength(final int slot) {
+        return this.slotLengths[slot];
+    }
+
+    /**
+     * Send handler of one connection, which is only ever called by the send system of that connection.
+     */
+    @NotThreadSafe
+    private class Subscriber implements AudioSendHandler {
+
+        // views are created once per slot, and again only when the array of a slot had to grow
+        private final ByteBuffer[] views = new ByteBuffer[RING_SIZE];
+        private final byte[][] viewData = new byte[RING_SIZE][];
+        private long next = -1;
+
+        @Override
+        public boolean canProvide() {
+            return FanOutBroadcast.this.canProvide(this.next);
+        }
+
+        @Nullable
+        @Override
+        public ByteBuffer provide20MsAudio() {
+            final long frame = FanOutBroadcast.this.frameFor(this.next);
+            if (frame < 0) {
+                return null;
+            }
+            this.next = frame + 1;
+
+            final int slot = (int) (frame % RING_SIZE);
+            final byte[] data = FanOutBroadcast.this.slotData(slot);
+            ByteBuffer view = this.views[slot];
+            if (view == null || this.viewData[slot] != data) {
+                view = ByteBuffer.wrap(data).asReadOnlyBuffer();
+                this.views[slot] = view;
+                this.viewData[slot] = data;
+            }
+            ((Buffer) view).clear();
+            ((Buffer) view).limit(FanOutBroadcast.this.slotLength(slot));
+            return view;
+        }
+
+        @Override
+        public boolean isOpus() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.connections.AudioConnection;
+import space.npstr.magma.impl.crypto.CipherContext;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link PacketProvider} that keeps a ring of packets ready to be sent. The ring is filled on the
+ * {@link PacketProcessingPool}: frames are pulled from the send handler and encrypted there, and the send system only
+ * takes the next packet out of the ring, then asks for the ring to be topped up again.
+ * <p>
+ * A send handler that has no frame for a moment, or a filler that is held up by a GC pause, does not interrupt the
+ * audio as long as there are packets left in the ring. Speaking is only switched on once the first packet is taken
+ * out of the ring, and it is only switched off, and the silent frames for opus interpolation are only queued, once the
+ * ring has actually run dry.
+ */
+public class LookaheadPacketProvider extends PacketProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(LookaheadPacketProvider.class);
+
+    private final AudioConnection audioConnection;
+    private final LongSupplier nonceSupplier;
+    private final int size;
+    private final PacketBufferArena arena = PacketBufferArena.shared();
+    // packets in the order they will be sent, their buffers are borrowed from the arena
+    private final ArrayBlockingQueue<ByteBuffer> ring;
+    // at most one fill task per connection is running, so frames are pulled by one of them at a time
+    private final AtomicBoolean filling = new AtomicBoolean(false);
+    // set by the send system when it found the ring empty, picked up by the next fill task
+    private final AtomicBoolean ranDry = new AtomicBoolean(false);
+    // the packet returned by the last call, which the send system may still be reading
+    @Nullable
+    private ByteBuffer sending = null;
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param size
+     *         how many packets to keep ready in the ring
+     * @param silenceSuppressionFrames
+     *         see {@link PacketProvider#PacketProvider(AudioConnection, LongSupplier, int, int)}
+     */
+    public LookaheadPacketProvider(final AudioConnection audioConnection, final LongSupplier nonceSupplier,
+                                   final int size, final int silenceSuppressionFrames) {
+        super(audioConnection, nonceSupplier, 1, silenceSuppressionFrames);
+        this.audioConnection = audioConnection;
+        this.nonceSupplier = nonceSupplier;
+        this.size = size;
+        this.ring = new ArrayBlockingQueue<>(size);
+    }
+
+    @Nullable
+    @Override
+    public synchronized ByteBuffer getNextPacketRaw(final boolean changeTalking) {
+        this.releaseSending();
+        if (this.shutdown) {
+            return null;
+        }
+
+        final ByteBuffer next = this.ring.poll();
+        if (next == null) {
+            this.ranDry.set(true);
+            if (this.audioConnection.isSpeaking() && changeTalking) {
+                this.audioConnection.updateSpeaking(false);
+            }
+        } else if (!this.audioConnection.isSpeaking()) {
+            this.audioConnection.updateSpeaking(true);
+        }
+        this.sending = next;
+        this.scheduleFill();
+        return next;
+    }
+
+    // the packets are encrypted ahead of time into buffers of the arena, so they can only be copied over, under the lock
+    // that keeps shutdown from returning the buffer to the arena in the meantime
+    @Override
+    public synchronized int writeNextPacket(final ByteBuffer target, final boolean changeTalking) {
+        return copyPacket(this.getNextPacketRaw(changeTalking), target);
+    }
+
+    @Override
+    public synchronized int addNextPacket(final PacketBatch batch, final boolean changeTalking) {
+        final ByteBuffer packet = this.getNextPacketRaw(changeTalking);
+        return packet == null ? -1 : batch.addSealed(packet);
+    }
+
+    /**
+     * Skipping would only jump the timestamp after the packets in the ring, which were stamped already.
+     */
+    @Override
+    public boolean canSkipFrames() {
+        return false;
+    }
+
+    @Override
+    public void skipFrames(final int frames) {
+        throw new UnsupportedOperationException("Packets are stamped ahead of time, frames can not be skipped");
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        super.shutdown();
+        this.shutdown = true;
+        this.releaseSending();
+        this.drainRing();
+    }
+
+    /**
+     * Frames are pulled ahead of time, so speaking is switched on by the send system, once it takes the first packet out
+     * of the ring.
+     */
+    @Override
+    void onFramePulled() {
+        // nothing to do until a packet is sent
+    }
+
+    /**
+     * Gaps while there are packets left in the ring are not gaps on the wire, so the silent frames are queued by the
+     * fill task once the send system has found the ring empty instead.
+     */
+    @Override
+    void onNothingToSend(final boolean changeTalking) {
+        // nothing to do until the ring runs dry
+    }
+
+    private void releaseSending() {
+        if (this.sending != null) {
+            this.arena.release(this.sending);
+            this.sending = null;
+        }
+    }
+
+    // a broadcast subscriber that takes too many frames ahead would make the other subscribers skip them
+    private boolean hasRoom() {
+        final int target = FanOutBroadcast.isSubscriber(this.audioConnection.getSendHandler())
+                ? Math.min(this.size, FanOutBroadcast.MAX_LEAD)
+                : this.size;
+        return this.ring.size() < target;
+    }
+
+    private void scheduleFill() {
+        if (this.hasRoom() && this.filling.compareAndSet(false, true)) {
+            PacketProcessingPool.get().execute(this::fill);
+        }
+    }
+
+    private void fill() {
+        try {
+            while (!this.shutdown && this.hasRoom()) {
+                final ByteBuffer frame;
+                final EncryptionMode encryptionMode;
+                final CipherContext cipherContext;
+                final char seq;
+                final int timestamp;
+                final int ssrc;
+                // the state of the provider is shared with the send system, so frames are pulled and stamped under its
+                // lock, while the sealing below is left outside of it
+                synchronized (this) {
+                    if (this.shutdown) {
+                        break;
+                    }
+                    // a ring that ran dry while silence is suppressed is no gap, the silent frames were sent already
+                    if (this.ranDry.getAndSet(false) && !this.isSuppressingSilence()) {
+                        super.onNothingToSend(false);
+                    }
+                    encryptionMode = this.audioConnection.getEncryptionMode();
+                    cipherContext = this.audioConnection.getCipherContext();
+                    // speaking is switched on and off by the send system, as it takes packets out of the ring
+                    frame = this.nextFrame(false, encryptionMode, cipherContext);
+                    if (frame == null || encryptionMode == null || cipherContext == null) {
+                        break;
+                    }
+                    seq = this.getFrameSeq();
+                    timestamp = this.getFrameTimestamp();
+                    ssrc = this.getFrameSsrc();
+                }
+                // the frame stays untouched until the next call to nextFrame, which only this task makes
+                final ByteBuffer packetBuffer = this.arena.borrow(RtpPacketWriter.maxPacketLength(frame.remaining()));
+                try {
+                    this.ring.add(RtpPacketWriter.write(packetBuffer, seq, timestamp, ssrc, frame, encryptionMode,
+                            cipherContext, this.nonceSupplier));
+                } catch (final Exception e) {
+                    this.arena.release(packetBuffer);
+                    throw e;
+                }
+            }
+        } catch (final Exception e) {
+            log.error("Failed to fill the packet ring", e);
+        } finally {
+            this.filling.set(false);
+        }
+        // packets added after the provider was shut down are returned here
+        if (this.shutdown) {
+            this.drainRing();
+        }
+    }
+
+    private void drainRing() {
+        ByteBuffer packet;
+        while ((packet = this.ring.poll()) != null) {
+            this.arena.release(packet);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Combines consecutive opus packets of one frame each into a single opus packet with several frames, so that fewer
+ * rtp packets have to be encrypted and sent for the same audio.
+ * <p>
+ * Frames can be combined as long as they were encoded with the same configuration and the packet does not exceed the
+ * 120 ms that opus allows. The combined packet uses frame count code 3, see
+ * <a href="https://tools.ietf.org/html/rfc6716#section-3.2.5">RFC 6716, section 3.2.5</a>. Any other packet is
+ * passed on as it is, in a group of its own.
+ */
+@NotThreadSafe
+public class OpusRepacketizer {
+
+    static final int MAX_FRAME_LENGTH = 1275;
+    private static final int MAX_PACKET_SAMPLES = 5760; // 120 ms at 48 kHz
+    private static final int CODE_MASK = 0x03;
+    private static final int CODE_3 = 0x03;
+    private static final int VBR_FLAG = 0x80;
+    private static final int MAX_ONE_BYTE_LENGTH = 251;
+
+    private final int maxFrames;
+    // frame data of the pending group, without the toc bytes, or the whole packet if it is passed on as it is.
+    // it is kept apart from the built packet, so adding to the next group leaves the last built packet intact
+    private byte[] frames;
+    private final int[] frameLengths;
+    private byte[] packet;
+    private ByteBuffer packetBuffer;
+    private int frameCount = 0;
+    private int framesLength = 0;
+    private int toc = 0;
+    private int samples = 0;
+    private boolean combinable = false;
+    private int timestamp = 0;
+    private int ssrc = 0;
+
+    /**
+     * @param maxFrames
+     *         how many frames to combine at most into one packet
+     */
+    public OpusRepacketizer(final int maxFrames) {
+        if (maxFrames < 1) {
+            throw new IllegalArgumentException("Need to combine at least one frame per packet, got " + maxFrames);
+        }
+        this.maxFrames = maxFrames;
+        this.frames = new byte[maxFrames * MAX_FRAME_LENGTH];
+        this.frameLengths = new int[maxFrames];
+        // toc, frame count, two bytes for each frame length but the last one, and the frames
+        this.packet = new byte[2 + 2 * (maxFrames - 1) + this.frames.length];
+        this.packetBuffer = ByteBuffer.wrap(this.packet);
+    }
+
+    public boolean isEmpty() {
+        return this.frameCount == 0;
+    }
+
+    /**
+     * @return true if the pending group takes no more packets, and should be built
+     */
+    public boolean isFull() {
+        return this.frameCount >= this.maxFrames || (this.frameCount > 0 && !this.combinable);
+    }
+
+    public int getFrameCount() {
+        return this.frameCount;
+    }
+
+    /**
+     * @return the rtp timestamp of the first packet in the pending group
+     */
+    public int getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * @return the ssrc of the first packet in the pending group
+     */
+    public int getSsrc() {
+        return this.ssrc;
+    }
+
+    /**
+     * @return true if the opus packet can join the pending group, which is always the case for an empty group
+     */
+    public boolean canAdd(final ByteBuffer opusPacket) {
+        if (this.isEmpty()) {
+            return true;
+        }
+        if (this.isFull() || !isSingleFrame(opusPacket)) {
+            return false;
+        }
+        final int packetToc = opusPacket.get(opusPacket.position()) & 0xFF;
+        return packetToc == this.toc && this.samples + samplesPerFrame(packetToc) <= MAX_PACKET_SAMPLES;
+    }
+
+    /**
+     * Add the opus packet to the pending group. Its bytes are copied, the position of the buffer is left untouched.
+     *
+     * @throws IllegalStateException
+     *         if the packet {@link #canAdd(ByteBuffer) can not be added}
+     */
+    public void add(final ByteBuffer opusPacket, final int timestamp, final int ssrc) {
+        if (!this.canAdd(opusPacket)) {
+            throw new IllegalStateException("Opus packet can not be combined with the pending ones");
+        }
+        final int position = opusPacket.position();
+        if (this.isEmpty()) {
+            this.timestamp = timestamp;
+            this.ssrc = ssrc;
+            this.toc = opusPacket.get(position) & 0xFF;
+            this.combinable = isSingleFrame(opusPacket);
+            this.samples = 0;
+            this.framesLength = 0;
+        }
+
+        if (this.combinable) {
+            final int frameLength = opusPacket.remaining() - 1;
+            ((Buffer) opusPacket).position(position + 1);
+            opusPacket.get(this.frames, this.framesLength, frameLength);
+            ((Buffer) opusPacket).position(position);
+            this.frameLengths[this.frameCount] = frameLength;
+            this.framesLength += frameLength;
+            this.samples += samplesPerFrame(this.toc);
+        } else {
+            // passed on as it is, whatever it contains
+            final int length = opusPacket.remaining();
+            if (length > this.frames.length) {
+                this.frames = new byte[length];
+            }
+            opusPacket.get(this.frames, 0, length);
+            ((Buffer) opusPacket).position(position);
+            this.framesLength = length;
+        }
+        this.frameCount++;
+    }
+
+    /**
+     * Build the opus packet of the pending group, and start a new group.
+     *
+     * @return the opus packet, valid until the next call of this method. Adding packets to the next group leaves it
+     * untouched.
+     */
+    public ByteBuffer build() {
+        if (this.isEmpty()) {
+            throw new IllegalStateException("No opus packets to build from");
+        }
+
+        int length;
+        if (!this.combinable) {
+            if (this.framesLength > this.packet.length) {
+                this.packet = new byte[this.framesLength];
+                this.packetBuffer = ByteBuffer.wrap(this.packet);
+            }
+            System.arraycopy(this.frames, 0, this.packet, 0, this.framesLength);
+            length = this.framesLength;
+        } else if (this.frameCount == 1) {
+            this.packet[0] = (byte) this.toc;
+            System.arraycopy(this.frames, 0, this.packet, 1, this.framesLength);
+            length = 1 + this.framesLength;
+        } else {
+            this.packet[0] = (byte) ((this.toc & ~CODE_MASK) | CODE_3);
+            final boolean constantBitrate = this.hasEqualFrameLengths();
+            this.packet[1] = (byte) (constantBitrate ? this.frameCount : VBR_FLAG | this.frameCount);
+            length = 2;
+            if (!constantBitrate) {
+                for (int i = 0; i < this.frameCount - 1; i++) {
+                    length += writeFrameLength(this.frameLengths[i], this.packet, length);
+                }
+            }
+            System.arraycopy(this.frames, 0, this.packet, length, this.framesLength);
+            length += this.framesLength;
+        }
+
+        this.frameCount = 0;
+        ((Buffer) this.packetBuffer).clear();
+        ((Buffer) this.packetBuffer).limit(length);
+        return this.packetBuffer;
+    }
+
+    /**
+     * Drop the pending group.
+     */
+    public void clear() {
+        this.frameCount = 0;
+    }
+
+    private boolean hasEqualFrameLengths() {
+        for (int i = 1; i < this.frameCount; i++) {
+            if (this.frameLengths[i] != this.frameLengths[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // a code 0 packet holds exactly one frame, which is everything after the toc byte
+    private static boolean isSingleFrame(final ByteBuffer opusPacket) {
+        final int length = opusPacket.remaining();
+        return length > 1
+                && length - 1 <= MAX_FRAME_LENGTH
+                && (opusPacket.get(opusPacket.position()) & CODE_MASK) == 0;
+    }
+
+    private static int writeFrameLength(final int frameLength, final byte[] dest, final int offset) {
+        if (frameLength <= MAX_ONE_BYTE_LENGTH) {
+            dest[offset] = (byte) frameLength;
+            return 1;
+        }
+        final int first = 252 + (frameLength & 0x03);
+        dest[offset] = (byte) first;
+        dest[offset + 1] = (byte) ((frameLength - first) >> 2);
+        return 2;
+    }
+
+    // the duration of a frame is given by the configuration in the upper five bits of the toc byte
+    static int samplesPerFrame(final int toc) {
+        final int config = (toc >> 3) & 0x1F;
+        if (config < 12) {
+            // silk: 10, 20, 40, 60 ms
+            final int size = config & 0x03;
+            return size == 3 ? 2880 : 480 << size;
+        } else if (config < 16) {
+            // hybrid: 10, 20 ms
+            return 480 << (config & 0x01);
+        } else {
+            // celt: 2.5, 5, 10, 20 ms
+            return 120 << (config & 0x03);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+
+/**
+ * Recognizes opus packets that carry nothing but silence or comfort noise by their size, and tells when a run of them
+ * has gone on long enough that sending them can be stopped.
+ * <p>
+ * An encoder that is fed silence produces frames of at most two bytes after the toc byte (the {@code 0xFF, 0xFE} of
+ * a silent celt frame, or nothing at all for discontinuous transmission), no matter the configuration in the toc byte.
+ */
+@NotThreadSafe
+public class OpusSilenceDetector {
+
+    private static final int MAX_SILENT_FRAME_LENGTH = 2;
+    private static final int CODE_MASK = 0x03;
+
+    private final int suppressAfter;
+    private int silentFrames = 0;
+
+    /**
+     * @param suppressAfter
+     *         how many silent packets in a row to let through before suppressing the following ones
+     */
+    public OpusSilenceDetector(final int suppressAfter) {
+        this.suppressAfter = suppressAfter;
+    }
+
+    /**
+     * Feed the next opus packet to the detector.
+     *
+     * @return true if the packet is silent and follows a long enough run of silent packets to not be sent
+     */
+    public boolean suppress(final ByteBuffer opusPacket) {
+        if (!isSilent(opusPacket)) {
+            this.silentFrames = 0;
+            return false;
+        }
+        if (this.silentFrames < this.suppressAfter) {
+            this.silentFrames++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the packet is made up of one or two frames that are silent
+     */
+    static boolean isSilent(final ByteBuffer opusPacket) {
+        final int length = opusPacket.remaining();
+        if (length < 1) {
+            return false;
+        }
+        switch (opusPacket.get(opusPacket.position()) & CODE_MASK) {
+            case 0:
+                // one frame
+                return length - 1 <= MAX_SILENT_FRAME_LENGTH;
+            case 1:
+                // two frames of equal size
+                return (length - 1) / 2 <= MAX_SILENT_FRAME_LENGTH;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.crypto.CipherContext;
+import space.npstr.magma.impl.crypto.XSalsa20Poly1305;
+import space.npstr.magma.impl.crypto.XSalsa20Poly1305Batch;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import static net.dv8tion.jda.api.audio.AudioPacket.RTP_HEADER_BYTE_LENGTH;
+
+/**
+ * Writes the rtp packets of many connections together, like the send factories do for all connections that are due in
+ * the same slot of their timing wheel. Packets of the xsalsa20 modes are sealed side by side with a
+ * {@link XSalsa20Poly1305Batch}. Packets of the other modes, of connections that precompute their lite key streams,
+ * and packets that were sealed ahead of time are written right away when they are added.
+ * <p>
+ * The audio of a packet is copied when it is added, so the packet provider may reuse its buffer for the next frame.
+ * The batch keeps a buffer for each packet, which it reuses for the next batch.
+ * <p>
+ * {@link #add} the packets, {@link #seal()} them, send them, and {@link #clear()} the batch.
+ */
+@NotThreadSafe
+public class PacketBatch {
+
+    private static final Logger log = LoggerFactory.getLogger(PacketBatch.class);
+
+    // the audio is copied to where the cipher text goes, and sealed in place
+    private static final int MESSAGE_OFFSET = RTP_HEADER_BYTE_LENGTH + XSalsa20Poly1305.OVERHEAD_LENGTH;
+
+    private final XSalsa20Poly1305Batch sealBatch = new XSalsa20Poly1305Batch();
+    private final List<ByteBuffer> packets = new ArrayList<>();
+    private final List<byte[]> nonces = new ArrayList<>();
+    private int size = 0;
+    private int[] nonceLengths = new int[16];
+    // index of the packet in the seal batch, or -1 if it was written when it was added
+    private int[] sealIndices = new int[16];
+
+    /**
+     * Add a packet of the audio, to be written like {@link RtpPacketWriter#write} would. The remaining bytes of the
+     * audio buffer are copied, its position is left untouched.
+     *
+     * @return the index of the packet in this batch
+     */
+    public int add(final char seq, final int timestamp, final int ssrc, final ByteBuffer audio,
+                   final EncryptionMode encryptionMode, final CipherContext cipherContext,
+                   final LongSupplier nonceSupplier) {
+        final int audioLength = audio.remaining();
+        final int index = this.next(RtpPacketWriter.maxPacketLength(audioLength));
+        final ByteBuffer packet = this.packets.get(index);
+        final byte[] array = packet.array();
+        try {
+            if (!isBatched(encryptionMode, cipherContext)) {
+                final int length = RtpPacketWriter.write(array, 0, seq, timestamp, ssrc, audio, encryptionMode,
+                        cipherContext, nonceSupplier);
+                ((Buffer) packet).limit(length);
+                return index;
+            }
+
+            RtpPacketWriter.writeHeader(array, 0, seq, timestamp, ssrc);
+            final byte[] nonce = this.nonces.get(index);
+            this.nonceLengths[index] = RtpPacketWriter.writeXSalsa20Nonce(array, 0, encryptionMode, nonce,
+                    nonceSupplier);
+            audio.duplicate().get(array, MESSAGE_OFFSET, audioLength);
+            this.sealIndices[index] = this.sealBatch.add(cipherContext.getSecretBox(), nonce,
+                    array, MESSAGE_OFFSET, audioLength, array, RTP_HEADER_BYTE_LENGTH);
+            return index;
+        } catch (final RuntimeException e) {
+            // the packet is not part of the batch
+            this.size = index;
+            throw e;
+        }
+    }
+
+    /**
+     * Add a packet that was sealed already. Its remaining bytes are copied, its position is left untouched.
+     *
+     * @return the index of the packet in this batch
+     */
+    public int addSealed(final ByteBuffer sealedPacket) {
+        final int length = sealedPacket.remaining();
+        final int index = this.next(length);
+        final ByteBuffer packet = this.packets.get(index);
+        sealedPacket.duplicate().get(packet.array(), 0, length);
+        ((Buffer) packet).limit(length);
+        return index;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Seal the packets that were not written when they were added.
+     */
+    public void seal() {
+        this.sealBatch.seal();
+        for (int i = 0; i < this.size; i++) {
+            final int sealIndex = this.sealIndices[i];
+            if (sealIndex < 0) {
+                continue;
+            }
+            final ByteBuffer packet = this.packets.get(i);
+            final int sealedLength = this.sealBatch.getResult(sealIndex);
+            if (sealedLength < 0) {
+                log.error("Failed to encrypt audio packet");
+                ((Buffer) packet).limit(0);
+                continue;
+            }
+            final int nonceLength = this.nonceLengths[i];
+            System.arraycopy(this.nonces.get(i), 0, packet.array(), RTP_HEADER_BYTE_LENGTH + sealedLength, nonceLength);
+            ((Buffer) packet).limit(RTP_HEADER_BYTE_LENGTH + sealedLength + nonceLength);
+        }
+    }
+
+    /**
+     * @return the packet at the index, once the batch has been {@link #seal()}ed, or null if it could not be sealed.
+     * The buffer is reused by the next batch.
+     */
+    @Nullable
+    public ByteBuffer get(final int index) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for batch of size " + this.size);
+        }
+        final ByteBuffer packet = this.packets.get(index);
+        return packet.hasRemaining() ? packet : null;
+    }
+
+    /**
+     * Remove all packets, keeping the allocated space for the next batch.
+     */
+    public void clear() {
+        this.sealBatch.clear();
+        this.size = 0;
+    }
+
+    // lite key streams that were computed ahead of time are cheaper to use right away than to compute again here
+    private static boolean isBatched(final EncryptionMode encryptionMode, final CipherContext cipherContext) {
+        switch (encryptionMode) {
+            case XSALSA20_POLY1305:
+            case XSALSA20_POLY1305_SUFFIX:
+                return true;
+            case XSALSA20_POLY1305_LITE:
+                return cipherContext.getLiteKeyStreamRing() == null;
+            default:
+                return false;
+        }
+    }
+
+    // takes the next packet, with a buffer that holds at least the capacity
+    private int next(final int capacity) {
+        final int index = this.size++;
+        if (index == this.packets.size()) {
+            this.packets.add(ByteBuffer.allocate(Math.max(capacity, 512)));
+            this.nonces.add(new byte[XSalsa20Poly1305.NONCE_LENGTH]);
+        } else if (this.packets.get(index).capacity() < capacity) {
+            this.packets.set(index, ByteBuffer.allocate(capacity));
+        }
+        if (index == this.sealIndices.length) {
+            this.nonceLengths = Arrays.copyOf(this.nonceLengths, index * 2);
+            this.sealIndices = Arrays.copyOf(this.sealIndices, index * 2);
+        }
+        this.sealIndices[index] = -1;
+        ((Buffer) this.packets.get(index)).clear();
+        return index;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Packet buffers of fixed size classes, cut from larger heap slabs and shared by all connections. A connection borrows
+ * a buffer for each packet and returns it once the send system is done with it, so idle connections hold no packet
+ * memory at all, and busy ones reuse the same few slabs.
+ * <p>
+ * Buffers larger than the largest size class are allocated on demand and left to the garbage collector when returned.
+ * The slabs live on the heap, as the send systems build {@link java.net.DatagramPacket}s from the arrays of the
+ * packets.
+ */
+@ThreadSafe
+public class PacketBufferArena {
+
+    private static final Logger log = LoggerFactory.getLogger(PacketBufferArena.class);
+
+    // opus frames are at most 1275 bytes, plus rtp header, authentication tag and nonce
+    private static final int[] SIZE_CLASSES = {128, 256, 512, 1024, 2048};
+    private static final int SLAB_SIZE = 64 * 1024;
+
+    private static final PacketBufferArena SHARED = new PacketBufferArena();
+
+    private final SizeClass[] sizeClasses;
+    private final AtomicLong bytesInUse = new AtomicLong();
+    private final AtomicLong bytesReserved = new AtomicLong();
+
+    PacketBufferArena() {
+        this.sizeClasses = new SizeClass[SIZE_CLASSES.length];
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            this.sizeClasses[i] = new SizeClass(SIZE_CLASSES[i]);
+        }
+    }
+
+    /**
+     * @return the arena shared by all connections of this JVM
+     */
+    public static PacketBufferArena shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return a cleared buffer with at least the requested capacity, to be handed back with {@link #release}
+     */
+    public ByteBuffer borrow(final int minCapacity) {
+        final SizeClass sizeClass = this.sizeClassOf(minCapacity);
+        final ByteBuffer buffer = sizeClass == null
+                ? ByteBuffer.allocate(minCapacity)
+                : sizeClass.borrow();
+        this.bytesInUse.addAndGet(buffer.capacity());
+        return buffer;
+    }
+
+    /**
+     * Return a buffer that was borrowed from this arena. It must not be used afterwards.
+     */
+    public void release(final ByteBuffer buffer) {
+        this.bytesInUse.addAndGet(-buffer.capacity());
+        final SizeClass sizeClass = this.sizeClassOf(buffer.capacity());
+        if (sizeClass != null && sizeClass.size == buffer.capacity()) {
+            sizeClass.release(buffer);
+        }
+    }
+
+    /**
+     * @return the capacity of all buffers that are currently borrowed
+     */
+    public long getBytesInUse() {
+        return this.bytesInUse.get();
+    }
+
+    /**
+     * @return the size of all slabs that this arena has allocated
+     */
+    public long getBytesReserved() {
+        return this.bytesReserved.get();
+    }
+
+    @Nullable
+    private SizeClass sizeClassOf(final int capacity) {
+        for (final SizeClass sizeClass : this.sizeClasses) {
+            if (capacity <= sizeClass.size) {
+                return sizeClass;
+            }
+        }
+        return null;
+    }
+
+    private class SizeClass {
+        private final int size;
+        private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+        private SizeClass(final int size) {
+            this.size = size;
+        }
+
+        private synchronized ByteBuffer borrow() {
+            if (this.free.isEmpty()) {
+                this.allocateSlab();
+            }
+            final ByteBuffer buffer = this.free.pop();
+            ((Buffer) buffer).clear();
+            return buffer;
+        }
+
+        private synchronized void release(final ByteBuffer buffer) {
+            this.free.push(buffer);
+        }
+
+        private void allocateSlab() {
+            final ByteBuffer slab = ByteBuffer.allocate(SLAB_SIZE);
+            for (int offset = 0; offset + this.size <= SLAB_SIZE; offset += this.size) {
+                ((Buffer) slab).limit(offset + this.size).position(offset);
+                this.free.push(slab.slice());
+            }
+            final long reserved = PacketBufferArena.this.bytesReserved.addAndGet(SLAB_SIZE);
+            log.debug("Allocated a slab of {} byte packet buffers, {} bytes reserved in total", this.size, reserved);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * The {@link ForkJoinPool} that packets are prepared on ahead of the send system, shared by all connections and sized
+ * to the available cores.
+ */
+final class PacketProcessingPool {
+
+    private static final Logger log = LoggerFactory.getLogger(PacketProcessingPool.class);
+
+    private PacketProcessingPool() {
+    }
+
+    static ForkJoinPool get() {
+        return PoolHolder.POOL;
+    }
+
+    private static class PoolHolder {
+        private static final ForkJoinPool POOL = new ForkJoinPool(
+                Runtime.getRuntime().availableProcessors(),
+                pool -> {
+                    final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("magma-packet-processing-" + thread.getPoolIndex());
+                    return thread;
+                },
+                (thread, e) -> log.error("Uncaught exception in packet processing pool", e),
+                true
+        );
+    }
+}
@@ -16,27 +16,28 @@
 
 package space.npstr.magma.impl.processing;
 
-import com.iwebpp.crypto.TweetNaclFast;
 import edu.umd.cs.findbugs.annotations.Nullable;
-import net.dv8tion.jda.api.audio.AudioPacket;
 import net.dv8tion.jda.api.audio.AudioSendHandler;
-import net.dv8tion.jda.api.audio.factory.IPacketProvider;
 import net.dv8tion.jda.api.audio.hooks.ConnectionStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import space.npstr.magma.api.ZeroCopyPacketProvider;
 import space.npstr.magma.impl.EncryptionMode;
 import space.npstr.magma.impl.connections.AudioConnection;
+import space.npstr.magma.impl.crypto.CipherContext;
 
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.function.LongSupplier;
 
 /**
  * Created by napster on 23.06.18.
  */
-public class PacketProvider implements IPacketProvider {
+public class PacketProvider implements ZeroCopyPacketProvider {
 
     private static final Logger log = LoggerFactory.getLogger(PacketProvider.class);
     private static final String INFORMATION_NOT_AVAILABLE = "This information is not available";
@@ -45,19 +46,55 @@ public class PacketProvider implements IPacketProvider {
 
     private final AudioConnection audioConnection;
     private final LongSupplier nonceSupplier;
-    private ByteBuffer packetBuffer = ByteBuffer.allocate(512); //packets usually take up about 400-500 bytes
-    private final byte[] nonceBuffer = new byte[TweetNaclFast.SecretBox.nonceLength];
+    private final RtpPacketWriter packetWriter = new RtpPacketWriter();
+    @Nullable
+    private final OpusRepacketizer repacketizer;
+    @Nullable
+    private final OpusSilenceDetector silenceDetector;
+    private boolean shutdown = false;
 
     private char seq = 0;           //Sequence of audio packets. Used to determine the order of the packets.
     private int timestamp = 0;      //Used to sync up our packets within the same timeframe of other people talking.
 
+    // header fields of the frame returned by the last call to nextFrame
+    private char frameSeq = 0;
+    private int frameTimestamp = 0;
+    private int frameSsrc = 0;
+
     // opus interpolation handling
     // https://discordapp.com/developers/docs/topics/voice-connections#voice-data-interpolation
     private int sendSilentFrames = EMPTY_FRAMES_COUNT;
+    // whether the last call to nextFrame held back a silent frame
+    private boolean suppressingSilence = false;
+    // whether the timestamp jumped over skipped frames since the last call to nextCombinedPayload
+    private boolean timestampJumped = false;
+
+    // sequence of the packets that combine several frames
+    private char packetSeq = 0;
+
+    // header fields of the packet whose audio was returned by the last call to nextPayload
+    private char payloadSeq = 0;
+    private int payloadTimestamp = 0;
+    private int payloadSsrc = 0;
 
     public PacketProvider(final AudioConnection audioConnection, final LongSupplier nonceSupplier) {
+        this(audioConnection, nonceSupplier, 1, 0);
+    }
+
+    /**
+     * @param framesPerPacket
+     *         how many 20 ms frames of the send handler to combine into one packet. Frames are still pulled once per
+     *         call, and a packet is returned once enough of them have been collected.
+     * @param silenceSuppressionFrames
+     *         after how many silent frames in a row to stop sending until the send handler provides audio again, or 0
+     *         to send all frames
+     */
+    public PacketProvider(final AudioConnection audioConnection, final LongSupplier nonceSupplier,
+                          final int framesPerPacket, final int silenceSuppressionFrames) {
         this.audioConnection = audioConnection;
         this.nonceSupplier = nonceSupplier;
+        this.repacketizer = framesPerPacket > 1 ? new OpusRepacketizer(framesPerPacket) : null;
+        this.silenceDetector = silenceSuppressionFrames > 0 ? new OpusSilenceDetector(silenceSuppressionFrames) : null;
     }
 
     @Override
@@ -107,66 +144,269 @@ public class PacketProvider implements IPacketProvider {
 
     @Nullable
     @Override
-    public ByteBuffer getNextPacketRaw(final boolean changeTalking) {
+    public synchronized ByteBuffer getNextPacketRaw(final boolean changeTalking) {
+        if (this.shutdown) {
+            return null;
+        }
         try {
-            return this.buildNextPacket(changeTalking);
+            final ByteBuffer nextPacket = this.buildNextPacket(changeTalking);
+            if (nextPacket == null) {
+                this.packetWriter.release();
+            }
+            return nextPacket;
         } catch (final Exception e) {
             log.error("Failed to get next packet", e);
+            this.packetWriter.release();
             return null;
         }
     }
 
+    /**
+     * @return true if this provider supports {@link #skipFrames(int)}
+     */
+    public boolean canSkipFrames() {
+        return true;
+    }
+
+    /**
+     * Jump the rtp timestamp of the following frames over frames that the send system did not send in time, so the
+     * clients play a gap instead of falling behind. Frames that were pulled from the send handler already, like the
+     * pending ones of a combined packet, keep their timestamps.
+     *
+     * @throws UnsupportedOperationException
+     *         if the provider stamps its packets ahead of time, see {@link #canSkipFrames()}
+     */
+    public synchronized void skipFrames(final int frames) {
+        this.timestamp += frames * AudioConnection.OPUS_FRAME_SIZE;
+        this.timestampJumped = true;
+    }
+
+    /**
+     * Return the packet buffers to the arena after the send system has been shut down. No packets are provided after
+     * this has been called.
+     */
+    public synchronized void shutdown() {
+        this.shutdown = true;
+        this.packetWriter.release();
+    }
+
+    @Override
+    public synchronized int writeNextPacket(final ByteBuffer target, final boolean changeTalking) {
+        if (this.shutdown) {
+            return 0;
+        }
+        if (!target.hasArray()) {
+            // the crypto works on arrays, so a packet for a direct buffer is sealed into a buffer of ours first
+            return copyPacket(this.getNextPacketRaw(changeTalking), target);
+        }
+
+        final int length;
+        try {
+            final EncryptionMode encryptionMode = this.audioConnection.getEncryptionMode();
+            final CipherContext cipherContext = this.audioConnection.getCipherContext();
+            final ByteBuffer payload = this.nextPayload(changeTalking, encryptionMode, cipherContext);
+            if (payload == null || encryptionMode == null || cipherContext == null) {
+                return 0;
+            }
+            if (target.remaining() < RtpPacketWriter.maxPacketLength(payload.remaining())) {
+                throw new BufferOverflowException();
+            }
+            length = RtpPacketWriter.write(target.array(), target.arrayOffset() + target.position(),
+                    this.payloadSeq, this.payloadTimestamp, this.payloadSsrc, payload, encryptionMode, cipherContext,
+                    this.nonceSupplier);
+        } catch (final BufferOverflowException e) {
+            throw e;
+        } catch (final Exception e) {
+            log.error("Failed to write next packet", e);
+            return 0;
+        } finally {
+            this.packetWriter.release();
+        }
+        ((Buffer) target).position(target.position() + length);
+        return length;
+    }
+
+    /**
+     * Add the next packet to a batch of the packets of many connections, which seals it together with the others,
+     * instead of sealing it right away.
+     *
+     * @return the index of the packet in the batch, or -1 if there is nothing to send
+     */
+    public synchronized int addNextPacket(final PacketBatch batch, final boolean changeTalking) {
+        if (this.shutdown) {
+            return -1;
+        }
+        try {
+            final EncryptionMode encryptionMode = this.audioConnection.getEncryptionMode();
+            final CipherContext cipherContext = this.audioConnection.getCipherContext();
+            final ByteBuffer payload = this.nextPayload(changeTalking, encryptionMode, cipherContext);
+            if (payload == null || encryptionMode == null || cipherContext == null) {
+                return -1;
+            }
+            // the batch copies the payload, which may be overwritten by the next frame before the batch is sealed
+            return batch.add(this.payloadSeq, this.payloadTimestamp, this.payloadSsrc, payload, encryptionMode,
+                    cipherContext, this.nonceSupplier);
+        } catch (final Exception e) {
+            log.error("Failed to add next packet", e);
+            return -1;
+        } finally {
+            this.packetWriter.release();
+        }
+    }
+
+    /**
+     * Copy a packet into the target buffer, for {@link #writeNextPacket} of providers whose packets are ready before
+     * they are asked for.
+     *
+     * @return the length of the packet, or 0 if there is none
+     */
+    static int copyPacket(@Nullable final ByteBuffer packet, final ByteBuffer target) {
+        if (packet == null) {
+            return 0;
+        }
+        final int length = packet.remaining();
+        final int position = packet.position();
+        target.put(packet);
+        ((Buffer) packet).position(position);
+        return length;
+    }
+
     @Nullable
-    @SuppressWarnings("squid:S3776")
     private ByteBuffer buildNextPacket(final boolean changeTalking) {
-
         final EncryptionMode encryptionMode = this.audioConnection.getEncryptionMode();
-        final byte[] secretKey = this.audioConnection.getSecretKey();
+        final CipherContext cipherContext = this.audioConnection.getCipherContext();
+        final ByteBuffer payload = this.nextPayload(changeTalking, encryptionMode, cipherContext);
+        if (payload == null || encryptionMode == null || cipherContext == null) {
+            return null;
+        }
+
+        return this.packetWriter.write(this.payloadSeq, this.payloadTimestamp, this.payloadSsrc, payload,
+                encryptionMode, cipherContext, this.nonceSupplier);
+    }
+
+    /**
+     * Pull the opus audio of the next packet, and fix the sequence, timestamp and ssrc of the packet, which are kept
+     * until the next call.
+     *
+     * @return the audio of the next packet, or null if there is nothing to send
+     */
+    @Nullable
+    private ByteBuffer nextPayload(final boolean changeTalking, @Nullable final EncryptionMode encryptionMode,
+                                   @Nullable final CipherContext cipherContext) {
+        if (this.repacketizer != null) {
+            return this.nextCombinedPayload(this.repacketizer, changeTalking, encryptionMode, cipherContext);
+        }
+        final ByteBuffer nextFrame = this.nextFrame(changeTalking, encryptionMode, cipherContext);
+        this.payloadSeq = this.frameSeq;
+        this.payloadTimestamp = this.frameTimestamp;
+        this.payloadSsrc = this.frameSsrc;
+        return nextFrame;
+    }
+
+    /**
+     * Pull one frame and add it to the pending ones. A packet is built once enough frames have been collected, when
+     * the next frame can not be combined with them, or when the send handler runs out of frames. The timestamp of the
+     * packet is the one of its first frame, so it advances by the duration of all frames of the previous packet.
+     */
+    @Nullable
+    private ByteBuffer nextCombinedPayload(final OpusRepacketizer repacketizer, final boolean changeTalking,
+                                           @Nullable final EncryptionMode encryptionMode,
+                                           @Nullable final CipherContext cipherContext) {
+        // stop talking only once the collected frames have been sent
+        final ByteBuffer nextFrame = this.nextFrame(changeTalking && repacketizer.isEmpty(),
+                encryptionMode, cipherContext);
+        // a frame after a jump of the timestamp does not follow the pending ones
+        final boolean jumped = this.timestampJumped;
+        this.timestampJumped = false;
+        if (encryptionMode == null || cipherContext == null) {
+            repacketizer.clear();
+            return null;
+        }
+
+        int timestamp = repacketizer.getTimestamp();
+        int ssrc = repacketizer.getSsrc();
+        ByteBuffer payload = null;
+        if (nextFrame == null) {
+            if (!repacketizer.isEmpty()) {
+                payload = repacketizer.build();
+            }
+        } else {
+            if (!repacketizer.canAdd(nextFrame) || (jumped && !repacketizer.isEmpty())) {
+                payload = repacketizer.build();
+            }
+            repacketizer.add(nextFrame, this.frameTimestamp, this.frameSsrc);
+            if (payload == null && repacketizer.isFull()) {
+                timestamp = repacketizer.getTimestamp();
+                ssrc = repacketizer.getSsrc();
+                payload = repacketizer.build();
+            }
+        }
+        if (payload == null) {
+            return null;
+        }
+
+        this.payloadSeq = this.packetSeq;
+        this.payloadTimestamp = timestamp;
+        this.payloadSsrc = ssrc;
+        this.packetSeq++;
+        return payload;
+    }
+
+    /**
+     * Pull the next frame from the send handler, and fix the sequence, timestamp and ssrc of its packet, which can be
+     * read with {@link #getFrameSeq()}, {@link #getFrameTimestamp()} and {@link #getFrameSsrc()} until the next call.
+     * The returned audio is owned by the send handler, and may be overwritten by its next frame.
+     *
+     * @return the audio of the next packet to be encrypted and sent, or null if there is nothing to send
+     */
+    @Nullable
+    @SuppressWarnings("squid:S3776")
+    ByteBuffer nextFrame(final boolean changeTalking, @Nullable final EncryptionMode encryptionMode,
+                         @Nullable final CipherContext cipherContext) {
+
         final Integer ssrc = this.audioConnection.getSsrc();
         final AudioSendHandler sendHandler = this.audioConnection.getSendHandler();
+        this.suppressingSilence = false;
 
         //preconditions fulfilled?
         if (encryptionMode == null
-                || secretKey == null
+                || cipherContext == null
                 || ssrc == null
                 || sendHandler == null
                 || !sendHandler.canProvide()) {
-            if (this.audioConnection.isSpeaking() && changeTalking) {
-                this.audioConnection.updateSpeaking(false);
-            }
-            this.sendSilentFrames = EMPTY_FRAMES_COUNT;
+            this.onNothingToSend(changeTalking);
             return null;
         }
 
-        final AudioPacket nextAudioPacket;
+        final ByteBuffer nextFrame;
         if (this.sendSilentFrames <= 0) {
             //audio data provided?
             final ByteBuffer rawAudio = sendHandler.provide20MsAudio();
             if (rawAudio == null || !rawAudio.hasRemaining()) {
+                this.onNothingToSend(changeTalking);
+                return null;
+            }
+            // the silent frames of the run that were sent already are the ones opus needs for interpolation, so no
+            // more of them are queued here, and sending resumes right away with the next frame that is not silent
+            if (this.silenceDetector != null && this.silenceDetector.suppress(rawAudio)) {
+                this.suppressingSilence = true;
                 if (this.audioConnection.isSpeaking() && changeTalking) {
                     this.audioConnection.updateSpeaking(false);
                 }
-                this.sendSilentFrames = EMPTY_FRAMES_COUNT;
-                return null;
-            }
-            if (!rawAudio.hasArray()) {
-                // we can't use the boxer without an array so encryption would not work
-                log.error("AudioSendHandler provided ByteBuffer without a backing array! This is unsupported.");
                 return null;
             }
-            nextAudioPacket = new AudioPacket(this.seq, this.timestamp, ssrc, rawAudio);
+            nextFrame = rawAudio;
         } else {
-            nextAudioPacket = new AudioPacket(this.seq, this.timestamp, ssrc, SILENCE_BYTES);
+            nextFrame = SILENCE_BYTES;
             this.sendSilentFrames--;
             log.trace("Sending silent frame, silent frames left {}", this.sendSilentFrames);
         }
 
-        final ByteBuffer nextPacket = this.packetBuffer = PacketUtil.encryptPacket(nextAudioPacket, this.packetBuffer,
-                encryptionMode, secretKey, this.nonceSupplier, this.nonceBuffer);
+        this.frameSeq = this.seq;
+        this.frameTimestamp = this.timestamp;
+        this.frameSsrc = ssrc;
 
-        if (!this.audioConnection.isSpeaking()) {
-            this.audioConnection.updateSpeaking(true);
-        }
+        this.onFramePulled();
 
         if (this.seq + 1 > Character.MAX_VALUE) {
             this.seq = 0;
@@ -176,7 +416,46 @@ public class PacketProvider implements IPacketProvider {
 
         this.timestamp += AudioConnection.OPUS_FRAME_SIZE;
 
-        return nextPacket;
+        return nextFrame;
+    }
+
+    /**
+     * Called by {@link #nextFrame} when there is nothing to send. Stops speaking if requested, and queues the silent
+     * frames that are sent before the audio resumes.
+     */
+    void onNothingToSend(final boolean changeTalking) {
+        if (this.audioConnection.isSpeaking() && changeTalking) {
+            this.audioConnection.updateSpeaking(false);
+        }
+        this.sendSilentFrames = EMPTY_FRAMES_COUNT;
+    }
+
+    /**
+     * Called by {@link #nextFrame} when it pulled a frame to send. Starts speaking.
+     */
+    void onFramePulled() {
+        if (!this.audioConnection.isSpeaking()) {
+            this.audioConnection.updateSpeaking(true);
+        }
+    }
+
+    /**
+     * @return true if the last call to {@link #nextFrame} returned nothing because the send handler provides silence
+     */
+    boolean isSuppressingSilence() {
+        return this.suppressingSilence;
+    }
+
+    char getFrameSeq() {
+        return this.frameSeq;
+    }
+
+    int getFrameTimestamp() {
+        return this.frameTimestamp;
+    }
+
+    int getFrameSsrc() {
+        return this.frameSsrc;
     }
 
     private DatagramPacket asDatagramPacket(final ByteBuffer buffer, final InetSocketAddress targetAddress) {
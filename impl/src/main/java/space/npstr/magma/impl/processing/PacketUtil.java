@@ -16,11 +16,13 @@
 
 package space.npstr.magma.impl.processing;
 
-import com.iwebpp.crypto.TweetNaclFast;
 import net.dv8tion.jda.api.audio.AudioPacket;
 import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.crypto.CipherContext;
+import space.npstr.magma.impl.crypto.XSalsa20Poly1305;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.LongSupplier;
 
@@ -34,27 +36,36 @@ public class PacketUtil {
 
     //this may reallocate the passed ByteBuffer if it is too small
     public static ByteBuffer encryptPacket(final AudioPacket audioPacket, final ByteBuffer packetBuffer,
-                                           final EncryptionMode encryptionMode, final byte[] secretKey,
-                                           final LongSupplier nonceSupplier, final byte[] nonceBuffer) {
+                                           final EncryptionMode encryptionMode, final CipherContext cipherContext,
+                                           final LongSupplier nonceSupplier) {
+        return RtpPacketWriter.write(packetBuffer, audioPacket.getSequence(), audioPacket.getTimestamp(),
+                audioPacket.getSSRC(), audioPacket.getEncodedAudio(), encryptionMode, cipherContext, nonceSupplier);
+    }
 
-        final int nonceLength;
+    /**
+     * Write the nonce of one of the xsalsa20 encryption modes for the packet into the 24 byte nonce buffer.
+     *
+     * @return how many bytes of the nonce are appended to the packet
+     */
+    public static int writeXSalsa20Nonce(final AudioPacket audioPacket, final EncryptionMode encryptionMode,
+                                         final byte[] nonce, final LongSupplier nonceSupplier) {
         switch (encryptionMode) {
             case XSALSA20_POLY1305:
-                nonceLength = 0;
-                break;
+                //Xsalsa20's Nonce is 24 bytes long, however RTP (and consequently Discord)'s nonce is a different length
+                // so we copy the rtp header into a 24 byte array that leaves the extra bytes as nulls.
+                Arrays.fill(nonce, (byte) 0);
+                audioPacket.getNoncePadded(nonce);
+                return 0;
             case XSALSA20_POLY1305_LITE:
-                writeNonce(nonceSupplier.getAsLong(), nonceBuffer);
-                nonceLength = 4;
-                break;
+                Arrays.fill(nonce, (byte) 0);
+                writeNonce(nonceSupplier.getAsLong(), nonce);
+                return 4;
             case XSALSA20_POLY1305_SUFFIX:
-                ThreadLocalRandom.current().nextBytes(nonceBuffer);
-                nonceLength = TweetNaclFast.SecretBox.nonceLength;
-                break;
+                ThreadLocalRandom.current().nextBytes(nonce);
+                return XSalsa20Poly1305.NONCE_LENGTH;
             default:
-                throw new IllegalStateException("Encryption mode [" + encryptionMode + "] is not supported!");
+                throw new IllegalArgumentException("Encryption mode [" + encryptionMode + "] is not an xsalsa20 mode");
         }
-
-        return audioPacket.asEncryptedPacket(packetBuffer, secretKey, nonceBuffer, nonceLength);
     }
 
     //@formatter:off
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import space.npstr.magma.api.Options;
+import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.connections.AudioConnection;
+import space.npstr.magma.impl.crypto.CipherContext;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link PacketProvider} that pulls frames from the send handler a few ticks ahead, and encrypts them on a shared
+ * pool sized to the available cores. The send system is handed packets that were encrypted while
+ * earlier packets were being sent, so the cost of the crypto is taken off the moment a packet is due.
+ * <p>
+ * The sequence, timestamp and nonce of a packet are fixed when its frame is pulled. The packets of a connection are
+ * encrypted one after another, as they share the {@link CipherContext}, while the packets of different connections
+ * are encrypted in parallel.
+ */
+public class PreEncryptingPacketProvider extends PacketProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(PreEncryptingPacketProvider.class);
+
+    private final AudioConnection audioConnection;
+    private final LongSupplier nonceSupplier;
+    private final int depth;
+    private final PacketBufferArena arena = PacketBufferArena.shared();
+    // packets in the order they will be sent
+    private final ArrayDeque<Slot> pending;
+    private final ArrayDeque<Slot> free;
+    // the slot of the packet returned by the last call, which the send system may still be reading
+    @Nullable
+    private Slot sending = null;
+    // last encryption task of this connection, the next one runs after it
+    private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+    private boolean shutdown = false;
+
+    /**
+     * @param depth
+     *         how many packets to keep pulled and encrypting, including the one that is sent next. At least
+     *         {@link Options#MIN_PRE_ENCRYPTION_DEPTH}, as a single one would be encrypted right when it is due, on
+     *         another thread.
+     * @param silenceSuppressionFrames
+     *         see {@link PacketProvider#PacketProvider(AudioConnection, LongSupplier, int, int)}
+     */
+    public PreEncryptingPacketProvider(final AudioConnection audioConnection, final LongSupplier nonceSupplier,
+                                       final int depth, final int silenceSuppressionFrames) {
+        super(audioConnection, nonceSupplier, 1, silenceSuppressionFrames);
+        if (depth < Options.MIN_PRE_ENCRYPTION_DEPTH) {
+            throw new IllegalArgumentException("Pre-encryption depth must be at least "
+                    + Options.MIN_PRE_ENCRYPTION_DEPTH + ", got " + depth);
+        }
+        this.audioConnection = audioConnection;
+        this.nonceSupplier = nonceSupplier;
+        this.depth = depth;
+        this.pending = new ArrayDeque<>(depth);
+        this.free = new ArrayDeque<>(depth + 1);
+    }
+
+    @Nullable
+    @Override
+    public synchronized ByteBuffer getNextPacketRaw(final boolean changeTalking) {
+        this.recycleSending();
+        if (this.shutdown) {
+            return null;
+        }
+
+        try {
+            this.fill(changeTalking);
+        } catch (final Exception e) {
+            log.error("Failed to pull next packets", e);
+        }
+
+        final Slot next = this.pending.poll();
+        if (next == null) {
+            return null;
+        }
+        this.sending = next;
+        try {
+            return next.encrypted.join();
+        } catch (final Exception e) {
+            log.error("Failed to get next packet", e);
+            return null;
+        }
+    }
+
+    // the packets are encrypted ahead of time into buffers of the arena, so they can only be copied over, under the lock
+    // that keeps shutdown from returning the buffer to the arena in the meantime
+    @Override
+    public synchronized int writeNextPacket(final ByteBuffer target, final boolean changeTalking) {
+        return copyPacket(this.getNextPacketRaw(changeTalking), target);
+    }
+
+    @Override
+    public synchronized int addNextPacket(final PacketBatch batch, final boolean changeTalking) {
+        final ByteBuffer packet = this.getNextPacketRaw(changeTalking);
+        return packet == null ? -1 : batch.addSealed(packet);
+    }
+
+    /**
+     * Skipping would only jump the timestamp after the pending packets, which were stamped already.
+     */
+    @Override
+    public boolean canSkipFrames() {
+        return false;
+    }
+
+    @Override
+    public void skipFrames(final int frames) {
+        throw new UnsupportedOperationException("Packets are stamped ahead of time, frames can not be skipped");
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        super.shutdown();
+        this.shutdown = true;
+        this.recycleSending();
+        // packets that are still being encrypted return their buffers once they are done
+        for (final Slot slot : this.pending) {
+            slot.encrypted.whenComplete((packet, error) -> slot.release(this.arena));
+        }
+        this.pending.clear();
+    }
+
+    private void recycleSending() {
+        if (this.sending != null) {
+            this.sending.release(this.arena);
+            this.free.add(this.sending);
+            this.sending = null;
+        }
+    }
+
+    private void fill(final boolean changeTalking) {
+        while (this.pending.size() < this.depth) {
+            final EncryptionMode encryptionMode = this.audioConnection.getEncryptionMode();
+            final CipherContext cipherContext = this.audioConnection.getCipherContext();
+            // stop talking only once the packets that were pulled ahead have been sent
+            final ByteBuffer frame = this.nextFrame(changeTalking && this.pending.isEmpty(),
+                    encryptionMode, cipherContext);
+            if (frame == null || encryptionMode == null || cipherContext == null) {
+                return;
+            }
+
+            final Slot slot = this.free.isEmpty() ? new Slot() : this.free.poll();
+            // the send handler may reuse the buffer of its frame, so the audio is copied before it is encrypted later
+            final ByteBuffer audio = slot.copyAudio(frame, this.arena);
+            final char seq = this.getFrameSeq();
+            final int timestamp = this.getFrameTimestamp();
+            final int ssrc = this.getFrameSsrc();
+            // the other modes do not use the counter, so they do not take a value from it
+            final long nonce = encryptionMode.usesNonceCounter() ? this.nonceSupplier.getAsLong() : 0;
+            final CompletableFuture<ByteBuffer> encrypted = this.tail.handleAsync((ignored, previousError) -> {
+                final ByteBuffer packetBuffer = this.arena.borrow(RtpPacketWriter.maxPacketLength(audio.remaining()));
+                slot.packetBuffer = packetBuffer;
+                return RtpPacketWriter.write(packetBuffer, seq, timestamp, ssrc, audio,
+                        encryptionMode, cipherContext, () -> nonce);
+            }, PacketProcessingPool.get());
+            slot.encrypted = encrypted;
+            this.tail = encrypted;
+            this.pending.add(slot);
+        }
+    }
+
+    // buffers are borrowed from the arena while the slot is pending or being sent
+    private static class Slot {
+        @Nullable
+        private ByteBuffer audio;
+        @Nullable
+        private volatile ByteBuffer packetBuffer;
+        private CompletableFuture<ByteBuffer> encrypted = new CompletableFuture<>();
+
+        private ByteBuffer copyAudio(final ByteBuffer source, final PacketBufferArena arena) {
+            final ByteBuffer copy = arena.borrow(source.remaining());
+            copy.put(source.duplicate());
+            ((Buffer) copy).flip();
+            this.audio = copy;
+            return copy;
+        }
+
+        private void release(final PacketBufferArena arena) {
+            final ByteBuffer audioBuffer = this.audio;
+            if (audioBuffer != null) {
+                arena.release(audioBuffer);
+                this.audio = null;
+            }
+            final ByteBuffer packet = this.packetBuffer;
+            if (packet != null) {
+                arena.release(packet);
+                this.packetBuffer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.dv8tion.jda.api.audio.AudioPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.crypto.AeadCipher;
+import space.npstr.magma.impl.crypto.CipherContext;
+import space.npstr.magma.impl.crypto.LiteKeyStreamRing;
+import space.npstr.magma.impl.crypto.PrecomputedKeyStream;
+import space.npstr.magma.impl.crypto.XSalsa20Poly1305;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+import static net.dv8tion.jda.api.audio.AudioPacket.RTP_HEADER_BYTE_LENGTH;
+
+/**
+ * Writes encrypted rtp packets in a single pass: the header, the sealed audio and the nonce suffix go straight into
+ * the packet buffer, and the header based nonce of the xsalsa20_poly1305 mode is taken from the header bytes that were
+ * just written. No {@link AudioPacket} is needed.
+ * <p>
+ * Each connection keeps its own writer, which borrows the buffer of each packet from a {@link PacketBufferArena} and
+ * returns it when the next packet is written, or when the writer is {@link #release()}d.
+ */
+@NotThreadSafe
+public class RtpPacketWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(RtpPacketWriter.class);
+
+    // largest authentication tag and nonce suffix of all encryption modes
+    private static final int MAX_OVERHEAD_LENGTH = 16;
+    private static final int MAX_NONCE_SUFFIX_LENGTH = XSalsa20Poly1305.NONCE_LENGTH;
+
+    private final PacketBufferArena arena;
+    // the last written packet, which the send system may still be reading
+    @Nullable
+    private ByteBuffer packet;
+
+    public RtpPacketWriter() {
+        this(PacketBufferArena.shared());
+    }
+
+    public RtpPacketWriter(final PacketBufferArena arena) {
+        this.arena = arena;
+    }
+
+    /**
+     * Write the packet into a buffer borrowed from the arena, and return the buffer of the previous packet.
+     *
+     * @return the packet, ready to be sent until the next call of this method or {@link #release()}
+     */
+    public ByteBuffer write(final char seq, final int timestamp, final int ssrc, final ByteBuffer audio,
+                            final EncryptionMode encryptionMode, final CipherContext cipherContext,
+                            final LongSupplier nonceSupplier) {
+        this.release();
+        final ByteBuffer packetBuffer = this.arena.borrow(maxPacketLength(audio.remaining()));
+        this.packet = packetBuffer;
+        return write(packetBuffer, seq, timestamp, ssrc, audio, encryptionMode, cipherContext, nonceSupplier);
+    }
+
+    /**
+     * Return the buffer of the last written packet to the arena, for example when there is nothing to send.
+     */
+    public void release() {
+        if (this.packet != null) {
+            this.arena.release(this.packet);
+            this.packet = null;
+        }
+    }
+
+    /**
+     * @return the largest packet that audio of the provided length is written to, whatever the encryption mode
+     */
+    public static int maxPacketLength(final int audioLength) {
+        return RTP_HEADER_BYTE_LENGTH + audioLength + MAX_OVERHEAD_LENGTH + MAX_NONCE_SUFFIX_LENGTH;
+    }
+
+    /**
+     * Write the packet into the passed buffer, which is reallocated if it has no backing array or is too small. The
+     * remaining bytes of the audio buffer are encrypted, its position is left untouched.
+     *
+     * @return the packet
+     */
+    public static ByteBuffer write(final ByteBuffer packetBuffer, final char seq, final int timestamp, final int ssrc,
+                                   final ByteBuffer audio, final EncryptionMode encryptionMode,
+                                   final CipherContext cipherContext, final LongSupplier nonceSupplier) {
+        ByteBuffer output = packetBuffer;
+        final int capacity = maxPacketLength(audio.remaining());
+        if (capacity > output.capacity() || !output.hasArray()) {
+            log.trace("Allocating byte buffer with capacity {}", capacity);
+            output = ByteBuffer.allocate(capacity);
+        }
+        final int length = write(output.array(), output.arrayOffset(), seq, timestamp, ssrc, audio, encryptionMode,
+                cipherContext, nonceSupplier);
+        ((Buffer) output).clear();
+        ((Buffer) output).limit(length);
+        return output;
+    }
+
+    /**
+     * Write the packet into the passed array, which needs to have room for {@link #maxPacketLength(int)} bytes from
+     * the offset on. The remaining bytes of the audio buffer are encrypted, its position is left untouched.
+     *
+     * @return the length of the packet
+     */
+    public static int write(final byte[] packet, final int headerOffset, final char seq, final int timestamp,
+                            final int ssrc, final ByteBuffer audio, final EncryptionMode encryptionMode,
+                            final CipherContext cipherContext, final LongSupplier nonceSupplier) {
+        final int payloadOffset = headerOffset + RTP_HEADER_BYTE_LENGTH;
+        writeHeader(packet, headerOffset, seq, timestamp, ssrc);
+
+        final byte[] nonce;
+        final int nonceLength;
+        final int sealedLength;
+        switch (encryptionMode) {
+            case XSALSA20_POLY1305:
+            case XSALSA20_POLY1305_SUFFIX:
+                nonce = cipherContext.getNonceBuffer();
+                nonceLength = writeXSalsa20Nonce(packet, headerOffset, encryptionMode, nonce, nonceSupplier);
+                sealedLength = cipherContext.getSecretBox().seal(audio, nonce, packet, payloadOffset);
+                break;
+            case XSALSA20_POLY1305_LITE:
+                final long liteNonce = nonceSupplier.getAsLong();
+                nonce = cipherContext.getNonceBuffer();
+                Arrays.fill(nonce, (byte) 0);
+                PacketUtil.writeNonce(liteNonce, nonce);
+                nonceLength = 4;
+                final LiteKeyStreamRing keyStreamRing = cipherContext.getLiteKeyStreamRing();
+                final PrecomputedKeyStream keyStream = cipherContext.getPrecomputedKeyStream();
+                sealedLength = keyStreamRing != null && keyStreamRing.take(liteNonce, keyStream)
+                        ? cipherContext.getSecretBox().seal(keyStream, audio, nonce, packet, payloadOffset)
+                        : cipherContext.getSecretBox().seal(audio, nonce, packet, payloadOffset);
+                break;
+            case AEAD_AES256_GCM_RTPSIZE:
+                nonce = cipherContext.getAesGcmNonceBuffer();
+                nonceLength = 4;
+                sealedLength = sealAead(cipherContext.getAesGcmCipher(), nonce, nonceSupplier, packet, headerOffset, audio);
+                break;
+            case AEAD_XCHACHA20_POLY1305_RTPSIZE:
+                nonce = cipherContext.getXChaChaNonceBuffer();
+                nonceLength = 4;
+                sealedLength = sealAead(cipherContext.getXChaChaCipher(), nonce, nonceSupplier, packet, headerOffset, audio);
+                break;
+            default:
+                throw new IllegalStateException("Encryption mode [" + encryptionMode + "] is not supported!");
+        }
+        if (sealedLength < 0) {
+            throw new IllegalStateException("Failed to encrypt audio packet");
+        }
+
+        System.arraycopy(nonce, 0, packet, payloadOffset + sealedLength, nonceLength);
+        return RTP_HEADER_BYTE_LENGTH + sealedLength + nonceLength;
+    }
+
+    /**
+     * Write the nonce of a packet of one of the xsalsa20 modes, whose header was written to the array already.
+     *
+     * @return how many bytes of the nonce are appended to the packet
+     */
+    static int writeXSalsa20Nonce(final byte[] packet, final int headerOffset, final EncryptionMode encryptionMode,
+                                  final byte[] nonce, final LongSupplier nonceSupplier) {
+        switch (encryptionMode) {
+            case XSALSA20_POLY1305:
+                //the header is the nonce, padded with zeros to 24 bytes
+                System.arraycopy(packet, headerOffset, nonce, 0, RTP_HEADER_BYTE_LENGTH);
+                Arrays.fill(nonce, RTP_HEADER_BYTE_LENGTH, nonce.length, (byte) 0);
+                return 0;
+            case XSALSA20_POLY1305_LITE:
+                Arrays.fill(nonce, (byte) 0);
+                PacketUtil.writeNonce(nonceSupplier.getAsLong(), nonce);
+                return 4;
+            case XSALSA20_POLY1305_SUFFIX:
+                ThreadLocalRandom.current().nextBytes(nonce);
+                return XSalsa20Poly1305.NONCE_LENGTH;
+            default:
+                throw new IllegalArgumentException("Encryption mode [" + encryptionMode + "] is not an xsalsa20 mode");
+        }
+    }
+
+    //the rtp header is authenticated as associated data
+    private static int sealAead(final AeadCipher cipher, final byte[] nonce, final LongSupplier nonceSupplier,
+                                final byte[] packet, final int headerOffset, final ByteBuffer audio) {
+        PacketUtil.writeNonce(nonceSupplier.getAsLong(), nonce);
+        return cipher.seal(nonce, packet, headerOffset, RTP_HEADER_BYTE_LENGTH,
+                audio, packet, headerOffset + RTP_HEADER_BYTE_LENGTH);
+    }
+
+    //@formatter:off
+    static void writeHeader(final byte[] packet, final int offset, final char seq, final int timestamp, final int ssrc) {
+        packet[offset     ] = AudioPacket.RTP_VERSION_PAD_EXTEND;
+        packet[offset +  1] = AudioPacket.RTP_PAYLOAD_TYPE;
+        packet[offset +  2] = (byte) (seq >>> 8);
+        packet[offset +  3] = (byte)  seq;
+        packet[offset +  4] = (byte) (timestamp >>> 24);
+        packet[offset +  5] = (byte) (timestamp >>> 16);
+        packet[offset +  6] = (byte) (timestamp >>>  8);
+        packet[offset +  7] = (byte)  timestamp;
+        packet[offset +  8] = (byte) (ssrc >>> 24);
+        packet[offset +  9] = (byte) (ssrc >>> 16);
+        packet[offset + 10] = (byte) (ssrc >>>  8);
+        packet[offset + 11] = (byte)  ssrc;
+    }
+    //@formatter:on
+}
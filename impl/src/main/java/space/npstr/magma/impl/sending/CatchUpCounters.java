@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import space.npstr.magma.api.CatchUpPolicy;
+import space.npstr.magma.api.CatchUpStats;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how often the send clocks of a send factory fell behind, and what their {@link CatchUpPolicy} did about it.
+ */
+@ThreadSafe
+class CatchUpCounters implements CatchUpStats {
+
+    private final LongAdder bursts = new LongAdder();
+    private final LongAdder burstFrames = new LongAdder();
+    private final LongAdder skips = new LongAdder();
+    private final LongAdder skippedFrames = new LongAdder();
+    private final LongAdder stretches = new LongAdder();
+    private final LongAdder stretchedFrames = new LongAdder();
+
+    @Override
+    public long getBursts() {
+        return this.bursts.sum();
+    }
+
+    @Override
+    public long getBurstFrames() {
+        return this.burstFrames.sum();
+    }
+
+    @Override
+    public long getSkips() {
+        return this.skips.sum();
+    }
+
+    @Override
+    public long getSkippedFrames() {
+        return this.skippedFrames.sum();
+    }
+
+    @Override
+    public long getStretches() {
+        return this.stretches.sum();
+    }
+
+    @Override
+    public long getStretchedFrames() {
+        return this.stretchedFrames.sum();
+    }
+
+    void onBurst(final int frames) {
+        this.bursts.increment();
+        this.burstFrames.add(frames);
+    }
+
+    void onSkip(final int frames) {
+        this.skips.increment();
+        this.skippedFrames.add(frames);
+    }
+
+    void onStretch(final int frames) {
+        this.stretches.increment();
+        this.stretchedFrames.add(frames);
+    }
+
+    @Override
+    public String toString() {
+        return "CatchUpCounters{"
+                + "bursts=" + this.getBursts() + ", burstFrames=" + this.getBurstFrames()
+                + ", skips=" + this.getSkips() + ", skippedFrames=" + this.getSkippedFrames()
+                + ", stretches=" + this.getStretches() + ", stretchedFrames=" + this.getStretchedFrames()
+                + "}";
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.dv8tion.jda.api.audio.factory.IPacketProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import space.npstr.magma.api.CatchUpPolicy;
+import space.npstr.magma.api.ZeroCopyPacketProvider;
+import space.npstr.magma.impl.processing.PacketProvider;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Sends the packets of one connection through a {@link DatagramChannel}, for the send systems that are built into
+ * Magma. The packets are paced by a {@link SendClock}.
+ */
+@NotThreadSafe
+class ChannelPacketSender {
+
+    private static final Logger log = LoggerFactory.getLogger(ChannelPacketSender.class);
+
+    private final IPacketProvider packetProvider;
+    private final SendClock clock;
+    private boolean sentLastPacket = true;
+
+    ChannelPacketSender(final IPacketProvider packetProvider, final CatchUpPolicy catchUpPolicy,
+                        final CatchUpCounters catchUpStats) {
+        this.packetProvider = packetProvider;
+        this.clock = new SendClock(catchUpPolicy, canSkipFrames(packetProvider), catchUpStats);
+    }
+
+    /**
+     * Send the packets that are due according to the send clock of the connection, if any.
+     *
+     * @param sendBuffer
+     *         buffer to write the packets into, if the provider supports that
+     * @param now
+     *         the current {@link System#nanoTime()}
+     */
+    void sendDuePackets(final DatagramChannel channel, final ByteBuffer sendBuffer, final long now) throws IOException {
+        this.sendDuePackets(channel, sendBuffer, now, null);
+    }
+
+    /**
+     * Like {@link #sendDuePackets(DatagramChannel, ByteBuffer, long)}, with the packets of providers of Magma added to
+     * the batch of the slot instead, to be sealed and sent together with the packets of the other connections.
+     */
+    void sendDuePackets(final DatagramChannel channel, final ByteBuffer sendBuffer, final long now,
+                        @Nullable final SlotBatch batch) throws IOException {
+        final int due = this.clock.packetsDue(now);
+        if (due > 1 || this.clock.getSkippedFrames() > 0) {
+            onFellBehind(this.clock, this.packetProvider);
+        }
+        for (int i = 0; i < due; i++) {
+            this.sendNextPacket(channel, sendBuffer, batch);
+        }
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the next packet is due
+     */
+    long getNextDeadline() {
+        return this.clock.getNextDeadline();
+    }
+
+    /**
+     * @return true if the rtp timestamp of the packets of the provider can jump over skipped frames
+     */
+    static boolean canSkipFrames(final IPacketProvider packetProvider) {
+        return packetProvider instanceof PacketProvider && ((PacketProvider) packetProvider).canSkipFrames();
+    }
+
+    /**
+     * Let the packet provider know about skipped frames, and log how far behind the connection is.
+     */
+    static void onFellBehind(final SendClock clock, final IPacketProvider packetProvider) {
+        final int skippedFrames = clock.getSkippedFrames();
+        if (skippedFrames > 0) {
+            ((PacketProvider) packetProvider).skipFrames(skippedFrames);
+        }
+        log.debug("Send clock of {} fell behind, {} catching up, {}ms of drift so far", packetProvider.getIdentifier(),
+                clock.getPolicy(), clock.getAccumulatedDriftNanos() / 1_000_000);
+    }
+
+    /**
+     * Send a packet without moving its position.
+     */
+    static void send(final DatagramChannel channel, final ByteBuffer packet, final InetSocketAddress targetAddress)
+            throws IOException {
+        final int position = packet.position();
+        if (channel.send(packet, targetAddress) == 0) {
+            log.trace("Dropped packet to {}, the send buffer of the channel is full", targetAddress);
+        }
+        ((Buffer) packet).position(position);
+    }
+
+    private void sendNextPacket(final DatagramChannel channel, final ByteBuffer sendBuffer,
+                                @Nullable final SlotBatch batch) throws IOException {
+        final InetSocketAddress targetAddress = this.packetProvider.getSocketAddress();
+        if (targetAddress == null) {
+            return;
+        }
+        // like the send systems of JDA, allow speaking to be turned off once a tick went by without a packet
+        final boolean changeTalking = !this.sentLastPacket;
+        this.sentLastPacket = false;
+
+        if (batch != null && this.packetProvider instanceof PacketProvider) {
+            this.sentLastPacket = batch.add((PacketProvider) this.packetProvider, targetAddress, changeTalking);
+            return;
+        }
+
+        final ByteBuffer packet;
+        if (this.packetProvider instanceof ZeroCopyPacketProvider) {
+            ((Buffer) sendBuffer).clear();
+            if (((ZeroCopyPacketProvider) this.packetProvider).writeNextPacket(sendBuffer, changeTalking) <= 0) {
+                return;
+            }
+            ((Buffer) sendBuffer).flip();
+            packet = sendBuffer;
+        } else {
+            final ByteBuffer rawPacket = this.packetProvider.getNextPacketRaw(changeTalking);
+            if (rawPacket == null) {
+                return;
+            }
+            packet = rawPacket;
+        }
+
+        send(channel, packet, targetAddress);
+        this.sentLastPacket = true;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import net.dv8tion.jda.api.audio.factory.IAudioSendFactory;
+import net.dv8tion.jda.api.audio.factory.IAudioSendSystem;
+import net.dv8tion.jda.api.audio.factory.IPacketProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import space.npstr.magma.api.CatchUpPolicy;
+import space.npstr.magma.api.CatchUpStats;
+import space.npstr.magma.api.MagmaSendFactory;
+import space.npstr.magma.impl.processing.PacketProvider;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link IAudioSendFactory} on top of the native epoll transport of Netty, which comes with reactor-netty on linux.
+ * Like the {@link NioSendFactory}, one thread drives all connections, one slot of a {@link TimingWheel} per
+ * millisecond. The packets of a slot are sealed together in a {@link SlotBatch}, then all of them are written to one
+ * {@link EpollDatagramChannel} and flushed once, so Netty hands
+ * them to the kernel with a few {@code sendmmsg} calls instead of one {@code send} per packet. Connections that fall
+ * behind catch up according to the {@link CatchUpPolicy} of the factory.
+ * <p>
+ * UDP segmentation offload is not used: each packet still is a datagram of its own within the batch. The Netty that
+ * comes with reactor-netty has no {@code SegmentedDatagramPacket} yet, which would let the packets of a slot that go to
+ * the same voice server be grouped by length, and be handed to the kernel as one buffer each.
+ * <p>
+ * Check {@link #isAvailable()} before using it. Its thread and channel are opened when the first send system is
+ * started, and closed again once all send systems have been shut down.
+ */
+@ThreadSafe
+public class EpollSendFactory implements MagmaSendFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(EpollSendFactory.class);
+
+    private final TimingWheel<EpollSendSystem> wheel = new TimingWheel<>(NioSendFactory.WHEEL_SLOTS);
+    private final CatchUpPolicy catchUpPolicy;
+    private final CatchUpCounters catchUpStats = new CatchUpCounters();
+    private final Object lock = new Object();
+    @Nullable
+    private EpollEventLoopGroup eventLoopGroup = null;
+
+    /**
+     * Create a factory that stretches the streams of connections that fall behind, see {@link CatchUpPolicy#STRETCH}.
+     */
+    public EpollSendFactory() {
+        this(CatchUpPolicy.STRETCH);
+    }
+
+    public EpollSendFactory(final CatchUpPolicy catchUpPolicy) {
+        this.catchUpPolicy = catchUpPolicy;
+    }
+
+    /**
+     * @return true if the native epoll transport can be loaded on this machine
+     */
+    public static boolean isAvailable() {
+        return Epoll.isAvailable();
+    }
+
+    @Override
+    public IAudioSendSystem createSendSystem(final IPacketProvider packetProvider) {
+        return new EpollSendSystem(packetProvider);
+    }
+
+    @Override
+    public CatchUpStats getCatchUpStats() {
+        return this.catchUpStats;
+    }
+
+    @Override
+    public int[] getSlotOccupancy() {
+        return this.wheel.getOccupancy();
+    }
+
+    private void start(final EpollSendSystem sendSystem) {
+        synchronized (this.lock) {
+            if (this.eventLoopGroup == null) {
+                final EpollEventLoopGroup group = new EpollEventLoopGroup(1,
+                        new DefaultThreadFactory("magma-epoll-send", true, Thread.MAX_PRIORITY));
+                final Channel channel;
+                try {
+                    channel = new Bootstrap()
+                            .group(group)
+                            .channel(EpollDatagramChannel.class)
+                            .handler(new ChannelInboundHandlerAdapter())
+                            .bind(0)
+                            .syncUninterruptibly()
+                            .channel();
+                } catch (final Exception e) {
+                    group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+                    throw new RuntimeException("Failed to open epoll datagram channel", e);
+                }
+                group.next().scheduleAtFixedRate(new WheelTimer(channel), 0,
+                        NioSendFactory.SLOT_NANOS, TimeUnit.NANOSECONDS);
+                this.eventLoopGroup = group;
+            }
+            this.wheel.add(sendSystem);
+        }
+    }
+
+    private void stop(final EpollSendSystem sendSystem) {
+        synchronized (this.lock) {
+            this.wheel.remove(sendSystem);
+            if (this.wheel.size() == 0 && this.eventLoopGroup != null) {
+                // closes the channel as well
+                this.eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+                this.eventLoopGroup = null;
+            }
+        }
+    }
+
+    /**
+     * Works through one slot of the wheel per run, on the event loop of the channel, so writing does not need to hop
+     * threads.
+     */
+    private class WheelTimer implements Runnable {
+
+        private final Channel channel;
+        private final SlotBatch batch = new SlotBatch();
+        private long runs = 0;
+
+        private WheelTimer(final Channel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            final int slot = (int) (this.runs % NioSendFactory.WHEEL_SLOTS);
+            final long now = System.nanoTime();
+            this.runs++;
+            try {
+                for (final EpollSendSystem sendSystem : EpollSendFactory.this.wheel.getSlot(slot)) {
+                    if (!this.channel.isWritable()) {
+                        log.trace("Skipping the rest of the slot, the outbound buffer of the channel is full");
+                        break;
+                    }
+                    try {
+                        sendSystem.writeDuePackets(this.channel, now, this.batch);
+                    } catch (final Exception e) {
+                        // an exception escaping this method would cancel the timer for all connections
+                        log.error("Failed to send packet", e);
+                    }
+                }
+                this.writeBatch();
+            } finally {
+                this.batch.clear();
+            }
+            this.channel.flush();
+        }
+
+        private void writeBatch() {
+            try {
+                this.batch.seal();
+            } catch (final Exception e) {
+                log.error("Failed to seal packets", e);
+                return;
+            }
+            for (int i = 0; i < this.batch.size(); i++) {
+                final ByteBuffer packet = this.batch.getPacket(i);
+                if (packet == null) {
+                    continue;
+                }
+                try {
+                    write(this.channel, packet, this.batch.getTarget(i));
+                } catch (final Exception e) {
+                    log.error("Failed to send packet", e);
+                }
+            }
+        }
+    }
+
+    // the buffers of the providers and the batch are reused, while the packet may wait in the outbound buffer of the
+    // channel. Packets are sealed into arrays, and the native transport sends from direct memory, so one copy is needed
+    // either way; copying the finished packet lets the buffer be sized to it.
+    private static void write(final Channel channel, final ByteBuffer rawPacket, final InetSocketAddress targetAddress) {
+        final ByteBuf packet = channel.alloc().directBuffer(rawPacket.remaining());
+        packet.writeBytes(rawPacket.duplicate());
+        channel.write(new DatagramPacket(packet, targetAddress), channel.voidPromise());
+    }
+
+    /**
+     * The send system of one connection, driven by the event loop of its factory.
+     */
+    private class EpollSendSystem implements IAudioSendSystem {
+
+        private final IPacketProvider packetProvider;
+        private final SendClock clock;
+        private boolean sentLastPacket = true;
+
+        private EpollSendSystem(final IPacketProvider packetProvider) {
+            this.packetProvider = packetProvider;
+            this.clock = new SendClock(EpollSendFactory.this.catchUpPolicy,
+                    ChannelPacketSender.canSkipFrames(packetProvider), EpollSendFactory.this.catchUpStats);
+        }
+
+        @Override
+        public void start() {
+            EpollSendFactory.this.start(this);
+        }
+
+        @Override
+        public void shutdown() {
+            EpollSendFactory.this.stop(this);
+        }
+
+        private void writeDuePackets(final Channel channel, final long now, final SlotBatch batch) {
+            final int due = this.clock.packetsDue(now);
+            if (due > 1 || this.clock.getSkippedFrames() > 0) {
+                ChannelPacketSender.onFellBehind(this.clock, this.packetProvider);
+            }
+            for (int i = 0; i < due; i++) {
+                this.writeNextPacket(channel, batch);
+            }
+        }
+
+        private void writeNextPacket(final Channel channel, final SlotBatch batch) {
+            final InetSocketAddress targetAddress = this.packetProvider.getSocketAddress();
+            if (targetAddress == null) {
+                return;
+            }
+            // like the send systems of JDA, allow speaking to be turned off once a tick went by without a packet
+            final boolean changeTalking = !this.sentLastPacket;
+            this.sentLastPacket = false;
+
+            if (this.packetProvider instanceof PacketProvider) {
+                this.sentLastPacket = batch.add((PacketProvider) this.packetProvider, targetAddress, changeTalking);
+                return;
+            }
+            final ByteBuffer rawPacket = this.packetProvider.getNextPacketRaw(changeTalking);
+            if (rawPacket == null) {
+                return;
+            }
+            write(channel, rawPacket, targetAddress);
+            this.sentLastPacket = true;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.dv8tion.jda.api.audio.factory.IAudioSendFactory;
+import net.dv8tion.jda.api.audio.factory.IAudioSendSystem;
+import net.dv8tion.jda.api.audio.factory.IPacketProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import space.npstr.magma.api.CatchUpPolicy;
+import space.npstr.magma.api.CatchUpStats;
+import space.npstr.magma.api.MagmaSendFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link IAudioSendFactory} that sends the packets of all its connections from a single timer thread, through one
+ * non-blocking {@link DatagramChannel}. Every 20 ms the thread asks each started send system for its next packet and
+ * writes it out, so the number of connections is bound by how many packets the thread can encrypt and send within a
+ * tick, rather than by the number of threads.
+ * <p>
+ * The send systems are spread over the slots of a {@link TimingWheel}, and the thread works through one slot per
+ * millisecond, so each connection sends at a fixed phase within the 20 ms, and the load is spread evenly over them.
+ * The packets of a slot are sealed together in a {@link SlotBatch}, before they are sent. When the thread falls behind, the {@link CatchUpPolicy} of the factory decides what happens to the missed packets.
+ * <p>
+ * Share one instance between all members. Its thread and channel are opened when the first send system is started,
+ * and closed again once all send systems have been shut down.
+ */
+@ThreadSafe
+public class NioSendFactory implements MagmaSendFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(NioSendFactory.class);
+
+    static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    static final int WHEEL_SLOTS = 20;
+    static final long SLOT_NANOS = TICK_NANOS / WHEEL_SLOTS;
+    // room for the packets of several opus frames combined
+    private static final int SEND_BUFFER_CAPACITY = 8 * 1024;
+
+    private final TimingWheel<NioSendSystem> wheel = new TimingWheel<>(WHEEL_SLOTS);
+    private final CatchUpPolicy catchUpPolicy;
+    private final CatchUpCounters catchUpStats = new CatchUpCounters();
+    private final Object lock = new Object();
+    @Nullable
+    private ScheduledExecutorService timer = null;
+    @Nullable
+    private DatagramChannel channel = null;
+
+    /**
+     * Create a factory that stretches the streams of connections that fall behind, see {@link CatchUpPolicy#STRETCH}.
+     */
+    public NioSendFactory() {
+        this(CatchUpPolicy.STRETCH);
+    }
+
+    public NioSendFactory(final CatchUpPolicy catchUpPolicy) {
+        this.catchUpPolicy = catchUpPolicy;
+    }
+
+    @Override
+    public IAudioSendSystem createSendSystem(final IPacketProvider packetProvider) {
+        return new NioSendSystem(this, packetProvider, this.catchUpPolicy, this.catchUpStats);
+    }
+
+    @Override
+    public CatchUpStats getCatchUpStats() {
+        return this.catchUpStats;
+    }
+
+    @Override
+    public int[] getSlotOccupancy() {
+        return this.wheel.getOccupancy();
+    }
+
+    void start(final NioSendSystem sendSystem) {
+        synchronized (this.lock) {
+            if (this.timer == null) {
+                final DatagramChannel datagramChannel;
+                try {
+                    datagramChannel = DatagramChannel.open();
+                    datagramChannel.configureBlocking(false);
+                } catch (final IOException e) {
+                    throw new RuntimeException("Failed to open datagram channel", e);
+                }
+                final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    final Thread thread = new Thread(runnable, "magma-nio-send");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MAX_PRIORITY);
+                    return thread;
+                });
+                // each timer thread has its own buffer, in case the last run of a stopped one is still going
+                final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(SEND_BUFFER_CAPACITY);
+                executor.scheduleAtFixedRate(new WheelTimer(datagramChannel, sendBuffer),
+                        0, SLOT_NANOS, TimeUnit.NANOSECONDS);
+                this.channel = datagramChannel;
+                this.timer = executor;
+            }
+            this.wheel.add(sendSystem);
+        }
+    }
+
+    void stop(final NioSendSystem sendSystem) {
+        synchronized (this.lock) {
+            this.wheel.remove(sendSystem);
+            if (this.wheel.size() > 0 || this.timer == null || this.channel == null) {
+                return;
+            }
+            this.timer.shutdown();
+            this.timer = null;
+            try {
+                this.channel.close();
+            } catch (final IOException e) {
+                log.warn("Failed to close datagram channel", e);
+            }
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Works through one slot of the wheel per run. The send systems keep their own deadlines, so when the timer runs
+     * late and then rushes through the missed runs, they do not send more than their policy allows.
+     */
+    private class WheelTimer implements Runnable {
+
+        private final DatagramChannel channel;
+        private final ByteBuffer sendBuffer;
+        private final SlotBatch batch = new SlotBatch();
+        private long runs = 0;
+
+        private WheelTimer(final DatagramChannel channel, final ByteBuffer sendBuffer) {
+            this.channel = channel;
+            this.sendBuffer = sendBuffer;
+        }
+
+        @Override
+        public void run() {
+            final int slot = (int) (this.runs % WHEEL_SLOTS);
+            final long now = System.nanoTime();
+            this.runs++;
+            try {
+                for (final NioSendSystem sendSystem : NioSendFactory.this.wheel.getSlot(slot)) {
+                    try {
+                        sendSystem.sendDuePackets(this.channel, this.sendBuffer, now, this.batch);
+                    } catch (final ClosedChannelException e) {
+                        // the last send system was shut down during this run
+                        return;
+                    } catch (final Exception e) {
+                        // an exception escaping this method would cancel the timer for all connections
+                        log.error("Failed to send packet", e);
+                    }
+                }
+                this.sendBatch();
+            } finally {
+                this.batch.clear();
+            }
+        }
+
+        private void sendBatch() {
+            try {
+                this.batch.seal();
+            } catch (final Exception e) {
+                log.error("Failed to seal packets", e);
+                return;
+            }
+            for (int i = 0; i < this.batch.size(); i++) {
+                final ByteBuffer packet = this.batch.getPacket(i);
+                if (packet == null) {
+                    continue;
+                }
+                try {
+                    ChannelPacketSender.send(this.channel, packet, this.batch.getTarget(i));
+                } catch (final ClosedChannelException e) {
+                    return;
+                } catch (final Exception e) {
+                    log.error("Failed to send packet", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import net.dv8tion.jda.api.audio.factory.IAudioSendSystem;
+import net.dv8tion.jda.api.audio.factory.IPacketProvider;
+import space.npstr.magma.api.CatchUpPolicy;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * The send system of one connection, driven by the timer thread of its {@link NioSendFactory}.
+ */
+@NotThreadSafe
+class NioSendSystem implements IAudioSendSystem {
+
+    private final NioSendFactory factory;
+    private final ChannelPacketSender sender;
+
+    NioSendSystem(final NioSendFactory factory, final IPacketProvider packetProvider,
+                  final CatchUpPolicy catchUpPolicy, final CatchUpCounters catchUpStats) {
+        this.factory = factory;
+        this.sender = new ChannelPacketSender(packetProvider, catchUpPolicy, catchUpStats);
+    }
+
+    @Override
+    public void start() {
+        this.factory.start(this);
+    }
+
+    @Override
+    public void shutdown() {
+        this.factory.stop(this);
+    }
+
+    /**
+     * Called by the timer thread of the factory once per revolution of its timing wheel.
+     */
+    void sendDuePackets(final DatagramChannel channel, final ByteBuffer sendBuffer, final long now,
+                        final SlotBatch batch) throws IOException {
+        this.sender.sendDuePackets(channel, sendBuffer, now, batch);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import space.npstr.magma.api.CatchUpPolicy;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * The deadlines of the packets of one connection, one every 20 ms on the {@link System#nanoTime()} clock, counted
+ * from the first call to {@link #packetsDue(long)}. The deadlines do not depend on when the send system gets around
+ * to sending, so lateness does not add up silently. Instead, whenever the connection falls a whole period or more
+ * behind, the {@link CatchUpPolicy} decides what happens to the missed frames.
+ */
+@NotThreadSafe
+class SendClock {
+
+    static final long PERIOD_NANOS = NioSendFactory.TICK_NANOS;
+    // 200 ms of audio, which the jitter buffers of the clients can take
+    static final int MAX_BURST_FRAMES = 10;
+
+    private final CatchUpPolicy policy;
+    private final boolean canSkip;
+    private final CatchUpCounters stats;
+    private boolean started = false;
+    private long nextDeadline = 0;
+    private int skippedFrames = 0;
+    private long accumulatedDriftNanos = 0;
+
+    /**
+     * @param canSkip
+     *         whether the packet provider can jump its rtp timestamp. If not, frames that the policy would skip are
+     *         stretched over instead.
+     */
+    SendClock(final CatchUpPolicy policy, final boolean canSkip, final CatchUpCounters stats) {
+        this.policy = policy;
+        this.canSkip = canSkip;
+        this.stats = stats;
+    }
+
+    /**
+     * A send system that is called less than half a period before the next deadline sends right away, so that it
+     * does not miss a period when its timer moves it to another phase. Called earlier than that, nothing is due.
+     *
+     * @param now
+     *         the current {@link System#nanoTime()}
+     *
+     * @return how many packets to send now. This is 1, more while bursting, or 0 if the next deadline has not come
+     * yet. If the policy skipped frames, {@link #getSkippedFrames()} tells how many.
+     */
+    int packetsDue(final long now) {
+        this.skippedFrames = 0;
+        if (!this.started) {
+            this.started = true;
+            this.nextDeadline = now;
+        }
+        final long late = now - this.nextDeadline;
+        if (late < -PERIOD_NANOS / 2) {
+            return 0;
+        }
+        // lateness of less than a period counts too, a connection may be a few milliseconds late on every tick, like
+        // after the timing wheel moved it to a slot that is out of phase with its deadlines
+        if (late > 0) {
+            this.accumulatedDriftNanos += late;
+        }
+        final int missed = late < PERIOD_NANOS ? 0 : (int) Math.min(late / PERIOD_NANOS, Integer.MAX_VALUE - 1);
+        this.nextDeadline += (missed + 1) * PERIOD_NANOS;
+        if (missed == 0) {
+            return 1;
+        }
+
+        switch (this.policy) {
+            case BURST:
+                final int burst = Math.min(missed, MAX_BURST_FRAMES - 1);
+                this.stats.onBurst(burst);
+                if (burst < missed) {
+                    this.skipOrStretch(missed - burst);
+                }
+                return burst + 1;
+            case SKIP:
+                this.skipOrStretch(missed);
+                return 1;
+            case STRETCH:
+                this.stats.onStretch(missed);
+                return 1;
+            default:
+                throw new IllegalStateException("Unhandled catch up policy " + this.policy);
+        }
+    }
+
+    /**
+     * @return how many frames the last call to {@link #packetsDue(long)} skipped, which the rtp timestamp has to jump
+     * over
+     */
+    int getSkippedFrames() {
+        return this.skippedFrames;
+    }
+
+    /**
+     * @return the deadline of the next packet, on the {@link System#nanoTime()} clock
+     */
+    long getNextDeadline() {
+        return this.nextDeadline;
+    }
+
+    /**
+     * @return the total time by which the packets of the connection were sent after their deadlines
+     */
+    long getAccumulatedDriftNanos() {
+        return this.accumulatedDriftNanos;
+    }
+
+    CatchUpPolicy getPolicy() {
+        return this.policy;
+    }
+
+    private void skipOrStretch(final int frames) {
+        if (this.canSkip) {
+            this.skippedFrames = frames;
+            this.stats.onSkip(frames);
+        } else {
+            this.stats.onStretch(frames);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+/**
+ * Creates the threads of the {@link ThreadPerConnectionSendFactory}.
+ * <p>
+ * This is the Java 8 implementation, which creates platform threads. On Java 21+ the multi-release jar provides a
+ * replacement (see src/main/java21) that creates virtual threads, so that thousands of connections do not need
+ * thousands of platform threads.
+ */
+final class SendThreads {
+
+    private SendThreads() {
+    }
+
+    /**
+     * @return true if the created threads are virtual threads
+     */
+    static boolean isVirtual() {
+        return false;
+    }
+
+    /**
+     * @return a new, unstarted thread that runs the send loop of a connection
+     */
+    static Thread newThread(final Runnable sendLoop, final String name) {
+        final Thread thread = new Thread(sendLoop, name);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        return thread;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import space.npstr.magma.impl.processing.PacketBatch;
+import space.npstr.magma.impl.processing.PacketProvider;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The packets of the connections in one slot of a {@link TimingWheel} whose providers are Magma's. They are collected
+ * while the timer goes through the slot, sealed together in a {@link PacketBatch}, and then sent one after another.
+ */
+@NotThreadSafe
+class SlotBatch {
+
+    private final PacketBatch packets = new PacketBatch();
+    private final List<InetSocketAddress> targets = new ArrayList<>();
+
+    /**
+     * @return true if the provider had a packet to send
+     */
+    boolean add(final PacketProvider packetProvider, final InetSocketAddress targetAddress,
+                final boolean changeTalking) {
+        if (packetProvider.addNextPacket(this.packets, changeTalking) < 0) {
+            return false;
+        }
+        this.targets.add(targetAddress);
+        return true;
+    }
+
+    int size() {
+        return this.targets.size();
+    }
+
+    void seal() {
+        this.packets.seal();
+    }
+
+    /**
+     * @return the packet at the index, once the batch has been sealed, or null if it could not be sealed
+     */
+    @Nullable
+    ByteBuffer getPacket(final int index) {
+        return this.packets.get(index);
+    }
+
+    InetSocketAddress getTarget(final int index) {
+        return this.targets.get(index);
+    }
+
+    void clear() {
+        this.packets.clear();
+        this.targets.clear();
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.dv8tion.jda.api.audio.factory.IAudioSendFactory;
+import net.dv8tion.jda.api.audio.factory.IAudioSendSystem;
+import net.dv8tion.jda.api.audio.factory.IPacketProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import space.npstr.magma.api.CatchUpPolicy;
+import space.npstr.magma.api.CatchUpStats;
+import space.npstr.magma.api.MagmaSendFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An {@link IAudioSendFactory} that runs the send loop of each connection on a thread of its own, which sends a packet
+ * and parks until the deadline of the next one, 20 ms later. On Java 21+ the threads are virtual threads, so this scales
+ * to many connections like the {@link NioSendFactory} does, while keeping a plain blocking loop per connection. On
+ * older Javas they are platform threads, like the send systems of JDA. Connections that fall behind catch up
+ * according to the {@link CatchUpPolicy} of the factory.
+ * <p>
+ * All connections send through one {@link DatagramChannel}, which is opened when the first send system is started,
+ * and closed again once all send systems have been shut down.
+ */
+@ThreadSafe
+public class ThreadPerConnectionSendFactory implements MagmaSendFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(ThreadPerConnectionSendFactory.class);
+
+    // room for the packets of several opus frames combined
+    private static final int SEND_BUFFER_CAPACITY = 4096;
+
+    private final AtomicInteger threadCount = new AtomicInteger(0);
+    private final CatchUpPolicy catchUpPolicy;
+    private final CatchUpCounters catchUpStats = new CatchUpCounters();
+    private final Object lock = new Object();
+    private int started = 0;
+    @Nullable
+    private DatagramChannel channel = null;
+
+    /**
+     * Create a factory that stretches the streams of connections that fall behind, see {@link CatchUpPolicy#STRETCH}.
+     */
+    public ThreadPerConnectionSendFactory() {
+        this(CatchUpPolicy.STRETCH);
+    }
+
+    public ThreadPerConnectionSendFactory(final CatchUpPolicy catchUpPolicy) {
+        this.catchUpPolicy = catchUpPolicy;
+    }
+
+    /**
+     * @return true if the send loops run on virtual threads
+     */
+    public static boolean isVirtual() {
+        return SendThreads.isVirtual();
+    }
+
+    @Override
+    public IAudioSendSystem createSendSystem(final IPacketProvider packetProvider) {
+        return new ThreadSendSystem(packetProvider);
+    }
+
+    /**
+     * @return an empty array, the connections of this factory keep the phase at which they were started
+     */
+    @Override
+    public int[] getSlotOccupancy() {
+        return new int[0];
+    }
+
+    @Override
+    public CatchUpStats getCatchUpStats() {
+        return this.catchUpStats;
+    }
+
+    private DatagramChannel acquireChannel() {
+        synchronized (this.lock) {
+            if (this.channel == null) {
+                try {
+                    // blocking, which parks a virtual thread instead of its carrier
+                    this.channel = DatagramChannel.open();
+                } catch (final IOException e) {
+                    throw new RuntimeException("Failed to open datagram channel", e);
+                }
+            }
+            this.started++;
+            return this.channel;
+        }
+    }
+
+    private void releaseChannel() {
+        synchronized (this.lock) {
+            this.started--;
+            if (this.started > 0 || this.channel == null) {
+                return;
+            }
+            try {
+                this.channel.close();
+            } catch (final IOException e) {
+                log.warn("Failed to close datagram channel", e);
+            }
+            this.channel = null;
+        }
+    }
+
+    private class ThreadSendSystem implements IAudioSendSystem {
+
+        private final ChannelPacketSender sender;
+        @Nullable
+        private volatile Thread thread = null;
+
+        private ThreadSendSystem(final IPacketProvider packetProvider) {
+            this.sender = new ChannelPacketSender(packetProvider, ThreadPerConnectionSendFactory.this.catchUpPolicy,
+                    ThreadPerConnectionSendFactory.this.catchUpStats);
+        }
+
+        @Override
+        public synchronized void start() {
+            if (this.thread != null) {
+                return;
+            }
+            final DatagramChannel datagramChannel = acquireChannel();
+            final Thread sendThread = SendThreads.newThread(() -> this.sendLoop(datagramChannel),
+                    "magma-send-" + ThreadPerConnectionSendFactory.this.threadCount.incrementAndGet());
+            this.thread = sendThread;
+            sendThread.start();
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            final Thread sendThread = this.thread;
+            if (sendThread == null) {
+                return;
+            }
+            this.thread = null;
+            LockSupport.unpark(sendThread);
+        }
+
+        private void sendLoop(final DatagramChannel datagramChannel) {
+            final Thread self = Thread.currentThread();
+            final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(SEND_BUFFER_CAPACITY);
+            try {
+                while (this.thread == self) {
+                    try {
+                        this.sender.sendDuePackets(datagramChannel, sendBuffer, System.nanoTime());
+                    } catch (final ClosedChannelException e) {
+                        log.warn("Channel was closed while the send loop is running", e);
+                        return;
+                    } catch (final Exception e) {
+                        log.error("Failed to send packet", e);
+                    }
+
+                    // falling behind is taken care of by the send clock of the sender
+                    final long deadline = this.sender.getNextDeadline();
+                    long wait;
+                    while ((wait = deadline - System.nanoTime()) > 0 && this.thread == self) {
+                        LockSupport.parkNanos(this, wait);
+                    }
+                }
+            } finally {
+                releaseChannel();
+            }
+        }
+    }
+}
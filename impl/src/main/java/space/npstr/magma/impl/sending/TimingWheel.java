@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A timing wheel whose revolution is one send period, 20 ms. Every entry is put into one slot of the wheel, which
+ * fixes its phase within the period, and the timer works through one slot per tick. This spreads the packets of all
+ * connections evenly over the period, instead of sending all of them in a burst at the start of it.
+ * <p>
+ * New entries go into the slot with the fewest entries. When entries are removed, the wheel is rebalanced by moving
+ * as few entries as possible from the fullest slots into the emptiest ones, so that the occupancy of any two slots
+ * differs by one at most. An entry keeps its slot otherwise.
+ */
+@ThreadSafe
+class TimingWheel<T> {
+
+    private final List<CopyOnWriteArrayList<T>> slots;
+    private final Map<T, Integer> slotOf = new IdentityHashMap<>();
+
+    TimingWheel(final int slotCount) {
+        if (slotCount < 1) {
+            throw new IllegalArgumentException("A timing wheel needs at least one slot, got " + slotCount);
+        }
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            this.slots.add(new CopyOnWriteArrayList<>());
+        }
+    }
+
+    int getSlotCount() {
+        return this.slots.size();
+    }
+
+    /**
+     * @return the entries of a slot, which can be iterated by the timer while entries are added and removed
+     */
+    List<T> getSlot(final int slot) {
+        return this.slots.get(slot);
+    }
+
+    /**
+     * @return true if the entry was added, false if it is in the wheel already
+     */
+    synchronized boolean add(final T entry) {
+        if (this.slotOf.containsKey(entry)) {
+            return false;
+        }
+        this.put(entry, this.emptiestSlot());
+        return true;
+    }
+
+    /**
+     * @return true if the entry was removed, false if it was not in the wheel
+     */
+    synchronized boolean remove(final T entry) {
+        final Integer slot = this.slotOf.remove(entry);
+        if (slot == null) {
+            return false;
+        }
+        this.slots.get(slot).remove(entry);
+        this.rebalance();
+        return true;
+    }
+
+    synchronized int size() {
+        return this.slotOf.size();
+    }
+
+    /**
+     * @return the slot of the entry, or -1 if it is not in the wheel
+     */
+    synchronized int slotOf(final T entry) {
+        final Integer slot = this.slotOf.get(entry);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * @return the number of entries in each slot
+     */
+    synchronized int[] getOccupancy() {
+        final int[] occupancy = new int[this.slots.size()];
+        for (int i = 0; i < occupancy.length; i++) {
+            occupancy[i] = this.slots.get(i).size();
+        }
+        return occupancy;
+    }
+
+    private void rebalance() {
+        while (true) {
+            final int fullest = this.fullestSlot();
+            final int emptiest = this.emptiestSlot();
+            final List<T> from = this.slots.get(fullest);
+            if (from.size() - this.slots.get(emptiest).size() <= 1) {
+                return;
+            }
+            final T moved = from.remove(from.size() - 1);
+            this.put(moved, emptiest);
+        }
+    }
+
+    private void put(final T entry, final int slot) {
+        this.slots.get(slot).add(entry);
+        this.slotOf.put(entry, slot);
+    }
+
+    private int emptiestSlot() {
+        int emptiest = 0;
+        for (int i = 1; i < this.slots.size(); i++) {
+            if (this.slots.get(i).size() < this.slots.get(emptiest).size()) {
+                emptiest = i;
+            }
+        }
+        return emptiest;
+    }
+
+    private int fullestSlot() {
+        int fullest = 0;
+        for (int i = 1; i < this.slots.size(); i++) {
+            if (this.slots.get(i).size() > this.slots.get(fullest).size()) {
+                fullest = i;
+            }
+        }
+        return fullest;
+    }
+}
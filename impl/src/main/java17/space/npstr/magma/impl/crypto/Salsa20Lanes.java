@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Java 17+ replacement of the Java 8 Salsa20Lanes of the multi-release jar. Uses {@link VectorSalsa20Lanes} if the
+ * incubating jdk.incubator.vector module was added to the JVM (--add-modules jdk.incubator.vector), and falls back
+ * to {@link ScalarSalsa20Lanes} otherwise.
+ */
+final class Salsa20Lanes {
+
+    private static final Logger log = LoggerFactory.getLogger(Salsa20Lanes.class);
+
+    private static final boolean VECTORIZED = detectVectorApi();
+
+    private Salsa20Lanes() {
+    }
+
+    static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    static void core(final int[] input, final int[] output, final int stride, final int lanes, final boolean addInput) {
+        if (VECTORIZED) {
+            VectorSalsa20Lanes.core(input, output, stride, lanes, addInput);
+        } else {
+            ScalarSalsa20Lanes.core(input, output, stride, 0, lanes, addInput);
+        }
+    }
+
+    private static boolean detectVectorApi() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            log.debug("Module jdk.incubator.vector is not available, key streams are computed one lane at a time");
+            return false;
+        }
+        try {
+            log.debug("Computing key streams {} lanes at a time", VectorSalsa20Lanes.laneCount());
+            return true;
+        } catch (final LinkageError e) {
+            log.debug("Failed to load the vector api, key streams are computed one lane at a time", e);
+            return false;
+        }
+    }
+}
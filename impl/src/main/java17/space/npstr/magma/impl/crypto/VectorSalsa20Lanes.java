@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link Salsa20Lanes} with the incubating Vector API: each vector holds the same word of 4, 8 or 16 lanes, depending
+ * on the widest vectors the cpu supports, so that every instruction of the rounds advances that many lanes.
+ */
+final class VectorSalsa20Lanes {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    private VectorSalsa20Lanes() {
+    }
+
+    static int laneCount() {
+        return SPECIES.length();
+    }
+
+    static void core(final int[] input, final int[] output, final int stride, final int lanes, final boolean addInput) {
+        final int step = SPECIES.length();
+        int l = 0;
+        for (; l + step <= lanes; l += step) {
+            final IntVector j0 = IntVector.fromArray(SPECIES, input, l);
+            final IntVector j1 = IntVector.fromArray(SPECIES, input, stride + l);
+            final IntVector j2 = IntVector.fromArray(SPECIES, input, 2 * stride + l);
+            final IntVector j3 = IntVector.fromArray(SPECIES, input, 3 * stride + l);
+            final IntVector j4 = IntVector.fromArray(SPECIES, input, 4 * stride + l);
+            final IntVector j5 = IntVector.fromArray(SPECIES, input, 5 * stride + l);
+            final IntVector j6 = IntVector.fromArray(SPECIES, input, 6 * stride + l);
+            final IntVector j7 = IntVector.fromArray(SPECIES, input, 7 * stride + l);
+            final IntVector j8 = IntVector.fromArray(SPECIES, input, 8 * stride + l);
+            final IntVector j9 = IntVector.fromArray(SPECIES, input, 9 * stride + l);
+            final IntVector j10 = IntVector.fromArray(SPECIES, input, 10 * stride + l);
+            final IntVector j11 = IntVector.fromArray(SPECIES, input, 11 * stride + l);
+            final IntVector j12 = IntVector.fromArray(SPECIES, input, 12 * stride + l);
+            final IntVector j13 = IntVector.fromArray(SPECIES, input, 13 * stride + l);
+            final IntVector j14 = IntVector.fromArray(SPECIES, input, 14 * stride + l);
+            final IntVector j15 = IntVector.fromArray(SPECIES, input, 15 * stride + l);
+
+            IntVector x0 = j0, x1 = j1, x2 = j2, x3 = j3, x4 = j4, x5 = j5, x6 = j6, x7 = j7;
+            IntVector x8 = j8, x9 = j9, x10 = j10, x11 = j11, x12 = j12, x13 = j13, x14 = j14, x15 = j15;
+
+            for (int i = 0; i < 20; i += 2) {
+                // column round
+                x4 = x4.lanewise(VectorOperators.XOR, rotl(x0.add(x12), 7));
+                x8 = x8.lanewise(VectorOperators.XOR, rotl(x4.add(x0), 9));
+                x12 = x12.lanewise(VectorOperators.XOR, rotl(x8.add(x4), 13));
+                x0 = x0.lanewise(VectorOperators.XOR, rotl(x12.add(x8), 18));
+                x9 = x9.lanewise(VectorOperators.XOR, rotl(x5.add(x1), 7));
+                x13 = x13.lanewise(VectorOperators.XOR, rotl(x9.add(x5), 9));
+                x1 = x1.lanewise(VectorOperators.XOR, rotl(x13.add(x9), 13));
+                x5 = x5.lanewise(VectorOperators.XOR, rotl(x1.add(x13), 18));
+                x14 = x14.lanewise(VectorOperators.XOR, rotl(x10.add(x6), 7));
+                x2 = x2.lanewise(VectorOperators.XOR, rotl(x14.add(x10), 9));
+                x6 = x6.lanewise(VectorOperators.XOR, rotl(x2.add(x14), 13));
+                x10 = x10.lanewise(VectorOperators.XOR, rotl(x6.add(x2), 18));
+                x3 = x3.lanewise(VectorOperators.XOR, rotl(x15.add(x11), 7));
+                x7 = x7.lanewise(VectorOperators.XOR, rotl(x3.add(x15), 9));
+                x11 = x11.lanewise(VectorOperators.XOR, rotl(x7.add(x3), 13));
+                x15 = x15.lanewise(VectorOperators.XOR, rotl(x11.add(x7), 18));
+                // row round
+                x1 = x1.lanewise(VectorOperators.XOR, rotl(x0.add(x3), 7));
+                x2 = x2.lanewise(VectorOperators.XOR, rotl(x1.add(x0), 9));
+                x3 = x3.lanewise(VectorOperators.XOR, rotl(x2.add(x1), 13));
+                x0 = x0.lanewise(VectorOperators.XOR, rotl(x3.add(x2), 18));
+                x6 = x6.lanewise(VectorOperators.XOR, rotl(x5.add(x4), 7));
+                x7 = x7.lanewise(VectorOperators.XOR, rotl(x6.add(x5), 9));
+                x4 = x4.lanewise(VectorOperators.XOR, rotl(x7.add(x6), 13));
+                x5 = x5.lanewise(VectorOperators.XOR, rotl(x4.add(x7), 18));
+                x11 = x11.lanewise(VectorOperators.XOR, rotl(x10.add(x9), 7));
+                x8 = x8.lanewise(VectorOperators.XOR, rotl(x11.add(x10), 9));
+                x9 = x9.lanewise(VectorOperators.XOR, rotl(x8.add(x11), 13));
+                x10 = x10.lanewise(VectorOperators.XOR, rotl(x9.add(x8), 18));
+                x12 = x12.lanewise(VectorOperators.XOR, rotl(x15.add(x14), 7));
+                x13 = x13.lanewise(VectorOperators.XOR, rotl(x12.add(x15), 9));
+                x14 = x14.lanewise(VectorOperators.XOR, rotl(x13.add(x12), 13));
+                x15 = x15.lanewise(VectorOperators.XOR, rotl(x14.add(x13), 18));
+            }
+
+            if (addInput) {
+                x0 = x0.add(j0); x1 = x1.add(j1); x2 = x2.add(j2); x3 = x3.add(j3);
+                x4 = x4.add(j4); x5 = x5.add(j5); x6 = x6.add(j6); x7 = x7.add(j7);
+                x8 = x8.add(j8); x9 = x9.add(j9); x10 = x10.add(j10); x11 = x11.add(j11);
+                x12 = x12.add(j12); x13 = x13.add(j13); x14 = x14.add(j14); x15 = x15.add(j15);
+            }
+
+            x0.intoArray(output, l);
+            x1.intoArray(output, stride + l);
+            x2.intoArray(output, 2 * stride + l);
+            x3.intoArray(output, 3 * stride + l);
+            x4.intoArray(output, 4 * stride + l);
+            x5.intoArray(output, 5 * stride + l);
+            x6.intoArray(output, 6 * stride + l);
+            x7.intoArray(output, 7 * stride + l);
+            x8.intoArray(output, 8 * stride + l);
+            x9.intoArray(output, 9 * stride + l);
+            x10.intoArray(output, 10 * stride + l);
+            x11.intoArray(output, 11 * stride + l);
+            x12.intoArray(output, 12 * stride + l);
+            x13.intoArray(output, 13 * stride + l);
+            x14.intoArray(output, 14 * stride + l);
+            x15.intoArray(output, 15 * stride + l);
+        }
+
+        // lanes that do not fill a whole vector
+        ScalarSalsa20Lanes.core(input, output, stride, l, lanes, addInput);
+    }
+
+    private static IntVector rotl(final IntVector v, final int distance) {
+        return v.lanewise(VectorOperators.ROL, distance);
+    }
+}
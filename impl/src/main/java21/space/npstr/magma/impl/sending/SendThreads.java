@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+/**
+ * Java 21+ replacement of the Java 8 SendThreads of the multi-release jar. Creates virtual threads, which park on the
+ * deadline of their next packet without holding on to a platform thread.
+ */
+final class SendThreads {
+
+    private SendThreads() {
+    }
+
+    static boolean isVirtual() {
+        return true;
+    }
+
+    static Thread newThread(final Runnable sendLoop, final String name) {
+        return Thread.ofVirtual().name(name).unstarted(sendLoop);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iwebpp.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SecretBoxTest {
+
+    @Test
+    public void testSealMatchesBox() {
+        final Random random = new Random(42);
+        final byte[] key = new byte[TweetNaclFast.SecretBox.keyLength];
+        random.nextBytes(key);
+        final TweetNaclFast.SecretBox secretBox = new TweetNaclFast.SecretBox(key);
+
+        for (final int length : new int[]{0, 1, 3, 31, 32, 33, 63, 64, 65, 120, 400, 1000}) {
+            final byte[] nonce = new byte[TweetNaclFast.SecretBox.nonceLength];
+            random.nextBytes(nonce);
+            final byte[] message = new byte[length + 7];
+            random.nextBytes(message);
+
+            final byte[] expected = secretBox.box(message, 5, length, nonce);
+
+            final int outputOffset = 3;
+            final byte[] output = new byte[outputOffset + length + TweetNaclFast.SecretBox.overheadLength + 2];
+            final int written = secretBox.seal(message, 5, length, nonce, output, outputOffset);
+
+            assertEquals(expected.length, written, "seal writes as many bytes as box returns for length " + length);
+            assertArrayEquals(expected, Arrays.copyOfRange(output, outputOffset, outputOffset + written),
+                    "seal writes the same bytes as box for length " + length);
+            assertArrayEquals(Arrays.copyOfRange(message, 5, 5 + length), secretBox.open(expected, nonce),
+                    "sealed message can be opened for length " + length);
+        }
+    }
+
+    @Test
+    public void testSealRejectsTooSmallOutput() {
+        final TweetNaclFast.SecretBox secretBox = new TweetNaclFast.SecretBox(new byte[TweetNaclFast.SecretBox.keyLength]);
+        final byte[] nonce = new byte[TweetNaclFast.SecretBox.nonceLength];
+        final byte[] message = new byte[10];
+
+        assertEquals(-1, secretBox.seal(message, 0, message.length, nonce, new byte[message.length], 0));
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EncryptionModeCalibrationTest {
+
+    @Test
+    public void testCalibrateMeasuresAllModes() {
+        final EncryptionModeCalibration calibration = EncryptionModeCalibration.calibrate(TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertEquals(EncryptionMode.values().length, calibration.getNanosPerPacket().size(), "all modes were measured");
+        calibration.getNanosPerPacket().values().forEach(nanos -> assertTrue(nanos > 0, "cost is positive"));
+        assertEquals(EncryptionMode.values().length, calibration.getPreferenceOrder().size(), "all modes are ranked");
+    }
+
+    @Test
+    public void testPreferredModeIsCheapest() {
+        final Map<EncryptionMode, Long> nanosPerPacket = new EnumMap<>(EncryptionMode.class);
+        nanosPerPacket.put(EncryptionMode.XSALSA20_POLY1305_LITE, 900L);
+        nanosPerPacket.put(EncryptionMode.XSALSA20_POLY1305_SUFFIX, 500L);
+        nanosPerPacket.put(EncryptionMode.XSALSA20_POLY1305, 500L);
+        nanosPerPacket.put(EncryptionMode.AEAD_AES256_GCM_RTPSIZE, 200L);
+        final EncryptionModeCalibration calibration = new EncryptionModeCalibration(nanosPerPacket);
+
+        assertEquals(Optional.of(EncryptionMode.AEAD_AES256_GCM_RTPSIZE), calibration.getPreferredMode(
+                Arrays.asList(EncryptionMode.XSALSA20_POLY1305_LITE, EncryptionMode.AEAD_AES256_GCM_RTPSIZE)));
+        assertEquals(Optional.of(EncryptionMode.XSALSA20_POLY1305_SUFFIX), calibration.getPreferredMode(
+                Arrays.asList(EncryptionMode.XSALSA20_POLY1305, EncryptionMode.XSALSA20_POLY1305_SUFFIX)),
+                "ties are broken by the hardcoded preference");
+        assertEquals(Optional.of(EncryptionMode.XSALSA20_POLY1305_LITE), calibration.getPreferredMode(
+                Arrays.asList(EncryptionMode.AEAD_XCHACHA20_POLY1305_RTPSIZE, EncryptionMode.XSALSA20_POLY1305_LITE)),
+                "unmeasured modes come last");
+        assertFalse(calibration.getPreferredMode(Collections.emptyList()).isPresent());
+    }
+}
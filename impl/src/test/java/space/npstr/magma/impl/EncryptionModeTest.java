@@ -18,6 +18,7 @@ package space.npstr.magma.impl;
 
 import org.json.JSONArray;
 import org.junit.jupiter.api.Test;
+import space.npstr.magma.impl.crypto.AesGcmCipher;
 
 import java.util.Collections;
 import java.util.List;
@@ -49,4 +50,18 @@ public class EncryptionModeTest {
         final List<EncryptionMode> empty = Collections.emptyList();
         assertFalse(EncryptionMode.getPreferredMode(empty).isPresent(), "empty list returns empty optional");
     }
+
+    @Test
+    public void testAesGcmPreference() {
+        JSONArray array = new JSONArray();
+        array.put("xsalsa20_poly1305_lite");
+        array.put("aead_aes256_gcm_rtpsize");
+        final List<EncryptionMode> modes = EncryptionMode.fromJson(array);
+        assertEquals(modes.size(), array.length(), "aes gcm mode was parsed");
+
+        final EncryptionMode expected = AesGcmCipher.isHardwareAccelerated()
+                ? EncryptionMode.AEAD_AES256_GCM_RTPSIZE
+                : EncryptionMode.XSALSA20_POLY1305_LITE;
+        assertEquals(Optional.of(expected), EncryptionMode.getPreferredMode(modes), "prefer aes gcm only on hardware aes");
+    }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class AesGcmCipherTest {
+
+    @Test
+    public void testSealCanBeOpened() throws Exception {
+        final Random random = new Random(42);
+        final byte[] key = new byte[32];
+        random.nextBytes(key);
+        final AesGcmCipher aesGcmCipher = new AesGcmCipher(key);
+
+        // the same instance seals many packets
+        for (int i = 0; i < 10; i++) {
+            final byte[] nonce = new byte[AesGcmCipher.NONCE_LENGTH];
+            nonce[3] = (byte) i;
+            final byte[] header = new byte[12];
+            random.nextBytes(header);
+            final byte[] message = new byte[20 + i * 37];
+            random.nextBytes(message);
+
+            final byte[] output = new byte[4 + message.length + aesGcmCipher.getOverheadLength()];
+            final int written = aesGcmCipher.seal(nonce, header, 0, header.length,
+                    message, 0, message.length, output, 4);
+            assertEquals(message.length + AesGcmCipher.TAG_LENGTH, written);
+
+            final Cipher decrypt = Cipher.getInstance("AES/GCM/NoPadding");
+            decrypt.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, nonce));
+            decrypt.updateAAD(header);
+            assertArrayEquals(message, decrypt.doFinal(Arrays.copyOfRange(output, 4, 4 + written)),
+                    "sealed message can be opened");
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LiteKeyStreamRingTest {
+
+    @Test
+    public void testPrecomputedSealMatchesSeal() {
+        final Random random = new Random(42);
+        final byte[] key = new byte[XSalsa20Poly1305.KEY_LENGTH];
+        random.nextBytes(key);
+        final XSalsa20Poly1305 secretBox = new XSalsa20Poly1305(key);
+        // refills run right away
+        final LiteKeyStreamRing ring = new LiteKeyStreamRing(key, 4, Runnable::run);
+        final PrecomputedKeyStream keyStream = new PrecomputedKeyStream();
+
+        assertFalse(ring.take(1, keyStream), "nothing is precomputed before the first nonce was taken");
+
+        for (long nonce = 2; nonce < 20; nonce++) {
+            assertTrue(ring.take(nonce, keyStream), "key stream of nonce " + nonce + " was precomputed");
+
+            final byte[] nonceBytes = liteNonce(nonce);
+            final byte[] message = new byte[(int) nonce * 11];
+            random.nextBytes(message);
+            final byte[] expected = new byte[message.length + XSalsa20Poly1305.OVERHEAD_LENGTH];
+            secretBox.seal(message, 0, message.length, nonceBytes, expected, 0);
+            final byte[] actual = new byte[expected.length];
+            secretBox.seal(keyStream, message, 0, message.length, nonceBytes, actual, 0);
+
+            assertArrayEquals(expected, actual, "sealed bytes of nonce " + nonce);
+        }
+    }
+
+    @Test
+    public void testSkippedAndWrappingNonces() {
+        final byte[] key = new byte[XSalsa20Poly1305.KEY_LENGTH];
+        final LiteKeyStreamRing ring = new LiteKeyStreamRing(key, 3, Runnable::run);
+        final PrecomputedKeyStream keyStream = new PrecomputedKeyStream();
+
+        ring.take(10, keyStream);
+        assertFalse(ring.take(100, keyStream), "a jump past the precomputed nonces is a miss");
+        assertTrue(ring.take(101, keyStream), "the ring recovers after a jump");
+
+        ring.take(0xFFFFFFFEL, keyStream);
+        assertTrue(ring.take(0xFFFFFFFFL, keyStream));
+        assertTrue(ring.take(0, keyStream), "nonces wrap around like the connection's counter");
+        assertTrue(ring.take(1, keyStream));
+    }
+
+    private static byte[] liteNonce(final long nonce) {
+        final byte[] bytes = new byte[XSalsa20Poly1305.NONCE_LENGTH];
+        bytes[0] = (byte) (nonce >>> 24);
+        bytes[1] = (byte) (nonce >>> 16);
+        bytes[2] = (byte) (nonce >>> 8);
+        bytes[3] = (byte) nonce;
+        return bytes;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+import com.iwebpp.crypto.TweetNaclFast;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+public class Poly1305Test {
+
+    // RFC 8439, section 2.5.2
+    @Test
+    public void testTestVector() {
+        final byte[] key = hex("85d6be7857556d337f4452fe42d506a80103808afb0db2fd4abff6af4149f51b");
+        final byte[] message = "Cryptographic Forum Research Group".getBytes(StandardCharsets.US_ASCII);
+        final byte[] tag = new byte[Poly1305.TAG_LENGTH];
+
+        new Poly1305().init(key, 0).update(message, 0, message.length).finish(tag, 0);
+
+        assertArrayEquals(hex("a8061dc1305136c6c22b8baf0c0127a9"), tag);
+    }
+
+    @Test
+    public void testMatchesTweetNacl() {
+        final Random random = new Random(42);
+        final Poly1305 poly1305 = new Poly1305();
+
+        for (final int length : new int[]{0, 1, 15, 16, 17, 31, 32, 33, 100, 160, 1000}) {
+            final byte[] key = new byte[Poly1305.KEY_LENGTH];
+            random.nextBytes(key);
+            final byte[] message = new byte[length];
+            random.nextBytes(message);
+            final byte[] expected = new byte[Poly1305.TAG_LENGTH];
+            TweetNaclFast.crypto_onetimeauth(expected, message, length, key);
+
+            // in one go
+            final byte[] tag = new byte[Poly1305.TAG_LENGTH];
+            poly1305.init(key, 0).update(message, 0, length).finish(tag, 0);
+            assertArrayEquals(expected, tag, "tag of length " + length);
+
+            // in pieces that do not line up with the blocks
+            final byte[] pieces = new byte[Poly1305.TAG_LENGTH + 2];
+            poly1305.init(key, 0);
+            int done = 0;
+            int step = 1;
+            while (done < length) {
+                final int n = Math.min(step, length - done);
+                poly1305.update(message, done, n);
+                done += n;
+                step += 5;
+            }
+            poly1305.finish(pieces, 2);
+            assertArrayEquals(expected, Arrays.copyOfRange(pieces, 2, pieces.length), "tag in pieces of length " + length);
+        }
+    }
+
+    // all ones exercises the final reduction
+    @Test
+    public void testReduction() {
+        final byte[] key = new byte[Poly1305.KEY_LENGTH];
+        Arrays.fill(key, (byte) 0xff);
+        final byte[] message = new byte[64];
+        Arrays.fill(message, (byte) 0xff);
+        final byte[] expected = new byte[Poly1305.TAG_LENGTH];
+        TweetNaclFast.crypto_onetimeauth(expected, message, message.length, key);
+
+        final byte[] tag = new byte[Poly1305.TAG_LENGTH];
+        new Poly1305().init(key, 0).update(message, 0, message.length).finish(tag, 0);
+
+        assertArrayEquals(expected, tag);
+    }
+
+    private static byte[] hex(final String hex) {
+        final byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Run by the vectorTest task on jdk 17 with the vector api as well, where it checks the vectorized lanes against the
+ * scalar ones.
+ */
+public class Salsa20LanesTest {
+
+    @Test
+    public void testMatchesScalarLanes() {
+        final Random random = new Random(42);
+        // below, at and above the vector widths, so the tail after the last full vector is covered too
+        for (final int lanes : new int[]{1, 3, 4, 7, 8, 15, 16, 17, 33}) {
+            final int stride = lanes + 2;
+            final int[] input = new int[16 * stride];
+            for (int i = 0; i < input.length; i++) {
+                input[i] = random.nextInt();
+            }
+            for (final boolean addInput : new boolean[]{true, false}) {
+                final int[] expected = new int[input.length];
+                final int[] actual = new int[input.length];
+                ScalarSalsa20Lanes.core(input, expected, stride, 0, lanes, addInput);
+                Salsa20Lanes.core(input, actual, stride, lanes, addInput);
+                assertArrayEquals(expected, actual, lanes + " lanes, adding the input " + addInput);
+            }
+        }
+    }
+
+    @Test
+    public void testVectorizedWhenExpected() {
+        assertEquals(Boolean.getBoolean("magma.vectorized"), Salsa20Lanes.isVectorized());
+    }
+}
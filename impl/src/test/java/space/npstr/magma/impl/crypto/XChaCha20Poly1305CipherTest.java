@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class XChaCha20Poly1305CipherTest {
+
+    // draft-irtf-cfrg-xchacha-03, section 2.2.1
+    @Test
+    public void testHChaCha20() {
+        final byte[] key = new byte[32];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) i;
+        }
+        final byte[] nonce = hex("000000090000004a0000000031415927");
+        final byte[] subkey = new byte[32];
+
+        ChaCha20.hChaCha20(key, nonce, subkey, 0);
+
+        assertArrayEquals(hex("82413b4227b27bfed30e42508a877d73a0f9e4d58a74a853c12ec41326d3ecdc"), subkey);
+    }
+
+    // draft-irtf-cfrg-xchacha-03, appendix A.3.1
+    @Test
+    public void testSealMatchesTestVector() {
+        final byte[] key = new byte[32];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) (0x80 + i);
+        }
+        final byte[] nonce = hex("404142434445464748494a4b4c4d4e4f5051525354555657");
+        final byte[] aad = hex("50515253c0c1c2c3c4c5c6c7");
+        final byte[] message = ("Ladies and Gentlemen of the class of '99: If I could offer you only one tip for "
+                + "the future, sunscreen would be it.").getBytes(StandardCharsets.US_ASCII);
+        final byte[] expected = hex("bd6d179d3e83d43b9576579493c0e939572a1700252bfaccbed2902c21396cbb"
+                + "731c7f1b0b4aa6440bf3a82f4eda7e39ae64c6708c54c216cb96b72e1213b452"
+                + "2f8c9ba40db5d945b11b69b982c1bb9e3f3fac2bc369488f76b2383565d3fff9"
+                + "21f9664c97637da9768812f615c68b13b52e"
+                + "c0875924c1c7987947deafd8780acf49");
+
+        for (final XChaCha20Poly1305Cipher cipher : ciphers(key)) {
+            final byte[] output = new byte[message.length + XChaCha20Poly1305Cipher.TAG_LENGTH];
+            final int written = cipher.seal(nonce, aad, 0, aad.length, message, 0, message.length, output, 0);
+            assertEquals(output.length, written);
+            assertArrayEquals(expected, output);
+        }
+    }
+
+    @Test
+    public void testJavaImplementationMatchesJvm() {
+        if (!XChaCha20Poly1305Cipher.isProvidedByJvm()) {
+            return;
+        }
+        final Random random = new Random(42);
+        final byte[] key = new byte[32];
+        random.nextBytes(key);
+        final XChaCha20Poly1305Cipher jvm = new XChaCha20Poly1305Cipher(key, true);
+        final XChaCha20Poly1305Cipher java = new XChaCha20Poly1305Cipher(key, false);
+
+        for (int i = 0; i < 20; i++) {
+            final byte[] nonce = new byte[XChaCha20Poly1305Cipher.NONCE_LENGTH];
+            nonce[3] = (byte) i;
+            final byte[] header = new byte[12];
+            random.nextBytes(header);
+            final byte[] message = new byte[i * 29];
+            random.nextBytes(message);
+
+            final byte[] expected = new byte[message.length + XChaCha20Poly1305Cipher.TAG_LENGTH];
+            jvm.seal(nonce, header, 0, header.length, message, 0, message.length, expected, 0);
+            final byte[] actual = new byte[4 + expected.length];
+            java.seal(nonce, header, 0, header.length, message, 0, message.length, actual, 4);
+
+            assertArrayEquals(expected, Arrays.copyOfRange(actual, 4, actual.length));
+        }
+    }
+
+    private static XChaCha20Poly1305Cipher[] ciphers(final byte[] key) {
+        if (XChaCha20Poly1305Cipher.isProvidedByJvm()) {
+            return new XChaCha20Poly1305Cipher[]{new XChaCha20Poly1305Cipher(key, true), new XChaCha20Poly1305Cipher(key, false)};
+        }
+        return new XChaCha20Poly1305Cipher[]{new XChaCha20Poly1305Cipher(key, false)};
+    }
+
+    private static byte[] hex(final String hex) {
+        final byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return result;
+    }
+}
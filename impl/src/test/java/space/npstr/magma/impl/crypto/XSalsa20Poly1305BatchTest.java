@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class XSalsa20Poly1305BatchTest {
+
+    private static final int[] LENGTHS = {0, 1, 31, 32, 33, 95, 96, 97, 160, 400, 1000};
+
+    @Test
+    public void testSealMatchesSingleSeal() {
+        final Random random = new Random(42);
+        final XSalsa20Poly1305Batch batch = new XSalsa20Poly1305Batch(2);
+        final XSalsa20Poly1305[] boxes = new XSalsa20Poly1305[3];
+        for (int i = 0; i < boxes.length; i++) {
+            final byte[] key = new byte[XSalsa20Poly1305.KEY_LENGTH];
+            random.nextBytes(key);
+            boxes[i] = new XSalsa20Poly1305(key);
+        }
+
+        // run twice to cover reusing a cleared batch
+        for (int round = 0; round < 2; round++) {
+            final byte[][] expected = new byte[LENGTHS.length][];
+            final byte[][] outputs = new byte[LENGTHS.length][];
+            for (int i = 0; i < LENGTHS.length; i++) {
+                final int length = LENGTHS[i];
+                final XSalsa20Poly1305 box = boxes[i % boxes.length];
+                final byte[] nonce = new byte[XSalsa20Poly1305.NONCE_LENGTH];
+                random.nextBytes(nonce);
+                final byte[] message = new byte[length + 2];
+                random.nextBytes(message);
+
+                expected[i] = new byte[length + XSalsa20Poly1305.OVERHEAD_LENGTH];
+                box.seal(message, 2, length, nonce, expected[i], 0);
+
+                outputs[i] = new byte[1 + length + XSalsa20Poly1305.OVERHEAD_LENGTH];
+                assertEquals(i, batch.add(box, nonce, message, 2, length, outputs[i], 1));
+            }
+            batch.seal();
+
+            assertEquals(LENGTHS.length, batch.size());
+            for (int i = 0; i < LENGTHS.length; i++) {
+                assertEquals(expected[i].length, batch.getResult(i), "written bytes for length " + LENGTHS[i]);
+                assertArrayEquals(expected[i], Arrays.copyOfRange(outputs[i], 1, outputs[i].length),
+                        "sealed bytes for length " + LENGTHS[i]);
+            }
+            batch.clear();
+        }
+    }
+
+    @Test
+    public void testInvalidEntryDoesNotAffectOthers() {
+        final XSalsa20Poly1305 box = new XSalsa20Poly1305(new byte[XSalsa20Poly1305.KEY_LENGTH]);
+        final byte[] nonce = new byte[XSalsa20Poly1305.NONCE_LENGTH];
+        final byte[] message = new byte[100];
+        final byte[] expected = new byte[message.length + XSalsa20Poly1305.OVERHEAD_LENGTH];
+        box.seal(message, 0, message.length, nonce, expected, 0);
+
+        final XSalsa20Poly1305Batch batch = new XSalsa20Poly1305Batch();
+        final byte[] output = new byte[expected.length];
+        batch.add(box, nonce, message, 0, message.length, new byte[message.length], 0);
+        batch.add(box, nonce, message, 0, message.length, output, 0);
+        batch.seal();
+
+        assertEquals(-1, batch.getResult(0));
+        assertEquals(expected.length, batch.getResult(1));
+        assertArrayEquals(expected, output);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+import com.iwebpp.crypto.TweetNaclFast;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class XSalsa20Poly1305Test {
+
+    @Test
+    public void testSealMatchesSecretBox() {
+        final Random random = new Random(42);
+        final byte[] key = new byte[XSalsa20Poly1305.KEY_LENGTH];
+        random.nextBytes(key);
+        final TweetNaclFast.SecretBox secretBox = new TweetNaclFast.SecretBox(key);
+        final XSalsa20Poly1305 xSalsa20Poly1305 = new XSalsa20Poly1305(key);
+
+        for (final int length : new int[]{0, 1, 3, 31, 32, 33, 63, 64, 65, 96, 97, 120, 160, 400, 1000}) {
+            final byte[] nonce = new byte[XSalsa20Poly1305.NONCE_LENGTH];
+            random.nextBytes(nonce);
+            final byte[] message = new byte[length + 7];
+            random.nextBytes(message);
+
+            final byte[] expected = secretBox.box(message, 5, length, nonce);
+
+            final byte[] output = new byte[3 + length + XSalsa20Poly1305.OVERHEAD_LENGTH];
+            final int written = xSalsa20Poly1305.seal(message, 5, length, nonce, output, 3);
+
+            assertEquals(expected.length, written, "written bytes for length " + length);
+            assertArrayEquals(expected, Arrays.copyOfRange(output, 3, 3 + written), "sealed bytes for length " + length);
+        }
+    }
+
+    @Test
+    public void testSealRejectsTooSmallOutput() {
+        final XSalsa20Poly1305 xSalsa20Poly1305 = new XSalsa20Poly1305(new byte[XSalsa20Poly1305.KEY_LENGTH]);
+        final byte[] message = new byte[10];
+
+        assertEquals(-1, xSalsa20Poly1305.seal(message, 0, message.length, new byte[XSalsa20Poly1305.NONCE_LENGTH],
+                new byte[message.length], 0));
+    }
+}
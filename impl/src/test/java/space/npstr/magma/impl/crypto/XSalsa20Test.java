@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package space.npstr.magma.impl.crypto;
+import com.iwebpp.crypto.TweetNaclFast;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+public class XSalsa20Test {
+
+    private static final int[] LENGTHS = {0, 1, 3, 4, 5, 31, 32, 33, 63, 64, 65, 127, 128, 129, 400, 1000};
+
+    @Test
+    public void testKeyStreamMatchesTweetNacl() {
+        final Random random = new Random(42);
+        final byte[] key = new byte[XSalsa20.KEY_LENGTH];
+        random.nextBytes(key);
+        final XSalsa20 xSalsa20 = new XSalsa20(key);
+
+        for (final int length : LENGTHS) {
+            final byte[] nonce = new byte[XSalsa20.NONCE_LENGTH];
+            random.nextBytes(nonce);
+
+            final byte[] expected = new byte[length];
+            TweetNaclFast.crypto_stream(expected, 0, length, nonce, key);
+            final byte[] actual = new byte[length];
+            xSalsa20.init(nonce);
+            xSalsa20.keyStream(actual, 0, length);
+
+            assertArrayEquals(expected, actual, "key stream of length " + length);
+        }
+    }
+
+    @Test
+    public void testXorMatchesTweetNacl() {
+        final Random random = new Random(42);
+        final byte[] key = new byte[XSalsa20.KEY_LENGTH];
+        random.nextBytes(key);
+        final XSalsa20 xSalsa20 = new XSalsa20(key);
+
+        for (final int length : LENGTHS) {
+            final byte[] nonce = new byte[XSalsa20.NONCE_LENGTH];
+            random.nextBytes(nonce);
+            final byte[] message = new byte[length + 3];
+            random.nextBytes(message);
+
+            final byte[] expected = new byte[length];
+            TweetNaclFast.crypto_stream_xor(expected, 0, message, 3, length, nonce, key);
+
+            // in one go
+            final byte[] actual = new byte[length + 1];
+            xSalsa20.init(nonce);
+            xSalsa20.xor(message, 3, actual, 1, length);
+            assertArrayEquals(expected, Arrays.copyOfRange(actual, 1, length + 1), "xor of length " + length);
+
+            // in unaligned pieces, continuing the stream
+            final byte[] pieces = new byte[length];
+            xSalsa20.init(nonce);
+            int done = 0;
+            int step = 1;
+            while (done < length) {
+                final int n = Math.min(step, length - done);
+                xSalsa20.xor(message, 3 + done, pieces, done, n);
+                done += n;
+                step += 6;
+            }
+            assertArrayEquals(expected, pieces, "xor in pieces of length " + length);
+        }
+    }
+}
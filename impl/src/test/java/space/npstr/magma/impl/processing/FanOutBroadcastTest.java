@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import net.dv8tion.jda.api.audio.AudioSendHandler;
+import org.junit.jupiter.api.Test;
+import space.npstr.magma.api.Options;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FanOutBroadcastTest {
+
+    @Test
+    public void testSourceIsPulledOncePerFrame() {
+        final CountingSource source = new CountingSource();
+        final FanOutBroadcast broadcast = new FanOutBroadcast(source);
+        final AudioSendHandler first = broadcast.subscribe();
+        final AudioSendHandler second = broadcast.subscribe();
+        final AudioSendHandler third = broadcast.subscribe();
+
+        for (int tick = 0; tick < 40; tick++) {
+            // the send ticks of the connections are not in the same order every time
+            final AudioSendHandler[] order = tick % 2 == 0
+                    ? new AudioSendHandler[]{first, second, third}
+                    : new AudioSendHandler[]{third, first, second};
+            for (final AudioSendHandler subscriber : order) {
+                assertTrue(subscriber.canProvide());
+                final ByteBuffer frame = subscriber.provide20MsAudio();
+                assertTrue(frame.isReadOnly(), "frames are shared read-only");
+                assertEquals(tick, frame.getInt(1), "all subscribers play the same frame");
+            }
+        }
+        assertEquals(40, source.pulled);
+    }
+
+    @Test
+    public void testLateSubscriberJoinsAtCurrentFrame() {
+        final CountingSource source = new CountingSource();
+        final FanOutBroadcast broadcast = new FanOutBroadcast(source);
+        final AudioSendHandler early = broadcast.subscribe();
+        for (int i = 0; i < 5; i++) {
+            early.provide20MsAudio();
+        }
+
+        final AudioSendHandler late = broadcast.subscribe();
+        assertEquals(4, late.provide20MsAudio().getInt(1));
+        assertEquals(5, source.pulled);
+    }
+
+    @Test
+    public void testLaggingSubscriberSkipsAhead() {
+        final CountingSource source = new CountingSource();
+        final FanOutBroadcast broadcast = new FanOutBroadcast(source);
+        final AudioSendHandler lagging = broadcast.subscribe();
+        final AudioSendHandler leading = broadcast.subscribe();
+        lagging.provide20MsAudio();
+        for (int i = 0; i < FanOutBroadcast.RING_SIZE; i++) {
+            leading.provide20MsAudio();
+        }
+
+        assertEquals(FanOutBroadcast.RING_SIZE - 1, lagging.provide20MsAudio().getInt(1));
+        assertEquals(FanOutBroadcast.RING_SIZE, leading.provide20MsAudio().getInt(1));
+        assertEquals(FanOutBroadcast.RING_SIZE, lagging.provide20MsAudio().getInt(1));
+    }
+
+    @Test
+    public void testSubscriberPullingAheadDoesNotMakeOthersSkip() {
+        final CountingSource source = new CountingSource();
+        final FanOutBroadcast broadcast = new FanOutBroadcast(source);
+        final AudioSendHandler following = broadcast.subscribe();
+        final AudioSendHandler leading = broadcast.subscribe();
+        following.provide20MsAudio();
+        leading.provide20MsAudio();
+
+        // a lookahead ring of the leading subscriber ran dry and is filled again in one go, on top of its current tick
+        for (int i = 0; i < FanOutBroadcast.MAX_LEAD + 1; i++) {
+            leading.provide20MsAudio();
+        }
+
+        for (int frame = 1; frame <= FanOutBroadcast.MAX_LEAD + 1; frame++) {
+            assertEquals(frame, following.provide20MsAudio().getInt(1), "following subscriber plays every frame");
+        }
+        assertTrue(Options.MAX_PRE_ENCRYPTION_DEPTH <= FanOutBroadcast.MAX_LEAD,
+                "pre-encryption takes no more frames ahead than a subscriber may");
+    }
+
+    @Test
+    public void testNothingToProvide() {
+        final CountingSource source = new CountingSource();
+        source.canProvide = false;
+        final AudioSendHandler subscriber = new FanOutBroadcast(source).subscribe();
+        assertTrue(!subscriber.canProvide());
+        assertNull(subscriber.provide20MsAudio());
+        assertEquals(0, source.pulled);
+    }
+
+    @Test
+    public void testRejectsPcm() {
+        final CountingSource source = new CountingSource();
+        source.opus = false;
+        assertThrows(IllegalArgumentException.class, () -> new FanOutBroadcast(source));
+    }
+
+    // provides frames of a toc byte followed by the number of the frame
+    private static class CountingSource implements AudioSendHandler {
+        private final ByteBuffer frame = ByteBuffer.allocate(5);
+        private int pulled = 0;
+        private boolean canProvide = true;
+        private boolean opus = true;
+
+        @Override
+        public boolean canProvide() {
+            return this.canProvide;
+        }
+
+        @Override
+        public ByteBuffer provide20MsAudio() {
+            this.frame.clear();
+            this.frame.put((byte) 0xFC).putInt(this.pulled++);
+            this.frame.flip();
+            return this.frame;
+        }
+
+        @Override
+        public boolean isOpus() {
+            return this.opus;
+        }
+    }
+}
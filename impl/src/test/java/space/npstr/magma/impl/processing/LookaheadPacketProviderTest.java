@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import org.junit.jupiter.api.Test;
+import space.npstr.magma.api.Options;
+import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.connections.AudioConnection;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LookaheadPacketProviderTest {
+
+    @Test
+    public void testPacketsAreStampedInOrder() throws Exception {
+        final TestAudioConnection connection = new TestAudioConnection(EncryptionMode.XSALSA20_POLY1305_LITE);
+        final AtomicLong nonce = new AtomicLong();
+        final LookaheadPacketProvider provider = new LookaheadPacketProvider(connection, nonce::incrementAndGet,
+                4, 0);
+        try {
+            ByteBuffer packet = nextPacket(provider);
+            final char firstSeq = TestAudioConnection.sequenceOf(packet);
+            final int firstTimestamp = TestAudioConnection.timestampOf(packet);
+            // the send system keeps asking while the ring is filled on the pool
+            for (int i = 1; i < 200; i++) {
+                packet = nextPacket(provider);
+                assertEquals((char) (firstSeq + i), TestAudioConnection.sequenceOf(packet), "sequence of packet " + i);
+                assertEquals(firstTimestamp + i * AudioConnection.OPUS_FRAME_SIZE,
+                        TestAudioConnection.timestampOf(packet), "timestamp of packet " + i);
+            }
+            assertTrue(connection.isSpeaking());
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testSpeaksOnceThePacketsAreSent() throws Exception {
+        final TestAudioConnection connection = new TestAudioConnection(EncryptionMode.XSALSA20_POLY1305);
+        final LookaheadPacketProvider provider = new LookaheadPacketProvider(connection, () -> 0, 8, 0);
+        try {
+            // the first call finds the ring empty, and has it filled with silent frames first, then the audio
+            assertNull(provider.getNextPacketRaw(false));
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (connection.getProvidedFrames() == 0) {
+                assertTrue(System.nanoTime() < deadline, "ring was not filled");
+                Thread.sleep(1);
+            }
+            assertFalse(connection.isSpeaking(), "speaking while the packets are only in the ring");
+
+            assertNotNull(provider.getNextPacketRaw(false));
+            assertTrue(connection.isSpeaking());
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testNoPacketsAfterShutdown() throws Exception {
+        final TestAudioConnection connection = new TestAudioConnection(EncryptionMode.XSALSA20_POLY1305);
+        final LookaheadPacketProvider provider = new LookaheadPacketProvider(connection, () -> 0, 8, 0);
+        assertNotNull(nextPacket(provider));
+
+        provider.shutdown();
+        final int provided = connection.getProvidedFrames();
+        Thread.sleep(50);
+
+        assertNull(provider.getNextPacketRaw(false));
+        assertTrue(connection.getProvidedFrames() <= provided + 1, "no more frames pulled after shutdown");
+    }
+
+    @Test
+    public void testBroadcastSubscriberIsNotFilledPastTheMaximumLead() throws Exception {
+        final TestAudioConnection source = new TestAudioConnection(EncryptionMode.XSALSA20_POLY1305);
+        final FanOutBroadcast broadcast = new FanOutBroadcast(source.getSendHandler());
+        final TestAudioConnection connection = new TestAudioConnection(EncryptionMode.XSALSA20_POLY1305);
+        connection.setSendHandler(broadcast.subscribe());
+        final LookaheadPacketProvider provider = new LookaheadPacketProvider(connection, () -> 0,
+                Options.MAX_LOOKAHEAD_RING_SIZE, 0);
+        try {
+            assertNotNull(nextPacket(provider));
+            Thread.sleep(100);
+            assertTrue(source.getProvidedFrames() <= FanOutBroadcast.MAX_LEAD + 1,
+                    "frames pulled ahead: " + source.getProvidedFrames());
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    // the ring is filled in the background, so the first calls may find it empty
+    private static ByteBuffer nextPacket(final LookaheadPacketProvider provider) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        ByteBuffer packet;
+        while ((packet = provider.getNextPacketRaw(false)) == null) {
+            assertTrue(System.nanoTime() < deadline, "no packet from the ring");
+            Thread.sleep(1);
+        }
+        return packet;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OpusRepacketizerTest {
+
+    // celt fullband 20 ms stereo, code 0
+    private static final int TOC = 0xFC;
+
+    @Test
+    public void testCombinesEqualFramesWithoutLengths() {
+        final OpusRepacketizer repacketizer = new OpusRepacketizer(3);
+        repacketizer.add(frame(TOC, 10, (byte) 1), 960, 42);
+        repacketizer.add(frame(TOC, 10, (byte) 2), 1920, 42);
+        assertFalse(repacketizer.isFull());
+        repacketizer.add(frame(TOC, 10, (byte) 3), 2880, 42);
+        assertTrue(repacketizer.isFull());
+        assertEquals(960, repacketizer.getTimestamp(), "timestamp of the first frame");
+        assertEquals(42, repacketizer.getSsrc());
+
+        final byte[] expected = new byte[2 + 30];
+        expected[0] = (byte) (TOC | 0x03);
+        expected[1] = 3;
+        Arrays.fill(expected, 2, 12, (byte) 1);
+        Arrays.fill(expected, 12, 22, (byte) 2);
+        Arrays.fill(expected, 22, 32, (byte) 3);
+        assertArrayEquals(expected, bytes(repacketizer.build()));
+        assertTrue(repacketizer.isEmpty());
+    }
+
+    @Test
+    public void testCombinesVariableFramesWithLengths() {
+        final OpusRepacketizer repacketizer = new OpusRepacketizer(2);
+        repacketizer.add(frame(TOC, 300, (byte) 1), 0, 1);
+        repacketizer.add(frame(TOC, 5, (byte) 2), 960, 1);
+
+        final byte[] packet = bytes(repacketizer.build());
+        assertEquals(2 + 2 + 300 + 5, packet.length);
+        assertEquals((byte) (TOC | 0x03), packet[0]);
+        assertEquals((byte) (0x80 | 2), packet[1], "vbr flag and frame count");
+        // 300 = 252 + (300 & 3) + 4 * 12
+        assertEquals(252, packet[2] & 0xFF);
+        assertEquals(12, packet[3] & 0xFF);
+        assertEquals(1, packet[4]);
+        assertEquals(2, packet[packet.length - 1]);
+    }
+
+    @Test
+    public void testKeepsSingleFrame() {
+        final OpusRepacketizer repacketizer = new OpusRepacketizer(3);
+        final ByteBuffer frame = frame(TOC, 7, (byte) 9);
+        repacketizer.add(frame, 0, 1);
+        assertEquals(0, frame.position(), "position of the frame is left untouched");
+        assertArrayEquals(bytes(frame), bytes(repacketizer.build()));
+    }
+
+    @Test
+    public void testDoesNotCombineDifferentConfigurations() {
+        final OpusRepacketizer repacketizer = new OpusRepacketizer(3);
+        repacketizer.add(frame(TOC, 7, (byte) 9), 0, 1);
+        assertFalse(repacketizer.canAdd(frame(0xF8, 2, (byte) 0xFF)), "different channel count");
+
+        final ByteBuffer code1 = frame(TOC | 0x01, 8, (byte) 3);
+        assertFalse(repacketizer.canAdd(code1), "packets of two frames are passed on as they are");
+        repacketizer.build();
+        repacketizer.add(code1, 960, 1);
+        assertTrue(repacketizer.isFull());
+        assertArrayEquals(bytes(code1), bytes(repacketizer.build()));
+    }
+
+    @Test
+    public void testAddingLeavesBuiltPacketIntact() {
+        final OpusRepacketizer repacketizer = new OpusRepacketizer(3);
+        repacketizer.add(frame(TOC, 10, (byte) 1), 0, 1);
+        repacketizer.add(frame(TOC, 10, (byte) 2), 960, 1);
+        final ByteBuffer combined = repacketizer.build();
+        final byte[] expectedCombined = bytes(combined);
+
+        // the packet provider adds the frame that did not fit before the built packet is sent
+        final ByteBuffer code3 = frame(TOC | 0x03, 40, (byte) 7);
+        repacketizer.add(code3, 1920, 1);
+        assertArrayEquals(expectedCombined, bytes(combined), "combined packet after adding a code 3 packet");
+
+        final ByteBuffer passedOn = repacketizer.build();
+        assertArrayEquals(bytes(code3), bytes(passedOn));
+        repacketizer.add(frame(TOC, 10, (byte) 3), 2880, 1);
+        assertArrayEquals(bytes(code3), bytes(passedOn), "passed on packet after adding a code 0 frame");
+    }
+
+    @Test
+    public void testDoesNotExceedMaximumDuration() {
+        // silk wideband 60 ms, two of them make 120 ms
+        final int silk60 = (11 << 3);
+        final OpusRepacketizer repacketizer = new OpusRepacketizer(3);
+        repacketizer.add(frame(silk60, 5, (byte) 1), 0, 1);
+        repacketizer.add(frame(silk60, 5, (byte) 2), 2880, 1);
+        assertFalse(repacketizer.canAdd(frame(silk60, 5, (byte) 3)));
+        assertEquals(2, repacketizer.getFrameCount());
+    }
+
+    private static ByteBuffer frame(final int toc, final int frameLength, final byte content) {
+        final byte[] packet = new byte[1 + frameLength];
+        packet[0] = (byte) toc;
+        Arrays.fill(packet, 1, packet.length, content);
+        return ByteBuffer.wrap(packet);
+    }
+
+    private static byte[] bytes(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OpusSilenceDetectorTest {
+
+    private static final ByteBuffer SILENCE = ByteBuffer.wrap(new byte[]{(byte) 0xFC, (byte) 0xFF, (byte) 0xFE});
+    private static final ByteBuffer DTX = ByteBuffer.wrap(new byte[]{(byte) 0x78});
+    private static final ByteBuffer AUDIO = ByteBuffer.wrap(new byte[]{(byte) 0xFC, 1, 2, 3, 4, 5, 6, 7});
+
+    @Test
+    public void testRecognizesSilence() {
+        assertTrue(OpusSilenceDetector.isSilent(SILENCE));
+        assertTrue(OpusSilenceDetector.isSilent(DTX));
+        assertTrue(OpusSilenceDetector.isSilent(ByteBuffer.wrap(new byte[]{(byte) 0xFD, (byte) 0xFF, (byte) 0xFE})),
+                "two silent frames");
+        assertFalse(OpusSilenceDetector.isSilent(AUDIO));
+        assertFalse(OpusSilenceDetector.isSilent(ByteBuffer.wrap(new byte[]{(byte) 0xFF, 1, 2})),
+                "code 3 packets are not looked into");
+    }
+
+    @Test
+    public void testSuppressesAfterRun() {
+        final OpusSilenceDetector detector = new OpusSilenceDetector(5);
+        for (int i = 0; i < 5; i++) {
+            assertFalse(detector.suppress(SILENCE), "silent frame " + i + " of the run is sent");
+        }
+        assertTrue(detector.suppress(SILENCE));
+        assertTrue(detector.suppress(DTX));
+        assertFalse(detector.suppress(AUDIO), "audio resumes right away");
+        assertFalse(detector.suppress(SILENCE), "a new run starts");
+    }
+}
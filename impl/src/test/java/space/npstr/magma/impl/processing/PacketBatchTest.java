@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import org.junit.jupiter.api.Test;
+import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.crypto.CipherContext;
+import space.npstr.magma.impl.crypto.XSalsa20Poly1305;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static net.dv8tion.jda.api.audio.AudioPacket.RTP_HEADER_BYTE_LENGTH;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PacketBatchTest {
+
+    private static final int[] LENGTHS = {3, 40, 120, 400, 1000};
+
+    @Test
+    public void testMatchesRtpPacketWriter() {
+        final Random random = new Random(44);
+        final byte[] secretKey = new byte[32];
+        random.nextBytes(secretKey);
+        final CipherContext batchContext = new CipherContext(secretKey);
+        final CipherContext precomputingContext = new CipherContext(secretKey, 4);
+        final CipherContext writerContext = new CipherContext(secretKey);
+        final PacketBatch batch = new PacketBatch();
+
+        // run twice to cover reusing a cleared batch
+        for (int round = 0; round < 2; round++) {
+            final List<ByteBuffer> expected = new ArrayList<>();
+            for (final EncryptionMode mode : EncryptionMode.values()) {
+                if (mode == EncryptionMode.XSALSA20_POLY1305_SUFFIX) {
+                    continue; // random nonces
+                }
+                for (final int length : LENGTHS) {
+                    final byte[] audio = new byte[length];
+                    random.nextBytes(audio);
+                    final char seq = (char) random.nextInt();
+                    final int timestamp = random.nextInt();
+                    final long nonce = random.nextInt() & 0xFFFFFFFFL;
+                    // lite packets of a connection that precomputes its key streams are written right away
+                    final CipherContext cipherContext = length == 40 ? precomputingContext : batchContext;
+
+                    final int index = batch.add(seq, timestamp, 42, ByteBuffer.wrap(audio), mode, cipherContext,
+                            () -> nonce);
+                    assertEquals(expected.size(), index);
+                    expected.add(RtpPacketWriter.write(ByteBuffer.allocate(RtpPacketWriter.maxPacketLength(length)),
+                            seq, timestamp, 42, ByteBuffer.wrap(audio), mode, writerContext, () -> nonce));
+                    // the send handler may reuse the buffer of its frame before the batch is sealed
+                    Arrays.fill(audio, (byte) 0);
+                }
+            }
+            final ByteBuffer sealed = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5}, 1, 3);
+            assertEquals(expected.size(), batch.addSealed(sealed));
+            assertEquals(1, sealed.position(), "position of the sealed packet");
+            expected.add(ByteBuffer.wrap(new byte[]{2, 3, 4}));
+
+            batch.seal();
+            assertEquals(expected.size(), batch.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), batch.get(i), "packet " + i + " of round " + round);
+            }
+            batch.clear();
+        }
+    }
+
+    @Test
+    public void testAppendsRandomNonce() {
+        final byte[] secretKey = new byte[32];
+        final CipherContext cipherContext = new CipherContext(secretKey);
+        final PacketBatch batch = new PacketBatch();
+        final byte[] audio = new byte[50];
+        Arrays.fill(audio, (byte) 7);
+
+        batch.add((char) 1, 960, 42, ByteBuffer.wrap(audio), EncryptionMode.XSALSA20_POLY1305_SUFFIX, cipherContext,
+                () -> 0);
+        batch.seal();
+
+        final ByteBuffer packet = batch.get(0);
+        final int nonceOffset = packet.limit() - XSalsa20Poly1305.NONCE_LENGTH;
+        assertEquals(RTP_HEADER_BYTE_LENGTH + audio.length + XSalsa20Poly1305.OVERHEAD_LENGTH, nonceOffset);
+        final byte[] nonce = Arrays.copyOfRange(packet.array(), nonceOffset, packet.limit());
+        final byte[] expected = new byte[audio.length + XSalsa20Poly1305.OVERHEAD_LENGTH];
+        new CipherContext(secretKey).getSecretBox().seal(audio, 0, audio.length, nonce, expected, 0);
+        assertArrayEquals(expected, Arrays.copyOfRange(packet.array(), RTP_HEADER_BYTE_LENGTH, nonceOffset));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PacketBufferArenaTest {
+
+    @Test
+    public void testBorrowAndRelease() {
+        final PacketBufferArena arena = new PacketBufferArena();
+
+        final ByteBuffer small = arena.borrow(100);
+        assertEquals(128, small.capacity(), "smallest fitting size class");
+        assertEquals(0, small.position());
+        assertEquals(128, small.limit());
+        assertTrue(small.hasArray(), "packets need a backing array");
+        final ByteBuffer medium = arena.borrow(129);
+        assertEquals(256, medium.capacity());
+        assertEquals(128 + 256, arena.getBytesInUse());
+        final long reserved = arena.getBytesReserved();
+        assertTrue(reserved > 0, "slabs were allocated");
+
+        arena.release(small);
+        assertEquals(256, arena.getBytesInUse());
+        small.put((byte) 1);
+        assertSame(small, arena.borrow(128), "released buffers are reused");
+        assertEquals(0, small.position(), "borrowed buffers are cleared");
+
+        final ByteBuffer huge = arena.borrow(10_000);
+        assertEquals(10_000, huge.capacity(), "oversized buffers are allocated on demand");
+        arena.release(huge);
+        arena.release(medium);
+        arena.release(small);
+        assertEquals(0, arena.getBytesInUse());
+        assertEquals(reserved, arena.getBytesReserved(), "no more slabs were needed");
+    }
+
+    @Test
+    public void testBuffersDoNotOverlap() {
+        final PacketBufferArena arena = new PacketBufferArena();
+        final ByteBuffer first = arena.borrow(512);
+        final ByteBuffer second = arena.borrow(512);
+        for (int i = 0; i < 512; i++) {
+            first.put((byte) 1);
+            second.put((byte) 2);
+        }
+        for (int i = 0; i < 512; i++) {
+            assertEquals(1, first.get(i));
+            assertEquals(2, second.get(i));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import net.dv8tion.jda.api.audio.AudioPacket;
+import org.junit.jupiter.api.Test;
+import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.crypto.CipherContext;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PacketUtilTest {
+
+    @Test
+    public void testDirectAudioMatchesHeapAudio() {
+        final Random random = new Random(42);
+        final byte[] secretKey = new byte[32];
+        random.nextBytes(secretKey);
+
+        for (final EncryptionMode mode : EncryptionMode.values()) {
+            if (mode == EncryptionMode.XSALSA20_POLY1305_SUFFIX) {
+                continue; // random nonces
+            }
+            for (final int length : new int[]{3, 40, 120, 400}) {
+                final byte[] audio = new byte[length];
+                random.nextBytes(audio);
+                final ByteBuffer heap = ByteBuffer.wrap(audio);
+                // direct, little endian, and not starting at position 0
+                final ByteBuffer direct = ByteBuffer.allocateDirect(length + 5).order(ByteOrder.LITTLE_ENDIAN);
+                direct.position(5);
+                direct.put(audio);
+                direct.position(5);
+
+                final ByteBuffer expected = encrypt(mode, secretKey, heap);
+                final ByteBuffer actual = encrypt(mode, secretKey, direct);
+
+                assertEquals(expected, actual, mode + " with " + length + " bytes of audio");
+                assertEquals(5, direct.position(), "position of the audio buffer");
+            }
+        }
+    }
+
+    @Test
+    public void testWriterMatchesAudioPacket() {
+        final Random random = new Random(43);
+        final byte[] secretKey = new byte[32];
+        random.nextBytes(secretKey);
+        final RtpPacketWriter writer = new RtpPacketWriter();
+
+        for (final EncryptionMode mode : EncryptionMode.values()) {
+            if (mode == EncryptionMode.XSALSA20_POLY1305_SUFFIX) {
+                continue; // random nonces
+            }
+            for (final int length : new int[]{3, 40, 120, 400, 1000}) {
+                final byte[] audio = new byte[length];
+                random.nextBytes(audio);
+                final AudioPacket audioPacket = new AudioPacket((char) 65535, -7, 0x12345678, ByteBuffer.wrap(audio));
+                final CipherContext cipherContext = new CipherContext(secretKey);
+
+                final ByteBuffer expected;
+                if (mode == EncryptionMode.AEAD_AES256_GCM_RTPSIZE || mode == EncryptionMode.AEAD_XCHACHA20_POLY1305_RTPSIZE) {
+                    final byte[] nonce = new byte[24];
+                    PacketUtil.writeNonce(3, nonce);
+                    expected = audioPacket.asAeadEncryptedPacket(ByteBuffer.allocate(2048),
+                            mode == EncryptionMode.AEAD_AES256_GCM_RTPSIZE
+                                    ? cipherContext.getAesGcmCipher()
+                                    : cipherContext.getXChaChaCipher(),
+                            Arrays.copyOf(nonce, mode == EncryptionMode.AEAD_AES256_GCM_RTPSIZE ? 12 : 24), 4);
+                } else {
+                    final byte[] nonce = new byte[24];
+                    final int nonceLength = PacketUtil.writeXSalsa20Nonce(audioPacket, mode, nonce, () -> 3);
+                    expected = audioPacket.asEncryptedPacket(ByteBuffer.allocate(2048), cipherContext.getSecretBox(),
+                            nonce, nonceLength);
+                }
+                final ByteBuffer actual = writer.write(audioPacket.getSequence(), audioPacket.getTimestamp(),
+                        audioPacket.getSSRC(), audioPacket.getEncodedAudio(), mode, new CipherContext(secretKey), () -> 3);
+
+                assertEquals(expected, actual, mode + " with " + length + " bytes of audio");
+
+                // written at an offset into an array of the send system
+                final byte[] target = new byte[7 + RtpPacketWriter.maxPacketLength(length)];
+                final int written = RtpPacketWriter.write(target, 7, audioPacket.getSequence(),
+                        audioPacket.getTimestamp(), audioPacket.getSSRC(), audioPacket.getEncodedAudio(), mode,
+                        new CipherContext(secretKey), () -> 3);
+                assertEquals(expected, ByteBuffer.wrap(target, 7, written), mode + " written into an array");
+            }
+        }
+    }
+
+    private static ByteBuffer encrypt(final EncryptionMode mode, final byte[] secretKey, final ByteBuffer audio) {
+        final AudioPacket audioPacket = new AudioPacket((char) 7, 960, 1234, audio);
+        return PacketUtil.encryptPacket(audioPacket, ByteBuffer.allocate(512), mode, new CipherContext(secretKey),
+                () -> 1);
+    }
+}
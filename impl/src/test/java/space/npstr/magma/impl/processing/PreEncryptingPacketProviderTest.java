@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import org.junit.jupiter.api.Test;
+import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.connections.AudioConnection;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PreEncryptingPacketProviderTest {
+
+    @Test
+    public void testPacketsAreStampedInOrder() {
+        final AtomicLong nonce = new AtomicLong();
+        final PreEncryptingPacketProvider provider = new PreEncryptingPacketProvider(
+                new TestAudioConnection(EncryptionMode.XSALSA20_POLY1305_LITE), nonce::incrementAndGet, 3, 0);
+        try {
+            for (int i = 0; i < 50; i++) {
+                final ByteBuffer packet = provider.getNextPacketRaw(false);
+                assertNotNull(packet, "packet " + i);
+                assertEquals((char) i, TestAudioConnection.sequenceOf(packet), "sequence of packet " + i);
+                assertEquals(i * AudioConnection.OPUS_FRAME_SIZE, TestAudioConnection.timestampOf(packet),
+                        "timestamp of packet " + i);
+                // the lite nonce is appended to the packet
+                assertEquals(i + 1, packet.getInt(packet.limit() - 4), "nonce of packet " + i);
+            }
+        } finally {
+            provider.shutdown();
+        }
+        assertNull(provider.getNextPacketRaw(false));
+    }
+
+    @Test
+    public void testNonceCounterIsOnlyUsedByCounterModes() {
+        final AtomicLong nonce = new AtomicLong();
+        final PreEncryptingPacketProvider provider = new PreEncryptingPacketProvider(
+                new TestAudioConnection(EncryptionMode.XSALSA20_POLY1305), nonce::incrementAndGet, 2, 0);
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertNotNull(provider.getNextPacketRaw(false));
+            }
+        } finally {
+            provider.shutdown();
+        }
+        assertEquals(0, nonce.get());
+    }
+
+    @Test
+    public void testDepthOfOneIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new PreEncryptingPacketProvider(
+                new TestAudioConnection(EncryptionMode.XSALSA20_POLY1305), () -> 0, 1, 0));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.processing;
+
+import net.dv8tion.jda.api.audio.AudioSendHandler;
+import space.npstr.magma.api.Options;
+import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.connections.AudioConnection;
+import space.npstr.magma.impl.crypto.CipherContext;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link AudioConnection} that is ready to send right away, without a websocket behind it. Its send handler
+ * provides opus frames of ten bytes, which start with the number of the frame.
+ */
+public class TestAudioConnection extends AudioConnection {
+
+    public static final int SSRC = 0x12345678;
+
+    private final EncryptionMode encryptionMode;
+    private final CipherContext cipherContext = new CipherContext(new byte[32]);
+    private final InetSocketAddress targetAddress;
+    private final AtomicInteger frames = new AtomicInteger();
+    private volatile boolean speaking = false;
+    private volatile AudioSendHandler sendHandler = new AudioSendHandler() {
+        @Override
+        public boolean canProvide() {
+            return true;
+        }
+
+        @Override
+        public ByteBuffer provide20MsAudio() {
+            final ByteBuffer frame = ByteBuffer.allocate(10);
+            // a code 0 packet of a 20 ms celt frame, which is not mistaken for silence
+            frame.put(0, (byte) 0xFC);
+            frame.putInt(1, TestAudioConnection.this.frames.getAndIncrement());
+            return frame;
+        }
+
+        @Override
+        public boolean isOpus() {
+            return true;
+        }
+    };
+
+    @SuppressWarnings("ConstantConditions")
+    public TestAudioConnection(final EncryptionMode encryptionMode, final InetSocketAddress targetAddress) {
+        super(null, null, null, new Options() {});
+        this.encryptionMode = encryptionMode;
+        this.targetAddress = targetAddress;
+    }
+
+    public TestAudioConnection(final EncryptionMode encryptionMode) {
+        this(encryptionMode, new InetSocketAddress(0));
+    }
+
+    /**
+     * @return how many frames the send handler provided
+     */
+    public int getProvidedFrames() {
+        return this.frames.get();
+    }
+
+    @Override
+    public EncryptionMode getEncryptionMode() {
+        return this.encryptionMode;
+    }
+
+    @Override
+    public CipherContext getCipherContext() {
+        return this.cipherContext;
+    }
+
+    @Override
+    public Integer getSsrc() {
+        return SSRC;
+    }
+
+    @Override
+    public InetSocketAddress getUdpTargetAddress() {
+        return this.targetAddress;
+    }
+
+    @Override
+    public AudioSendHandler getSendHandler() {
+        return this.sendHandler;
+    }
+
+    /**
+     * Play another send handler in place of the counting one.
+     */
+    public void setSendHandler(final AudioSendHandler sendHandler) {
+        this.sendHandler = sendHandler;
+    }
+
+    @Override
+    public boolean isSpeaking() {
+        return this.speaking;
+    }
+
+    @Override
+    public void updateSpeaking(final boolean shouldSpeak) {
+        this.speaking = shouldSpeak;
+    }
+
+    /**
+     * @return the rtp sequence of the packet that starts at the position of the buffer
+     */
+    public static char sequenceOf(final ByteBuffer packet) {
+        return packet.getChar(packet.position() + 2);
+    }
+
+    /**
+     * @return the rtp timestamp of the packet that starts at the position of the buffer
+     */
+    public static int timestampOf(final ByteBuffer packet) {
+        return packet.getInt(packet.position() + 4);
+    }
+}
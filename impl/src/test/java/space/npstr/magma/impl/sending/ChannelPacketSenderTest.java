@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import org.junit.jupiter.api.Test;
+import space.npstr.magma.api.CatchUpPolicy;
+import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.connections.AudioConnection;
+import space.npstr.magma.impl.processing.LookaheadPacketProvider;
+import space.npstr.magma.impl.processing.PacketProvider;
+import space.npstr.magma.impl.processing.TestAudioConnection;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ChannelPacketSenderTest {
+
+    private static final long PERIOD = SendClock.PERIOD_NANOS;
+
+    @Test
+    public void testSkipJumpsTheTimestampOfSentPackets() throws Exception {
+        try (final DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             final DatagramChannel channel = DatagramChannel.open()) {
+            receiver.setSoTimeout(2000);
+            final TestAudioConnection connection = new TestAudioConnection(EncryptionMode.XSALSA20_POLY1305,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.getLocalPort()));
+            final CatchUpCounters stats = new CatchUpCounters();
+            final ChannelPacketSender sender = new ChannelPacketSender(new PacketProvider(connection, () -> 0),
+                    CatchUpPolicy.SKIP, stats);
+            final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(4096);
+
+            sender.sendDuePackets(channel, sendBuffer, 0);
+            final int first = receiveTimestamp(receiver);
+            sender.sendDuePackets(channel, sendBuffer, PERIOD);
+            assertEquals(first + AudioConnection.OPUS_FRAME_SIZE, receiveTimestamp(receiver));
+
+            // four frames behind
+            sender.sendDuePackets(channel, sendBuffer, 6 * PERIOD);
+            assertEquals(first + 6 * AudioConnection.OPUS_FRAME_SIZE, receiveTimestamp(receiver));
+            assertEquals(4, stats.getSkippedFrames());
+        }
+    }
+
+    @Test
+    public void testSkipStretchesProvidersThatStampAhead() throws Exception {
+        try (final DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             final DatagramChannel channel = DatagramChannel.open()) {
+            final LookaheadPacketProvider provider = new LookaheadPacketProvider(
+                    new TestAudioConnection(EncryptionMode.XSALSA20_POLY1305,
+                            new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.getLocalPort())),
+                    () -> 0, 4, 0);
+            final CatchUpCounters stats = new CatchUpCounters();
+            final ChannelPacketSender sender = new ChannelPacketSender(provider, CatchUpPolicy.SKIP, stats);
+            try {
+                sender.sendDuePackets(channel, ByteBuffer.allocateDirect(4096), 0);
+                sender.sendDuePackets(channel, ByteBuffer.allocateDirect(4096), 5 * PERIOD);
+            } finally {
+                provider.shutdown();
+            }
+
+            assertEquals(0, stats.getSkips());
+            assertEquals(4, stats.getStretchedFrames());
+        }
+    }
+
+    private static int receiveTimestamp(final DatagramSocket receiver) throws Exception {
+        final DatagramPacket datagram = new DatagramPacket(new byte[512], 512);
+        receiver.receive(datagram);
+        return ByteBuffer.wrap(datagram.getData(), 0, datagram.getLength()).getInt(4);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import com.iwebpp.crypto.TweetNaclFast;
+import net.dv8tion.jda.api.audio.factory.IAudioSendSystem;
+import org.junit.jupiter.api.Test;
+import space.npstr.magma.impl.EncryptionMode;
+import space.npstr.magma.impl.processing.PacketProvider;
+import space.npstr.magma.impl.processing.TestAudioConnection;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static net.dv8tion.jda.api.audio.AudioPacket.RTP_HEADER_BYTE_LENGTH;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NioSendFactoryTest {
+
+    @Test
+    public void testSendsPacketsEveryTick() throws Exception {
+        SendFactoryTestSupport.assertSendsPacketsEveryTick(new NioSendFactory());
+    }
+
+    @Test
+    public void testWritesZeroCopyPacketsEveryTick() throws Exception {
+        SendFactoryTestSupport.assertSendsPacketsEveryTick(new NioSendFactory(), true);
+    }
+
+    @Test
+    public void testSealsPacketsOfMagmaProvidersInBatches() throws Exception {
+        final NioSendFactory factory = new NioSendFactory();
+        try (final DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setSoTimeout(2000);
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    receiver.getLocalPort());
+            final IAudioSendSystem[] sendSystems = new IAudioSendSystem[3];
+            for (int i = 0; i < sendSystems.length; i++) {
+                final TestAudioConnection connection = new TestAudioConnection(EncryptionMode.XSALSA20_POLY1305,
+                        target);
+                sendSystems[i] = factory.createSendSystem(new PacketProvider(connection, () -> 0));
+                sendSystems[i].start();
+            }
+
+            try {
+                // the test connections share their key, and the nonce is the rtp header
+                final TweetNaclFast.SecretBox secretBox = new TweetNaclFast.SecretBox(new byte[32]);
+                final DatagramPacket datagram = new DatagramPacket(new byte[512], 512);
+                for (int i = 0; i < 30; i++) {
+                    receiver.receive(datagram);
+                    final byte[] packet = Arrays.copyOf(datagram.getData(), datagram.getLength());
+                    assertEquals(TestAudioConnection.SSRC, ByteBuffer.wrap(packet).getInt(8));
+                    final byte[] nonce = Arrays.copyOf(packet, 24);
+                    Arrays.fill(nonce, RTP_HEADER_BYTE_LENGTH, nonce.length, (byte) 0);
+                    final byte[] audio = secretBox.open(
+                            Arrays.copyOfRange(packet, RTP_HEADER_BYTE_LENGTH, packet.length), nonce);
+                    assertNotNull(audio, "packet " + i + " can be opened");
+                    // silent frames first, then the frames of the send handler
+                    assertTrue(audio.length == 3 || (audio.length == 10 && audio[0] == (byte) 0xFC),
+                            "audio of packet " + i + ": " + Arrays.toString(audio));
+                }
+            } finally {
+                for (final IAudioSendSystem sendSystem : sendSystems) {
+                    sendSystem.shutdown();
+                }
+            }
+        }
+    }
+}
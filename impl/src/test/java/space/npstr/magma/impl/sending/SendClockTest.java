@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import org.junit.jupiter.api.Test;
+import space.npstr.magma.api.CatchUpPolicy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SendClockTest {
+
+    private static final long PERIOD = SendClock.PERIOD_NANOS;
+
+    @Test
+    public void testOnePacketPerPeriod() {
+        final CatchUpCounters stats = new CatchUpCounters();
+        final SendClock clock = new SendClock(CatchUpPolicy.BURST, true, stats);
+
+        assertEquals(1, clock.packetsDue(1000));
+        assertEquals(0, clock.packetsDue(1000 + PERIOD / 4), "too early");
+        assertEquals(1, clock.packetsDue(1000 + PERIOD - PERIOD / 4), "slightly early");
+        assertEquals(1, clock.packetsDue(1000 + 2 * PERIOD + PERIOD / 2), "slightly late");
+        assertEquals(1000 + 3 * PERIOD, clock.getNextDeadline(), "lateness does not move the deadlines");
+        assertEquals(PERIOD / 2, clock.getAccumulatedDriftNanos(), "lateness of less than a period");
+        assertEquals(0, stats.getBursts());
+    }
+
+    @Test
+    public void testBurstSendsMissedFrames() {
+        final CatchUpCounters stats = new CatchUpCounters();
+        final SendClock clock = new SendClock(CatchUpPolicy.BURST, true, stats);
+        clock.packetsDue(0);
+
+        assertEquals(4, clock.packetsDue(4 * PERIOD));
+        assertEquals(0, clock.getSkippedFrames());
+        assertEquals(0, clock.packetsDue(4 * PERIOD + 1), "caught up");
+        assertEquals(5 * PERIOD, clock.getNextDeadline());
+
+        // missed more than a burst can take
+        assertEquals(SendClock.MAX_BURST_FRAMES, clock.packetsDue(5 * PERIOD + 30 * PERIOD));
+        assertEquals(30 - (SendClock.MAX_BURST_FRAMES - 1), clock.getSkippedFrames());
+
+        assertEquals(2, stats.getBursts());
+        assertEquals(3 + SendClock.MAX_BURST_FRAMES - 1, stats.getBurstFrames());
+        assertEquals(1, stats.getSkips());
+        assertEquals(33 * PERIOD, clock.getAccumulatedDriftNanos());
+    }
+
+    @Test
+    public void testSteadyLatenessAddsUp() {
+        final CatchUpCounters stats = new CatchUpCounters();
+        final SendClock clock = new SendClock(CatchUpPolicy.STRETCH, true, stats);
+        clock.packetsDue(0);
+
+        // a few milliseconds late on every tick, like a connection in a slot out of phase with its deadlines
+        final long late = PERIOD / 4;
+        for (int tick = 1; tick <= 10; tick++) {
+            assertEquals(1, clock.packetsDue(tick * PERIOD + late));
+        }
+        assertEquals(10 * late, clock.getAccumulatedDriftNanos());
+        assertEquals(0, stats.getStretches(), "never a whole period behind");
+    }
+
+    @Test
+    public void testSkipJumpsOverMissedFrames() {
+        final CatchUpCounters stats = new CatchUpCounters();
+        final SendClock clock = new SendClock(CatchUpPolicy.SKIP, true, stats);
+        clock.packetsDue(0);
+
+        assertEquals(1, clock.packetsDue(5 * PERIOD + 1));
+        assertEquals(4, clock.getSkippedFrames());
+        assertEquals(6 * PERIOD, clock.getNextDeadline());
+        assertEquals(1, clock.packetsDue(6 * PERIOD));
+        assertEquals(0, clock.getSkippedFrames());
+
+        assertEquals(1, stats.getSkips());
+        assertEquals(4, stats.getSkippedFrames());
+    }
+
+    @Test
+    public void testStretchSendsOnlyTheCurrentFrame() {
+        final CatchUpCounters stats = new CatchUpCounters();
+        final SendClock clock = new SendClock(CatchUpPolicy.STRETCH, true, stats);
+        clock.packetsDue(0);
+
+        assertEquals(1, clock.packetsDue(3 * PERIOD));
+        assertEquals(0, clock.getSkippedFrames());
+        assertEquals(0, clock.packetsDue(3 * PERIOD + PERIOD / 4));
+
+        assertEquals(1, stats.getStretches());
+        assertEquals(2, stats.getStretchedFrames());
+        assertEquals(2 * PERIOD, clock.getAccumulatedDriftNanos());
+    }
+
+    @Test
+    public void testStretchesWhenTheProviderCanNotSkip() {
+        final CatchUpCounters stats = new CatchUpCounters();
+        final SendClock clock = new SendClock(CatchUpPolicy.SKIP, false, stats);
+        clock.packetsDue(0);
+
+        assertEquals(1, clock.packetsDue(5 * PERIOD + 1));
+        assertEquals(0, clock.getSkippedFrames());
+        assertEquals(0, stats.getSkips());
+        assertEquals(1, stats.getStretches());
+        assertEquals(4, stats.getStretchedFrames());
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import net.dv8tion.jda.api.audio.factory.IAudioSendFactory;
+import net.dv8tion.jda.api.audio.factory.IAudioSendSystem;
+import net.dv8tion.jda.api.audio.factory.IPacketProvider;
+import net.dv8tion.jda.api.audio.hooks.ConnectionStatus;
+import space.npstr.magma.api.ZeroCopyPacketProvider;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class SendFactoryTestSupport {
+
+    private SendFactoryTestSupport() {
+    }
+
+    /**
+     * Send packets of a send system of the factory to a local socket, and check that they arrive in order, paced at
+     * 20 ms, and stop once the send system is shut down.
+     */
+    static void assertSendsPacketsEveryTick(final IAudioSendFactory factory) throws Exception {
+        assertSendsPacketsEveryTick(factory, false);
+    }
+
+    /**
+     * @param zeroCopy
+     *         whether the packet provider is a {@link ZeroCopyPacketProvider}, like the ones of Magma, which only
+     *         writes its packets into the buffers of the send system
+     *
+     * @see #assertSendsPacketsEveryTick(IAudioSendFactory)
+     */
+    static void assertSendsPacketsEveryTick(final IAudioSendFactory factory, final boolean zeroCopy)
+            throws Exception {
+        try (final DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setSoTimeout(2000);
+            final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    receiver.getLocalPort());
+            final CountingPacketProvider provider = zeroCopy
+                    ? new ZeroCopyCountingPacketProvider(target)
+                    : new CountingPacketProvider(target);
+            final IAudioSendSystem sendSystem = factory.createSendSystem(provider);
+
+            final long start = System.nanoTime();
+            sendSystem.start();
+            final DatagramPacket datagram = new DatagramPacket(new byte[16], 16);
+            for (int i = 0; i < 5; i++) {
+                receiver.receive(datagram);
+                assertEquals(4, datagram.getLength());
+                assertEquals(i, ByteBuffer.wrap(datagram.getData()).getInt(0), "packets in order");
+            }
+            final long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            sendSystem.shutdown();
+
+            assertTrue(elapsedMillis >= 4 * 20 - 5, "paced at 20 ms, took " + elapsedMillis + "ms");
+            final int sent = provider.packets.get();
+            Thread.sleep(100);
+            assertTrue(provider.packets.get() <= sent + 1, "no packets after the send system was shut down");
+        }
+    }
+
+    // provides packets of four bytes that hold the number of the packet
+    private static class CountingPacketProvider implements IPacketProvider {
+
+        private final InetSocketAddress target;
+        protected final AtomicInteger packets = new AtomicInteger();
+
+        private CountingPacketProvider(final InetSocketAddress target) {
+            this.target = target;
+        }
+
+        @Override
+        public ByteBuffer getNextPacketRaw(final boolean changeTalking) {
+            final ByteBuffer packet = ByteBuffer.allocate(4);
+            packet.putInt(0, this.packets.getAndIncrement());
+            return packet;
+        }
+
+        @Override
+        public InetSocketAddress getSocketAddress() {
+            return this.target;
+        }
+
+        @Override
+        public String getIdentifier() {
+            return "";
+        }
+
+        @Override
+        public String getConnectedChannel() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DatagramSocket getUdpSocket() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DatagramPacket getNextPacket(final boolean changeTalking) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onConnectionError(final ConnectionStatus status) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onConnectionLost() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    // writes the packets into the buffer of the send system, and refuses to hand out buffers of its own
+    private static class ZeroCopyCountingPacketProvider extends CountingPacketProvider
+            implements ZeroCopyPacketProvider {
+
+        private ZeroCopyCountingPacketProvider(final InetSocketAddress target) {
+            super(target);
+        }
+
+        @Override
+        public int writeNextPacket(final ByteBuffer target, final boolean changeTalking) {
+            target.putInt(this.packets.getAndIncrement());
+            return 4;
+        }
+
+        @Override
+        public ByteBuffer getNextPacketRaw(final boolean changeTalking) {
+            throw new UnsupportedOperationException("Send systems should have the packets written into their buffers");
+        }
+    }
+}
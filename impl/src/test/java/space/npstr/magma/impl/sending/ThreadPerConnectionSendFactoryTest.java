@@ -0,0 +1,32 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import org.junit.jupiter.api.Test;
+
+public class ThreadPerConnectionSendFactoryTest {
+
+    @Test
+    public void testSendsPacketsEveryTick() throws Exception {
+        SendFactoryTestSupport.assertSendsPacketsEveryTick(new ThreadPerConnectionSendFactory());
+    }
+
+    @Test
+    public void testWritesZeroCopyPacketsEveryTick() throws Exception {
+        SendFactoryTestSupport.assertSendsPacketsEveryTick(new ThreadPerConnectionSendFactory(), true);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018-2019 Dennis Neufeld
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package space.npstr.magma.impl.sending;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TimingWheelTest {
+
+    @Test
+    public void testSpreadsEntriesOverSlots() {
+        final TimingWheel<Object> wheel = new TimingWheel<>(4);
+        final List<Object> entries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final Object entry = new Object();
+            entries.add(entry);
+            assertTrue(wheel.add(entry));
+        }
+        assertFalse(wheel.add(entries.get(0)));
+
+        assertEquals(10, wheel.size());
+        assertArrayEquals(new int[]{3, 3, 2, 2}, wheel.getOccupancy());
+        for (final Object entry : entries) {
+            final int slot = wheel.slotOf(entry);
+            assertTrue(wheel.getSlot(slot).contains(entry));
+        }
+    }
+
+    @Test
+    public void testRebalancesOnRemove() {
+        final TimingWheel<Object> wheel = new TimingWheel<>(4);
+        final List<Object> entries = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final Object entry = new Object();
+            entries.add(entry);
+            wheel.add(entry);
+        }
+        // empty one slot completely
+        final List<Object> slotZero = new ArrayList<>(wheel.getSlot(0));
+        final int[] slotsBefore = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            slotsBefore[i] = wheel.slotOf(entries.get(i));
+        }
+        for (final Object entry : slotZero) {
+            assertTrue(wheel.remove(entry));
+        }
+        assertFalse(wheel.remove(slotZero.get(0)));
+        assertEquals(-1, wheel.slotOf(slotZero.get(0)));
+
+        final int[] occupancy = wheel.getOccupancy();
+        assertEquals(6, Arrays.stream(occupancy).sum());
+        assertTrue(Arrays.stream(occupancy).max().getAsInt() - Arrays.stream(occupancy).min().getAsInt() <= 1);
+
+        // only as many entries as needed moved
+        int moved = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            final int slot = wheel.slotOf(entries.get(i));
+            if (slot >= 0 && slot != slotsBefore[i]) {
+                moved++;
+            }
+        }
+        assertEquals(1, moved);
+    }
+}
@@ -18,9 +18,15 @@ package space.npstr.magma;
 
 import java.util.function.Function;
 import net.dv8tion.jda.api.audio.factory.IAudioSendFactory;
+import space.npstr.magma.api.CatchUpPolicy;
 import space.npstr.magma.api.MagmaApi;
+import space.npstr.magma.api.MagmaSendFactory;
 import space.npstr.magma.api.Member;
+import space.npstr.magma.api.Options;
 import space.npstr.magma.impl.Magma;
+import space.npstr.magma.impl.sending.EpollSendFactory;
+import space.npstr.magma.impl.sending.NioSendFactory;
+import space.npstr.magma.impl.sending.ThreadPerConnectionSendFactory;
 
 /**
  * Created by napster on 08.05.19.
@@ -37,5 +43,77 @@ public class MagmaFactory {
         return new Magma(sendFactoryProvider);
     }
 
+    /**
+     * Create a new Magma instance, tuned with the provided options.
+     *
+     * @param sendFactoryProvider a provider of {@link IAudioSendFactory}s. It will have members applied to it.
+     * @param options tuning of the instance, see {@link space.npstr.magma.api.MagmaOptions}
+     *
+     * @see #of(Function)
+     */
+    public static MagmaApi of(final Function<Member, IAudioSendFactory> sendFactoryProvider, final Options options) {
+        return new Magma(sendFactoryProvider, options);
+    }
+
+    /**
+     * Create a send factory that is built into Magma, for when no native send system like jda-nas is at hand. All
+     * connections of the factory are driven by one timer thread, which sends their packets through a non-blocking
+     * {@link java.nio.channels.DatagramChannel}. Share one factory between all members:
+     * <pre>
+     * {@code
+     * MagmaSendFactory sendFactory = MagmaFactory.nioSendFactory();
+     * MagmaApi magma = MagmaFactory.of(member -> sendFactory);
+     * }
+     * </pre>
+     * The factory reports the load on its timing wheel and how its connections caught up when they fell behind, see
+     * {@link MagmaSendFactory}.
+     */
+    public static MagmaSendFactory nioSendFactory() {
+        return new NioSendFactory();
+    }
+
+    /**
+     * Like {@link #nioSendFactory()}, with a choice of what connections do when they fall behind.
+     */
+    public static MagmaSendFactory nioSendFactory(final CatchUpPolicy catchUpPolicy) {
+        return new NioSendFactory(catchUpPolicy);
+    }
+
+    /**
+     * Create a send factory on top of the native epoll transport of Netty, which sends the packets of all connections
+     * of a tick with a few batched {@code sendmmsg} syscalls, one datagram per packet, without segmentation offload.
+     * Falls back to {@link #nioSendFactory()} where the native transport is
+     * not available, for example on anything but linux. Share one factory between all members, like the
+     * {@link #nioSendFactory()}.
+     */
+    public static MagmaSendFactory epollSendFactory() {
+        return EpollSendFactory.isAvailable() ? new EpollSendFactory() : nioSendFactory();
+    }
+
+    /**
+     * Like {@link #epollSendFactory()}, with a choice of what connections do when they fall behind.
+     */
+    public static MagmaSendFactory epollSendFactory(final CatchUpPolicy catchUpPolicy) {
+        return EpollSendFactory.isAvailable()
+                ? new EpollSendFactory(catchUpPolicy)
+                : nioSendFactory(catchUpPolicy);
+    }
+
+    /**
+     * Create a send factory that is built into Magma, and runs the send loop of each connection on a thread of its
+     * own. On Java 21+ these are virtual threads, on older Javas platform threads. Share one factory between all
+     * members, like the {@link #nioSendFactory()}.
+     */
+    public static MagmaSendFactory threadPerConnectionSendFactory() {
+        return new ThreadPerConnectionSendFactory();
+    }
+
+    /**
+     * Like {@link #threadPerConnectionSendFactory()}, with a choice of what connections do when they fall behind.
+     */
+    public static MagmaSendFactory threadPerConnectionSendFactory(final CatchUpPolicy catchUpPolicy) {
+        return new ThreadPerConnectionSendFactory(catchUpPolicy);
+    }
+
     private MagmaFactory() {}
 }